@@ -5,6 +5,10 @@
 
 package com.servicemesh.agility.adapters.core.azure;
 
+import java.util.concurrent.CompletionStage;
+
+import com.servicemesh.agility.adapters.core.azure.impl.AzurePageIteratorImpl;
+import com.servicemesh.agility.adapters.core.azure.util.PromiseStages;
 import com.servicemesh.core.async.Promise;
 import com.servicemesh.io.http.IHttpResponse;
 import com.servicemesh.io.http.QueryParams;
@@ -32,6 +36,25 @@ public interface AzureConnection
      */
     public <T> Promise<T> get(String requestURI, QueryParams params, final Class<T> responseClass);
 
+    /**
+     * Retrieves an Azure resource. Cancelling the returned Promise cancels the request.
+     *
+     * @param requestURI
+     *            The URI specific to retrieving a resource
+     * @param params
+     *            Query parameters. Optional - may be null or empty.
+     * @param responseClass
+     *            The class of resource to be retrieved.
+     * @param options
+     *            Request options such as a deadline. Optional - may be null. The default implementation ignores the options.
+     * @return A Promise for the retrieved resource
+     */
+    public default <T> Promise<T> get(String requestURI, QueryParams params, final Class<T> responseClass,
+            AzureRequestOptions options)
+    {
+        return get(requestURI, params, responseClass);
+    }
+
     /**
      * Creates an Azure resource.
      *
@@ -46,6 +69,26 @@ public interface AzureConnection
      */
     public <T> Promise<T> post(String requestURI, Object resource, final Class<T> responseClass);
 
+    /**
+     * Creates an Azure resource. Cancelling the returned Promise cancels the request.
+     *
+     * @param requestURI
+     *            The URI specific to creating a resource
+     * @param resource
+     *            The data to be posted. If type is String it is directly used while any other type is encoded.
+     * @param responseClass
+     *            The class of the response. Typically either the class of the resource to be created or IHttpResponse if the
+     *            response has no body.
+     * @param options
+     *            Request options such as a deadline. Optional - may be null. The default implementation ignores the options.
+     * @return A Promise for the created resource
+     */
+    public default <T> Promise<T> post(String requestURI, Object resource, final Class<T> responseClass,
+            AzureRequestOptions options)
+    {
+        return post(requestURI, resource, responseClass);
+    }
+
     /**
      * Updates an Azure resource.
      *
@@ -60,6 +103,26 @@ public interface AzureConnection
      */
     public <T> Promise<T> put(String requestURI, Object resource, final Class<T> responseClass);
 
+    /**
+     * Updates an Azure resource. Cancelling the returned Promise cancels the request.
+     *
+     * @param requestURI
+     *            The URI specific to updating a resource
+     * @param resource
+     *            The data to be posted. If type is String it is directly used while any other type is encoded.
+     * @param responseClass
+     *            The class of the response. Typically either the class of the resource to be updated or IHttpResponse if the
+     *            response has no body.
+     * @param options
+     *            Request options such as a deadline. Optional - may be null. The default implementation ignores the options.
+     * @return A Promise for the updated resource
+     */
+    public default <T> Promise<T> put(String requestURI, Object resource, final Class<T> responseClass,
+            AzureRequestOptions options)
+    {
+        return put(requestURI, resource, responseClass);
+    }
+
     /**
      * Deletes an Azure resource
      *
@@ -68,4 +131,163 @@ public interface AzureConnection
      * @return A Promise for the response to the delete request
      */
     public Promise<IHttpResponse> delete(String requestURI);
+
+    /**
+     * Deletes an Azure resource. Cancelling the returned Promise cancels the request.
+     *
+     * @param requestURI
+     *            The URI specific to deleting a resource
+     * @param options
+     *            Request options such as a deadline. Optional - may be null. The default implementation ignores the options.
+     * @return A Promise for the response to the delete request
+     */
+    public default Promise<IHttpResponse> delete(String requestURI, AzureRequestOptions options)
+    {
+        return delete(requestURI);
+    }
+
+    /**
+     * Retrieves an Azure resource as a CompletionStage that completes on the HTTP I/O callback. Cancelling the stage's future
+     * cancels the request.
+     *
+     * @param requestURI
+     *            The URI specific to retrieving a resource
+     * @param params
+     *            Query parameters. Optional - may be null or empty.
+     * @param responseClass
+     *            The class of resource to be retrieved.
+     * @param options
+     *            Request options such as a deadline. Optional - may be null.
+     * @return A CompletionStage for the retrieved resource
+     * @see PromiseStages
+     */
+    public default <T> CompletionStage<T> getStage(String requestURI, QueryParams params, final Class<T> responseClass,
+            AzureRequestOptions options)
+    {
+        return PromiseStages.toCompletableFuture(get(requestURI, params, responseClass, options));
+    }
+
+    /**
+     * Creates an Azure resource as a CompletionStage that completes on the HTTP I/O callback. Cancelling the stage's future
+     * cancels the request.
+     *
+     * @param requestURI
+     *            The URI specific to creating a resource
+     * @param resource
+     *            The data to be posted. If type is String it is directly used while any other type is encoded.
+     * @param responseClass
+     *            The class of the response
+     * @param options
+     *            Request options such as a deadline. Optional - may be null.
+     * @return A CompletionStage for the created resource
+     */
+    public default <T> CompletionStage<T> postStage(String requestURI, Object resource, final Class<T> responseClass,
+            AzureRequestOptions options)
+    {
+        return PromiseStages.toCompletableFuture(post(requestURI, resource, responseClass, options));
+    }
+
+    /**
+     * Updates an Azure resource as a CompletionStage that completes on the HTTP I/O callback. Cancelling the stage's future
+     * cancels the request.
+     *
+     * @param requestURI
+     *            The URI specific to updating a resource
+     * @param resource
+     *            The data to be posted. If type is String it is directly used while any other type is encoded.
+     * @param responseClass
+     *            The class of the response
+     * @param options
+     *            Request options such as a deadline. Optional - may be null.
+     * @return A CompletionStage for the updated resource
+     */
+    public default <T> CompletionStage<T> putStage(String requestURI, Object resource, final Class<T> responseClass,
+            AzureRequestOptions options)
+    {
+        return PromiseStages.toCompletableFuture(put(requestURI, resource, responseClass, options));
+    }
+
+    /**
+     * Deletes an Azure resource as a CompletionStage that completes on the HTTP I/O callback. Cancelling the stage's future
+     * cancels the request.
+     *
+     * @param requestURI
+     *            The URI specific to deleting a resource
+     * @param options
+     *            Request options such as a deadline. Optional - may be null.
+     * @return A CompletionStage for the response to the delete request
+     */
+    public default CompletionStage<IHttpResponse> deleteStage(String requestURI, AzureRequestOptions options)
+    {
+        return PromiseStages.toCompletableFuture(delete(requestURI, options));
+    }
+
+    /**
+     * Lists the items of a paged list operation. Pages are retrieved as the items are consumed, following the continuation
+     * returned with each page, and the following pages are prefetched up to a configured limit. The default implementation
+     * prefetches up to the default limit.
+     *
+     * @param requestURI
+     *            The URI specific to retrieving the first page
+     * @param params
+     *            Query parameters of the first page. Optional - may be null or empty.
+     * @param pageClass
+     *            The class of a page. If IHttpResponse the reader is given the undecoded response.
+     * @param reader
+     *            Reads the items and the URI of the next page from a page
+     * @param options
+     *            Request options applied to every page, so a deadline bounds the whole listing. Optional - may be null.
+     * @return An iterator over the items, which should be closed if it is abandoned before it is exhausted
+     * @see com.servicemesh.agility.adapters.core.azure.Config#getPagePrefetch(java.util.List)
+     */
+    public default <P, T> AzurePageIterator<T> list(String requestURI, QueryParams params, Class<P> pageClass,
+            AzurePageReader<P, T> reader, AzureRequestOptions options)
+    {
+        return new AzurePageIteratorImpl<P, T>(this, requestURI, params, pageClass, reader, Config.PAGE_PREFETCH_DEFAULT,
+                options);
+    }
+
+    /**
+     * Returns the current adaptive limit on concurrent requests for this connection's subscription and endpoint address. The
+     * limit is shared by all connections to the same subscription and address. The default implementation returns -1, meaning
+     * the limit is not known.
+     *
+     * @see com.servicemesh.agility.adapters.core.azure.Config#getConcurrencyMaxLimit(java.util.List)
+     */
+    public default int getConcurrencyLimit()
+    {
+        return -1;
+    }
+
+    /**
+     * Returns the number of requests for this connection's subscription and endpoint address that are waiting to be sent. The
+     * default implementation returns -1, meaning the depth is not known.
+     */
+    public default int getQueueDepth()
+    {
+        return -1;
+    }
+
+    /**
+     * Sets the cache for GET responses. A cached response is reused without a request until its time to live expires and is then
+     * revalidated with If-None-Match or If-Modified-Since, reusing the cached object when the service answers 304 Not Modified.
+     * By default connections on the same shared HTTP client share a size-bounded LRU cache if one is configured. The default
+     * implementation does nothing, as the connection does not cache responses.
+     *
+     * @param cache
+     *            The response cache. Optional - null disables caching for this connection.
+     * @see com.servicemesh.agility.adapters.core.azure.Config#getResponseCacheSize(java.util.List)
+     * @see com.servicemesh.agility.adapters.core.azure.Config#getResponseCacheTtls(java.util.List)
+     */
+    public default void setResponseCache(AzureResponseCache cache)
+    {
+    }
+
+    /**
+     * Returns the cache for GET responses, or null if responses are not cached. The default implementation returns null.
+     */
+    public default AzureResponseCache getResponseCache()
+    {
+        return null;
+    }
 }
@@ -8,6 +8,7 @@ package com.servicemesh.agility.adapters.core.azure;
 import java.util.List;
 
 import com.servicemesh.agility.adapters.core.azure.impl.AzureConnectionImpl;
+import com.servicemesh.agility.adapters.core.azure.impl.AzureConnectionRegistry;
 import com.servicemesh.agility.api.Cloud;
 import com.servicemesh.agility.api.Credential;
 import com.servicemesh.agility.api.Link;
@@ -38,7 +39,9 @@ public class AzureConnectionFactory
     }
 
     /**
-     * Gets an Azure connection
+     * Gets an Azure connection. Connections with the same certificate, subscription, proxy and effective configuration
+     * settings share a single HTTP client; call {@link #releaseConnection(AzureConnection)} when the connection is no longer
+     * needed.
      *
      * @param settings
      *            The configuration settings for the connection. Optional - may be empty or null.
@@ -59,7 +62,9 @@ public class AzureConnectionFactory
     }
 
     /**
-     * Gets an Azure connection
+     * Gets an Azure connection. Connections with the same certificate, subscription, proxy and effective configuration
+     * settings share a single HTTP client; call {@link #releaseConnection(AzureConnection)} when the connection is no longer
+     * needed.
      *
      * @param settings
      *            The configuration settings for the connection. Optional - may be empty or null.
@@ -78,6 +83,54 @@ public class AzureConnectionFactory
         return new AzureConnectionImpl(settings, certificate, proxy, endpoint);
     }
 
+    /**
+     * Releases a connection's reference to its shared HTTP client. The client is closed once it is no longer referenced by any
+     * connection and has been idle for the configured idle timeout. The connection may not be used after it is released.
+     * Connections that were not created by this factory are ignored.
+     *
+     * @param connection
+     *            A connection obtained from getConnection()
+     * @see com.servicemesh.agility.adapters.core.azure.Config#getConnectionIdleTimeout(java.util.List)
+     */
+    public void releaseConnection(AzureConnection connection)
+    {
+        if (connection instanceof AzureConnectionImpl) {
+            ((AzureConnectionImpl) connection).close();
+        }
+    }
+
+    /**
+     * Returns the number of connections that reused an already open HTTP client
+     */
+    public long getConnectionHits()
+    {
+        return AzureConnectionRegistry.getInstance().getHits();
+    }
+
+    /**
+     * Returns the number of connections that required a new HTTP client
+     */
+    public long getConnectionMisses()
+    {
+        return AzureConnectionRegistry.getInstance().getMisses();
+    }
+
+    /**
+     * Returns the number of idle HTTP clients that have been closed
+     */
+    public long getConnectionEvictions()
+    {
+        return AzureConnectionRegistry.getInstance().getEvictions();
+    }
+
+    /**
+     * Returns the number of open shared HTTP clients
+     */
+    public int getSharedConnectionCount()
+    {
+        return AzureConnectionRegistry.getInstance().size();
+    }
+
     public static String getSubscription(ServiceProvider provider, List<Cloud> clouds)
     {
         // get from service provider asset properties, otherwise fall back to cloud provider
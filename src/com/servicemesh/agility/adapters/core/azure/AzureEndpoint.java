@@ -5,6 +5,9 @@
 
 package com.servicemesh.agility.adapters.core.azure;
 
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
 import javax.xml.bind.JAXBContext;
 
 import com.servicemesh.io.http.IHttpResponse;
@@ -97,4 +100,68 @@ public interface AzureEndpoint
      * @return The object encoded as an XML string
      */
     public String encode(String objContextPath, Object obj);
+
+    /**
+     * Encodes an object
+     *
+     * @param obj
+     *            The object to be encoded
+     * @return The object encoded as UTF-8 bytes
+     */
+    public byte[] encodeToBytes(Object obj);
+
+    /**
+     * Encodes an object
+     *
+     * @param objContextPath
+     *            The context path for the object if the default JAXB context is not to be used. Must use the same class loader as
+     *            the default context.
+     * @param obj
+     *            The object to be encoded
+     * @return The object encoded as UTF-8 bytes
+     */
+    public byte[] encodeToBytes(String objContextPath, Object obj);
+
+    /**
+     * Encodes an object as UTF-8 to an output stream. The stream is not closed.
+     *
+     * @param obj
+     *            The object to be encoded
+     * @param os
+     *            The stream to write to
+     */
+    public void encodeTo(Object obj, OutputStream os);
+
+    /**
+     * Encodes an object as UTF-8 to an output stream. The stream is not closed.
+     *
+     * @param objContextPath
+     *            The context path for the object if the default JAXB context is not to be used. Must use the same class loader as
+     *            the default context.
+     * @param obj
+     *            The object to be encoded
+     * @param os
+     *            The stream to write to
+     */
+    public void encodeTo(String objContextPath, Object obj, OutputStream os);
+
+    /**
+     * Registers a Gson type adapter for JSON encoding and decoding on this endpoint, e.g. a precompiled adapter for a frequently
+     * decoded response class. Has no effect for the XML media type.
+     *
+     * @param type
+     *            The type to be adapted
+     * @param typeAdapter
+     *            A TypeAdapter, JsonSerializer, JsonDeserializer or InstanceCreator for the type
+     */
+    public void registerTypeAdapter(Type type, Object typeAdapter);
+
+    /**
+     * Sets whether encoded XML and JSON is pretty printed. Output is compact by default; when TRACE logging is enabled a pretty
+     * printed copy is rendered separately for the log.
+     */
+    public void setFormattedOutput(boolean formattedOutput);
+
+    /** Returns true if encoded XML and JSON is pretty printed */
+    public boolean isFormattedOutput();
 }
@@ -68,7 +68,30 @@ public class AzureEndpointFactory
     public <E> AzureEndpoint getEndpoint(String subscription, String msVersion, String msContextPath, Class<E> msErrorClass, AzureEndpoint.MediaType mediaType)
             throws Exception
     {
-        return new AzureEndpointImpl(subscription, msVersion, msContextPath, msErrorClass, mediaType);
+        return getEndpoint(subscription, msVersion, msContextPath, msErrorClass, mediaType, false);
+    }
+
+    /**
+     * Gets an Azure endpoint
+     *
+     * @param subscription
+     *            The Microsoft Azure subscription
+     * @param msVersion
+     *            The Microsoft version for a x-ms-version header
+     * @param msContextPath
+     *            The namespace containing JAXB classes for the Azure API
+     * @param msErrorClass
+     *            The Microsoft Azure Error class contained in the body of a failed response
+     * @param mediaType
+     *            The endpoint's HTTP media type
+     * @param formattedOutput
+     *            True if encoded request bodies are to be pretty printed; otherwise they are compact
+     * @return An Azure endpoint
+     */
+    public <E> AzureEndpoint getEndpoint(String subscription, String msVersion, String msContextPath, Class<E> msErrorClass, AzureEndpoint.MediaType mediaType,
+            boolean formattedOutput) throws Exception
+    {
+        return new AzureEndpointImpl(subscription, msVersion, msContextPath, msErrorClass, mediaType, formattedOutput);
     }
 
     /**
@@ -0,0 +1,28 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure;
+
+import java.util.Iterator;
+
+/**
+ * Iterates over the items of a paged list operation. Pages are retrieved lazily as the items are consumed and the following
+ * pages are prefetched, up to a configured number of pages retrieved or being retrieved but not yet consumed. hasNext() and
+ * next() wait for a page that is being retrieved and throw an AzureAdapterException if retrieving it failed.
+ *
+ * @see com.servicemesh.agility.adapters.core.azure.Config#getPagePrefetch(java.util.List)
+ */
+public interface AzurePageIterator<T> extends Iterator<T>
+{
+    /**
+     * Returns the number of pages retrieved so far
+     */
+    public int getPageCount();
+
+    /**
+     * Stops the iteration, cancelling the retrieval of a page if one is in progress and discarding prefetched pages
+     */
+    public void close();
+}
@@ -0,0 +1,51 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure;
+
+import java.util.List;
+
+import com.servicemesh.io.http.IHttpResponse;
+
+/**
+ * Reads one page of a paged list operation: the items on the page and the request for the page that follows it. Services return
+ * the following page either as a nextLink in the body or as a continuation token header; a reader maps whichever is used onto
+ * a request URI, either relative to the subscription on the endpoint address or absolute, as a nextLink usually is. An absolute
+ * URI must be on the endpoint's host.
+ *
+ * @param <P>
+ *            The class of a decoded page
+ * @param <T>
+ *            The class of an item on a page
+ * @see com.servicemesh.agility.adapters.core.azure.AzureConnection#list(String,
+ *      com.servicemesh.io.http.QueryParams, Class, AzurePageReader, AzureRequestOptions)
+ */
+public interface AzurePageReader<P, T>
+{
+    /** The response header in which the Service Management API returns a continuation token */
+    public static final String CONTINUATION_TOKEN_HEADER = "x-ms-continuation-token";
+
+    /**
+     * Returns the items on a page
+     *
+     * @param page
+     *            The decoded page
+     * @return The items on the page - may be null or empty.
+     */
+    public List<T> getItems(P page);
+
+    /**
+     * Returns the URI of the page that follows a page, or null if it is the last page. The URI is either relative to the
+     * subscription, like the URI passed to list(), or an absolute URI on the endpoint's host.
+     *
+     * @param requestURI
+     *            The URI with which the page was retrieved
+     * @param page
+     *            The decoded page
+     * @param response
+     *            The response that contained the page, e.g. for its continuation token header
+     */
+    public String getNextRequestURI(String requestURI, P page, IHttpResponse response);
+}
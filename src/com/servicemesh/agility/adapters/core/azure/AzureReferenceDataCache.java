@@ -0,0 +1,319 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.impl.ObjectSizer;
+import com.servicemesh.agility.api.Property;
+import com.servicemesh.core.async.Callback;
+import com.servicemesh.core.async.CompletablePromise;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+
+/**
+ * A read-through cache for subscription-wide reference data such as locations, role sizes and OS images, so that all requests
+ * for a catalog share one decoded copy. An entry is refreshed in the background once it has been in use for part of its time
+ * to live, and after it expires it is still returned for a configured period while a refresh is in progress. The estimated
+ * size of the decoded objects is bounded and the least recently used entries are evicted first. Cached objects are shared
+ * between callers and must be treated as read-only.
+ */
+public class AzureReferenceDataCache
+{
+    private static final Logger _logger = Logger.getLogger(AzureReferenceDataCache.class);
+
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong _weight = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _refreshes = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _accessOrder = new AtomicLong();
+
+    private static class Holder
+    {
+        private static final AzureReferenceDataCache _instance = new AzureReferenceDataCache();
+    }
+
+    /**
+     * Gets the reference data cache
+     */
+    public static AzureReferenceDataCache getInstance()
+    {
+        return Holder._instance;
+    }
+
+    private static class Entry
+    {
+        private Object _value;
+        private long _loaded;
+        private long _lastAccess; // position in access order, so entries used in the same millisecond are ordered
+        private long _weight;
+        private Promise<?> _loading;
+        private boolean _evicted;
+    }
+
+    /**
+     * Returns reference data from the cache, retrieving it via the connection if it is not cached or has been stale for too
+     * long. Concurrent requests for data that is not cached share one retrieval.
+     *
+     * @param settings
+     *            Configuration data for the time to live, refresh and size bound - may be empty or null.
+     * @param connection
+     *            The connection used to retrieve the data. A background refresh may complete after the request returns.
+     * @param requestURI
+     *            The URI of the reference data, relative to the subscription
+     * @param responseClass
+     *            The class of the reference data
+     * @return A Promise for the reference data
+     * @see com.servicemesh.agility.adapters.core.azure.Config#getReferenceDataTtl(java.util.List)
+     */
+    public <T> Promise<T> get(List<Property> settings, AzureConnection connection, String requestURI, Class<T> responseClass)
+    {
+        long ttl = Config.getReferenceDataTtl(settings);
+        if (ttl <= 0) {
+            _misses.incrementAndGet();
+            return connection.get(requestURI, null, responseClass);
+        }
+        long refreshAt = ttl * Math.max(0, Math.min(100, Config.getReferenceDataRefreshAhead(settings))) / 100;
+        long staleUntil = ttl + Math.max(0, Config.getReferenceDataStale(settings));
+        long maxBytes = Config.getReferenceDataMaxBytes(settings);
+        String key = AzureReferenceDataCache.getKey(connection.getEndpoint(), requestURI, responseClass);
+
+        Entry entry;
+        CompletablePromise<T> loading;
+        Promise<T> cached = null;
+        for (;;) {
+            entry = _entries.get(key);
+            if (entry == null) {
+                Entry created = new Entry();
+                entry = _entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    entry = created;
+                }
+            }
+            synchronized (entry) {
+                if (entry._evicted) {
+                    // Lost a race with eviction - try again with a fresh entry
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (entry._value != null && responseClass.isInstance(entry._value)) {
+                    long age = now - entry._loaded;
+                    if (age < staleUntil) {
+                        _hits.incrementAndGet();
+                        entry._lastAccess = _accessOrder.incrementAndGet();
+                        if (age < refreshAt || entry._loading != null) {
+                            return Promise.pure(responseClass.cast(entry._value));
+                        }
+                        _refreshes.incrementAndGet();
+                        cached = Promise.pure(responseClass.cast(entry._value));
+                    }
+                }
+                if (cached == null) {
+                    _misses.incrementAndGet();
+                    if (entry._loading != null) {
+                        @SuppressWarnings("unchecked")
+                        Promise<T> shared = (Promise<T>) entry._loading;
+                        return shared;
+                    }
+                }
+                loading = PromiseFactory.create();
+                entry._loading = loading;
+                break;
+            }
+        }
+
+        // The retrieval is started outside the entry's lock since it may complete synchronously
+        load(key, entry, loading, connection, requestURI, responseClass, maxBytes);
+        return (cached != null) ? cached : loading;
+    }
+
+    /** Retrieves the data for an entry and completes the entry's pending retrieval */
+    private <T> void load(final String key, final Entry entry, final CompletablePromise<T> loading,
+            AzureConnection connection, final String requestURI, Class<T> responseClass, final long maxBytes)
+    {
+        Promise<T> promise;
+        try {
+            promise = connection.get(requestURI, null, responseClass);
+        }
+        catch (Exception ex) {
+            promise = Promise.pure(ex);
+        }
+        promise.onComplete(new Callback<T>() {
+            @Override
+            public void invoke(T value)
+            {
+                long weight = ObjectSizer.estimate(value);
+                synchronized (entry) {
+                    if (entry._loading == loading) {
+                        entry._loading = null;
+                    }
+                    if (!entry._evicted && value != null) {
+                        _weight.addAndGet(weight - entry._weight);
+                        entry._value = value;
+                        entry._weight = weight;
+                        entry._loaded = System.currentTimeMillis();
+                        entry._lastAccess = _accessOrder.incrementAndGet();
+                    }
+                }
+                trim(maxBytes);
+                loading.complete(value);
+            }
+        });
+        promise.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                AzureReferenceDataCache._logger.warn("Unable to retrieve reference data " + requestURI + ": " + t);
+                unload(key, entry, loading);
+                loading.failure(t);
+            }
+        });
+        promise.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                unload(key, entry, loading);
+                loading.cancel();
+            }
+        });
+    }
+
+    /** Clears a failed retrieval, removing the entry if it has no data that can still be used */
+    private void unload(String key, Entry entry, Promise<?> loading)
+    {
+        boolean remove;
+        synchronized (entry) {
+            if (entry._loading == loading) {
+                entry._loading = null;
+            }
+            remove = entry._value == null && entry._loading == null;
+            if (remove) {
+                entry._evicted = true;
+            }
+        }
+        if (remove) {
+            _entries.remove(key, entry);
+        }
+    }
+
+    /** Evicts the least recently used entries until the estimated size is within the bound */
+    private void trim(long maxBytes)
+    {
+        while (_weight.get() > maxBytes) {
+            Map.Entry<String, Entry> oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+            Iterator<Map.Entry<String, Entry>> iter = _entries.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, Entry> candidate = iter.next();
+                Entry entry = candidate.getValue();
+                synchronized (entry) {
+                    if (entry._value != null && entry._lastAccess < oldestAccess) {
+                        oldest = candidate;
+                        oldestAccess = entry._lastAccess;
+                    }
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            evict(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private void evict(String key, Entry entry)
+    {
+        synchronized (entry) {
+            if (entry._evicted) {
+                return;
+            }
+            entry._evicted = true;
+            _weight.addAndGet(-entry._weight);
+        }
+        _entries.remove(key, entry);
+        _evictions.incrementAndGet();
+    }
+
+    /**
+     * Removes the cached reference data of a subscription so that the next request retrieves it
+     *
+     * @param subscription
+     *            The Microsoft Azure subscription
+     */
+    public void invalidate(String subscription)
+    {
+        String prefix = subscription + "|";
+        for (Map.Entry<String, Entry> entry : _entries.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                evict(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Removes all cached reference data */
+    public void clear()
+    {
+        for (Map.Entry<String, Entry> entry : _entries.entrySet()) {
+            evict(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static String getKey(AzureEndpoint endpoint, String requestURI, Class<?> responseClass)
+    {
+        StringBuilder sb = new StringBuilder();
+        if (endpoint != null) {
+            sb.append(endpoint.getSubscription()).append('|').append(endpoint.getAddress()).append('|')
+                .append(endpoint.getMsVersion()).append('|');
+        }
+        else {
+            sb.append("null|");
+        }
+        return sb.append(requestURI).append('|').append(responseClass.getName()).toString();
+    }
+
+    /** Returns the estimated size in bytes of the cached reference data */
+    public long getWeight()
+    {
+        return _weight.get();
+    }
+
+    /** Returns the number of requests served from the cache */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /** Returns the number of requests that waited for a retrieval */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /** Returns the number of background refreshes started */
+    public long getRefreshes()
+    {
+        return _refreshes.get();
+    }
+
+    /** Returns the number of entries evicted to stay within the size bound or invalidated */
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    /** Returns the number of cached entries, including retrievals in progress */
+    public int size()
+    {
+        return _entries.size();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure;
+
+/**
+ * Per-request options for an AzureConnection. A deadline bounds the whole request, including waiting for admission, retries and
+ * decoding the response: once it passes, the returned Promise fails with an AzureAdapterException whose code is
+ * {@link com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException#DEADLINE_EXCEEDED} and the request in
+ * progress is cancelled.
+ * <p>
+ * Only GET and HEAD requests are retried after any retryable response. Other requests are only retried after a 429 or 503
+ * response, which the service sends before it processes a request, unless the options declare them idempotent.
+ */
+public final class AzureRequestOptions
+{
+    /** Options without a deadline */
+    public static final AzureRequestOptions NONE = new AzureRequestOptions(0, false);
+
+    private final long _deadline;
+    private final boolean _idempotent;
+
+    private AzureRequestOptions(long deadline, boolean idempotent)
+    {
+        _deadline = deadline;
+        _idempotent = idempotent;
+    }
+
+    /**
+     * Returns options with an absolute deadline
+     *
+     * @param deadline
+     *            The time in milliseconds since the epoch by which the request must complete. Zero means no deadline.
+     */
+    public static AzureRequestOptions deadline(long deadline)
+    {
+        return (deadline > 0) ? new AzureRequestOptions(deadline, false) : AzureRequestOptions.NONE;
+    }
+
+    /**
+     * Returns options with a deadline relative to now
+     *
+     * @param timeoutMillis
+     *            The number of milliseconds from now within which the request must complete
+     */
+    public static AzureRequestOptions timeout(long timeoutMillis)
+    {
+        return new AzureRequestOptions(System.currentTimeMillis() + Math.max(1, timeoutMillis), false);
+    }
+
+    /**
+     * Returns options without a deadline for a request that may safely be sent more than once, so that it is retried after any
+     * retryable response
+     */
+    public static AzureRequestOptions idempotent()
+    {
+        return new AzureRequestOptions(0, true);
+    }
+
+    /**
+     * Returns these options for a request that may safely be sent more than once, so that it is retried after any retryable
+     * response
+     */
+    public AzureRequestOptions asIdempotent()
+    {
+        return _idempotent ? this : new AzureRequestOptions(_deadline, true);
+    }
+
+    /** Returns true if the request may be retried after any retryable response, whatever its method */
+    public boolean isIdempotent()
+    {
+        return _idempotent;
+    }
+
+    /** Returns the absolute deadline in milliseconds since the epoch, or zero if there is none */
+    public long getDeadline()
+    {
+        return _deadline;
+    }
+
+    /** Returns true if these options carry a deadline */
+    public boolean hasDeadline()
+    {
+        return _deadline > 0;
+    }
+
+    /** Returns the number of milliseconds until the deadline, or Long.MAX_VALUE if there is none */
+    public long getRemaining()
+    {
+        return hasDeadline() ? Math.max(0, _deadline - System.currentTimeMillis()) : Long.MAX_VALUE;
+    }
+
+    /** Returns true if the deadline has passed */
+    public boolean isExpired()
+    {
+        return hasDeadline() && System.currentTimeMillis() >= _deadline;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("AzureRequestOptions[");
+        if (hasDeadline()) {
+            sb.append("deadline=").append(_deadline);
+        }
+        if (_idempotent) {
+            sb.append(hasDeadline() ? ", " : "").append("idempotent");
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure;
+
+/**
+ * Caches decoded GET responses together with their validators so that an AzureConnection can send conditional requests and
+ * reuse the decoded object when the service answers 304 Not Modified. Cached objects are shared between callers and must be
+ * treated as read-only. Implementations must be thread-safe.
+ */
+public interface AzureResponseCache
+{
+    /** A decoded response and its validators */
+    public static final class Entry
+    {
+        private final String _etag;
+        private final String _lastModified;
+        private final Object _value;
+        private final long _expires;
+
+        /**
+         * @param etag
+         *            The ETag of the response. Optional - may be null.
+         * @param lastModified
+         *            The Last-Modified of the response. Optional - may be null.
+         * @param value
+         *            The decoded response
+         * @param expires
+         *            The time in milliseconds until which the entry is used without revalidation
+         */
+        public Entry(String etag, String lastModified, Object value, long expires)
+        {
+            _etag = etag;
+            _lastModified = lastModified;
+            _value = value;
+            _expires = expires;
+        }
+
+        public String getETag()
+        {
+            return _etag;
+        }
+
+        public String getLastModified()
+        {
+            return _lastModified;
+        }
+
+        public Object getValue()
+        {
+            return _value;
+        }
+
+        public long getExpires()
+        {
+            return _expires;
+        }
+
+        /** Returns true if the entry must be revalidated before use */
+        public boolean isExpired(long now)
+        {
+            return now >= _expires;
+        }
+
+        /** Returns true if the entry has a validator for a conditional request */
+        public boolean isValidatable()
+        {
+            return _etag != null || _lastModified != null;
+        }
+
+        /** Returns a copy of this entry with a new expiry time */
+        public Entry withExpires(long expires)
+        {
+            return new Entry(_etag, _lastModified, _value, expires);
+        }
+    }
+
+    /** Returns the entry for a key, or null if there is none */
+    public Entry get(String key);
+
+    /** Stores the entry for a key */
+    public void put(String key, Entry entry);
+
+    /** Removes the entry for a key */
+    public void remove(String key);
+
+    /** Removes all entries */
+    public void clear();
+}
@@ -0,0 +1,193 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+import com.servicemesh.core.async.Callback;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.io.http.IHttpResponse;
+import com.servicemesh.io.http.QueryParams;
+
+/**
+ * A blocking facade over an AzureConnection for callers that run one request per thread. The calling thread waits on a
+ * java.util.concurrent latch rather than a monitor, so on a runtime with virtual threads the wait unmounts the virtual thread
+ * instead of pinning its carrier. Interrupting a waiting thread cancels the request.
+ * <p>
+ * A request that fails with an unchecked exception, e.g. an AzureErrorException for an error response, throws that exception
+ * unchanged. Any other failure is wrapped in an AzureAdapterException.
+ */
+public class AzureSyncConnection
+{
+    private final AzureConnection _connection;
+
+    /**
+     * @param connection
+     *            The connection to which requests are delegated
+     */
+    public AzureSyncConnection(AzureConnection connection)
+    {
+        if (connection == null) {
+            throw new IllegalArgumentException("The connection parameter is required but missing.");
+        }
+        _connection = connection;
+    }
+
+    /**
+     * Returns the connection to which requests are delegated
+     */
+    public AzureConnection getConnection()
+    {
+        return _connection;
+    }
+
+    /**
+     * Retrieves an Azure resource, waiting for the response.
+     *
+     * @param requestURI
+     *            The URI specific to retrieving a resource
+     * @param params
+     *            Query parameters. Optional - may be null or empty.
+     * @param responseClass
+     *            The class of resource to be retrieved.
+     * @param options
+     *            Request options such as a deadline. Optional - may be null.
+     * @return The retrieved resource
+     * @throws AzureAdapterException
+     *             If the request fails, is cancelled or the waiting thread is interrupted
+     */
+    public <T> T get(String requestURI, QueryParams params, Class<T> responseClass, AzureRequestOptions options)
+            throws AzureAdapterException
+    {
+        return AzureSyncConnection.await(_connection.get(requestURI, params, responseClass, options), "GET", requestURI);
+    }
+
+    /**
+     * Creates an Azure resource, waiting for the response.
+     *
+     * @param requestURI
+     *            The URI specific to creating a resource
+     * @param resource
+     *            The data to be posted. If type is String it is directly used while any other type is encoded.
+     * @param responseClass
+     *            The class of the response
+     * @param options
+     *            Request options such as a deadline. Optional - may be null.
+     * @return The created resource
+     * @throws AzureAdapterException
+     *             If the request fails, is cancelled or the waiting thread is interrupted
+     */
+    public <T> T post(String requestURI, Object resource, Class<T> responseClass, AzureRequestOptions options)
+            throws AzureAdapterException
+    {
+        return AzureSyncConnection.await(_connection.post(requestURI, resource, responseClass, options), "POST", requestURI);
+    }
+
+    /**
+     * Updates an Azure resource, waiting for the response.
+     *
+     * @param requestURI
+     *            The URI specific to updating a resource
+     * @param resource
+     *            The data to be posted. If type is String it is directly used while any other type is encoded.
+     * @param responseClass
+     *            The class of the response
+     * @param options
+     *            Request options such as a deadline. Optional - may be null.
+     * @return The updated resource
+     * @throws AzureAdapterException
+     *             If the request fails, is cancelled or the waiting thread is interrupted
+     */
+    public <T> T put(String requestURI, Object resource, Class<T> responseClass, AzureRequestOptions options)
+            throws AzureAdapterException
+    {
+        return AzureSyncConnection.await(_connection.put(requestURI, resource, responseClass, options), "PUT", requestURI);
+    }
+
+    /**
+     * Deletes an Azure resource, waiting for the response.
+     *
+     * @param requestURI
+     *            The URI specific to deleting a resource
+     * @param options
+     *            Request options such as a deadline. Optional - may be null.
+     * @return The response to the delete request
+     * @throws AzureAdapterException
+     *             If the request fails, is cancelled or the waiting thread is interrupted
+     */
+    public IHttpResponse delete(String requestURI, AzureRequestOptions options) throws AzureAdapterException
+    {
+        return AzureSyncConnection.await(_connection.delete(requestURI, options), "DELETE", requestURI);
+    }
+
+    private static <T> T await(Promise<T> promise, String method, String requestURI) throws AzureAdapterException
+    {
+        Waiter<T> waiter = new Waiter<T>(promise);
+        try {
+            waiter._done.await();
+        }
+        catch (InterruptedException e) {
+            promise.cancel();
+            Thread.currentThread().interrupt();
+            throw new AzureAdapterException("Interrupted waiting for " + method + " " + requestURI, e);
+        }
+        if (waiter._failure != null) {
+            if (waiter._failure instanceof RuntimeException) {
+                throw (RuntimeException) waiter._failure;
+            }
+            if (waiter._failure instanceof Error) {
+                throw (Error) waiter._failure;
+            }
+            throw new AzureAdapterException(method + " " + requestURI + " failed: " + waiter._failure.getMessage(),
+                    waiter._failure);
+        }
+        if (waiter._cancelled) {
+            throw new AzureAdapterException(method + " " + requestURI + " was cancelled");
+        }
+        return waiter._value;
+    }
+
+    /**
+     * Captures the outcome of a promise. The fields are written before the latch is released and read after it is awaited, so
+     * the latch provides the happens-before edge.
+     */
+    private static class Waiter<T>
+    {
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private T _value;
+        private Throwable _failure;
+        private boolean _cancelled;
+
+        private Waiter(Promise<T> promise)
+        {
+            promise.onComplete(new Callback<T>() {
+                @Override
+                public void invoke(T value)
+                {
+                    _value = value;
+                    _done.countDown();
+                }
+            });
+            promise.onFailure(new Callback<Throwable>() {
+                @Override
+                public void invoke(Throwable t)
+                {
+                    _failure = t;
+                    _done.countDown();
+                }
+            });
+            promise.onCancel(new Runnable() {
+                @Override
+                public void run()
+                {
+                    _cancelled = true;
+                    _done.countDown();
+                }
+            });
+        }
+    }
+}
@@ -17,16 +17,134 @@ public class Config
 {
     public static final String POLL_RETRIES = "AgilityManager.azure.PollRetries";
 
+    public static final String POLL_TIMEOUT = "AgilityManager.azure.PollTimeoutMillis";
+
     public static final String HTTP_RETRIES = "AgilityManager.azure.HttpRetries";
 
     public static final String HTTP_TIMEOUT = "AgilityManager.azure.HttpTimeoutMillis";
 
     public static final String SOCKET_TIMEOUT = "AgilityManager.azure.SocketTimeoutMillis";
 
+    public static final String CONNECTION_IDLE_TIMEOUT = "AgilityManager.azure.ConnectionIdleTimeoutMillis";
+
+    public static final String KEY_MANAGER_CACHE_SIZE = "AgilityManager.azure.KeyManagerCacheSize";
+
+    public static final String KEY_MANAGER_CACHE_TTL = "AgilityManager.azure.KeyManagerCacheTtlMillis";
+
+    public static final String RETRY_MAX_RETRIES = "AgilityManager.azure.RetryMaxRetries";
+
+    public static final String RETRY_BASE_DELAY = "AgilityManager.azure.RetryBaseDelayMillis";
+
+    public static final String RETRY_MAX_DELAY = "AgilityManager.azure.RetryMaxDelayMillis";
+
+    public static final String RETRY_BUDGET = "AgilityManager.azure.RetryBudget";
+
+    public static final String RETRY_BUDGET_REFILL = "AgilityManager.azure.RetryBudgetRefillPerMinute";
+
+    public static final String RETRYABLE_STATUS_CODES = "AgilityManager.azure.RetryableStatusCodes";
+
+    public static final String RETRYABLE_ERROR_CODES = "AgilityManager.azure.RetryableErrorCodes";
+
+    public static final String CONCURRENCY_INITIAL_LIMIT = "AgilityManager.azure.ConcurrencyInitialLimit";
+
+    public static final String CONCURRENCY_MIN_LIMIT = "AgilityManager.azure.ConcurrencyMinLimit";
+
+    public static final String CONCURRENCY_MAX_LIMIT = "AgilityManager.azure.ConcurrencyMaxLimit";
+
+    public static final String CONCURRENCY_MAX_QUEUE = "AgilityManager.azure.ConcurrencyMaxQueue";
+
+    public static final String COALESCE_GETS = "AgilityManager.azure.CoalesceGets";
+
+    public static final String RESPONSE_CACHE_SIZE = "AgilityManager.azure.ResponseCacheSize";
+
+    public static final String RESPONSE_CACHE_TTL = "AgilityManager.azure.ResponseCacheTtlMillis";
+
+    public static final String RESPONSE_CACHE_TTLS = "AgilityManager.azure.ResponseCacheTtls";
+
+    public static final String REFERENCE_DATA_TTL = "AgilityManager.azure.ReferenceDataTtlMillis";
+
+    public static final String REFERENCE_DATA_REFRESH_AHEAD = "AgilityManager.azure.ReferenceDataRefreshAheadPercent";
+
+    public static final String REFERENCE_DATA_STALE = "AgilityManager.azure.ReferenceDataStaleMillis";
+
+    public static final String REFERENCE_DATA_MAX_BYTES = "AgilityManager.azure.ReferenceDataMaxBytes";
+
+    public static final String CIRCUIT_WINDOW_SIZE = "AgilityManager.azure.CircuitWindowSize";
+
+    public static final String CIRCUIT_MIN_CALLS = "AgilityManager.azure.CircuitMinCalls";
+
+    public static final String CIRCUIT_FAILURE_RATE = "AgilityManager.azure.CircuitFailureRatePercent";
+
+    public static final String CIRCUIT_SLOW_CALL = "AgilityManager.azure.CircuitSlowCallMillis";
+
+    public static final String CIRCUIT_SLOW_CALL_RATE = "AgilityManager.azure.CircuitSlowCallRatePercent";
+
+    public static final String CIRCUIT_OPEN_DURATION = "AgilityManager.azure.CircuitOpenMillis";
+
+    public static final String CIRCUIT_HALF_OPEN_PROBES = "AgilityManager.azure.CircuitHalfOpenProbes";
+
+    public static final String HEDGE_GETS = "AgilityManager.azure.HedgeGets";
+
+    public static final String HEDGE_PERCENTILE = "AgilityManager.azure.HedgePercentile";
+
+    public static final String HEDGE_MIN_DELAY = "AgilityManager.azure.HedgeMinDelayMillis";
+
+    public static final String HEDGE_MIN_SAMPLES = "AgilityManager.azure.HedgeMinSamples";
+
+    public static final String HEDGE_MAX_PER_SECOND = "AgilityManager.azure.HedgeMaxPerSecond";
+
+    public static final String PAGE_PREFETCH = "AgilityManager.azure.PagePrefetch";
+
+    public static final String POLL_SCHEDULER_TICK = "AgilityManager.azure.PollSchedulerTickMillis";
+
+    public static final String POLL_SCHEDULER_THREADS = "AgilityManager.azure.PollSchedulerThreads";
+
+    public static final String BATCH_POLL_WINDOW = "AgilityManager.azure.BatchPollWindowMillis";
+
     public static final int POLL_RETRIES_DEFAULT = 30;
+    public static final int POLL_TIMEOUT_DEFAULT_SECS = 3600;
     public static final int HTTP_RETRIES_DEFAULT = 2;
     public static final int HTTP_TIMEOUT_DEFAULT_SECS = 240;
     public static final int SOCKET_TIMEOUT_DEFAULT_SECS = 20;
+    public static final int CONNECTION_IDLE_TIMEOUT_DEFAULT_SECS = 300;
+    public static final int KEY_MANAGER_CACHE_SIZE_DEFAULT = 64;
+    public static final int KEY_MANAGER_CACHE_TTL_DEFAULT_SECS = 3600;
+    public static final int RETRY_MAX_RETRIES_DEFAULT = 4;
+    public static final int RETRY_BASE_DELAY_DEFAULT_MILLIS = 500;
+    public static final int RETRY_MAX_DELAY_DEFAULT_SECS = 30;
+    public static final int RETRY_BUDGET_DEFAULT = 20;
+    public static final int RETRY_BUDGET_REFILL_DEFAULT = 60;
+    public static final String RETRYABLE_STATUS_CODES_DEFAULT = "429,502,503,504";
+    public static final String RETRYABLE_ERROR_CODES_DEFAULT =
+            "ServerBusy,TooManyRequests,SubscriptionRequestsThrottled,OperationTimedOut";
+    public static final int CONCURRENCY_INITIAL_LIMIT_DEFAULT = 20;
+    public static final int CONCURRENCY_MIN_LIMIT_DEFAULT = 1;
+    public static final int CONCURRENCY_MAX_LIMIT_DEFAULT = 200;
+    public static final int CONCURRENCY_MAX_QUEUE_DEFAULT = 1000;
+    public static final String COALESCE_GETS_DEFAULT = "false";
+    public static final int RESPONSE_CACHE_SIZE_DEFAULT = 0;
+    public static final int RESPONSE_CACHE_TTL_DEFAULT_MILLIS = 0;
+    public static final String RESPONSE_CACHE_TTLS_DEFAULT = "";
+    public static final int REFERENCE_DATA_TTL_DEFAULT_SECS = 3600;
+    public static final int REFERENCE_DATA_REFRESH_AHEAD_DEFAULT_PERCENT = 80;
+    public static final int REFERENCE_DATA_STALE_DEFAULT_SECS = 3600;
+    public static final int REFERENCE_DATA_MAX_BYTES_DEFAULT = 64 * 1024 * 1024;
+    public static final int CIRCUIT_WINDOW_SIZE_DEFAULT = 20;
+    public static final int CIRCUIT_MIN_CALLS_DEFAULT = 10;
+    public static final int CIRCUIT_FAILURE_RATE_DEFAULT_PERCENT = 50;
+    public static final int CIRCUIT_SLOW_CALL_DEFAULT_SECS = 60;
+    public static final int CIRCUIT_SLOW_CALL_RATE_DEFAULT_PERCENT = 80;
+    public static final int CIRCUIT_OPEN_DURATION_DEFAULT_SECS = 30;
+    public static final int CIRCUIT_HALF_OPEN_PROBES_DEFAULT = 3;
+    public static final String HEDGE_GETS_DEFAULT = "false";
+    public static final int HEDGE_PERCENTILE_DEFAULT = 95;
+    public static final int HEDGE_MIN_DELAY_DEFAULT_MILLIS = 50;
+    public static final int HEDGE_MIN_SAMPLES_DEFAULT = 20;
+    public static final int HEDGE_MAX_PER_SECOND_DEFAULT = 10;
+    public static final int PAGE_PREFETCH_DEFAULT = 2;
+    public static final int POLL_SCHEDULER_TICK_DEFAULT_MILLIS = 100;
+    public static final int POLL_SCHEDULER_THREADS_DEFAULT = 4;
+    public static final int BATCH_POLL_WINDOW_DEFAULT_MILLIS = 1000;
 
     public static final String CONFIG_SUBSCRIPTION = "subscription";
     public static final String CONFIG_CERTIFICATE = "certificate";
@@ -43,6 +161,17 @@ public class Config
         return Config.getProperty(Config.POLL_RETRIES, settings, Config.POLL_RETRIES_DEFAULT);
     }
 
+    /**
+     * Returns the number of milliseconds within which a polled operation must complete
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getPollTimeout(List<Property> settings)
+    {
+        return Config.getProperty(Config.POLL_TIMEOUT, settings, Config.POLL_TIMEOUT_DEFAULT_SECS * 1000);
+    }
+
     /**
      * Returns the number of retries upon failure of an HTTP request
      *
@@ -76,6 +205,457 @@ public class Config
         return Config.getProperty(Config.SOCKET_TIMEOUT, settings, Config.SOCKET_TIMEOUT_DEFAULT_SECS * 1000);
     }
 
+    /**
+     * Returns the number of milliseconds that an unreferenced shared HTTP client is kept open for reuse
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getConnectionIdleTimeout(List<Property> settings)
+    {
+        return Config.getProperty(Config.CONNECTION_IDLE_TIMEOUT, settings, Config.CONNECTION_IDLE_TIMEOUT_DEFAULT_SECS * 1000);
+    }
+
+    /**
+     * Returns the maximum number of credentials whose key managers are cached. Zero disables the cache.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getKeyManagerCacheSize(List<Property> settings)
+    {
+        return Config.getProperty(Config.KEY_MANAGER_CACHE_SIZE, settings, Config.KEY_MANAGER_CACHE_SIZE_DEFAULT);
+    }
+
+    /**
+     * Returns the number of milliseconds that cached key managers remain valid. Zero disables the cache.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getKeyManagerCacheTtl(List<Property> settings)
+    {
+        return Config.getProperty(Config.KEY_MANAGER_CACHE_TTL, settings, Config.KEY_MANAGER_CACHE_TTL_DEFAULT_SECS * 1000);
+    }
+
+    /**
+     * Returns the maximum number of times a throttled or busy request is retried. Zero disables throttling retries.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getRetryMaxRetries(List<Property> settings)
+    {
+        return Config.getProperty(Config.RETRY_MAX_RETRIES, settings, Config.RETRY_MAX_RETRIES_DEFAULT);
+    }
+
+    /**
+     * Returns the number of milliseconds of the minimum delay before a throttled or busy request is retried
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getRetryBaseDelay(List<Property> settings)
+    {
+        return Config.getProperty(Config.RETRY_BASE_DELAY, settings, Config.RETRY_BASE_DELAY_DEFAULT_MILLIS);
+    }
+
+    /**
+     * Returns the number of milliseconds of the maximum backoff delay before a throttled or busy request is retried. A longer
+     * Retry-After from the service is still honored.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getRetryMaxDelay(List<Property> settings)
+    {
+        return Config.getProperty(Config.RETRY_MAX_DELAY, settings, Config.RETRY_MAX_DELAY_DEFAULT_SECS * 1000);
+    }
+
+    /**
+     * Returns the number of retries that may be made in a burst for a subscription before further retries are refused. Zero
+     * removes the limit.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getRetryBudget(List<Property> settings)
+    {
+        return Config.getProperty(Config.RETRY_BUDGET, settings, Config.RETRY_BUDGET_DEFAULT);
+    }
+
+    /**
+     * Returns the number of retries per minute that are added back to a subscription's retry budget
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getRetryBudgetRefill(List<Property> settings)
+    {
+        return Config.getProperty(Config.RETRY_BUDGET_REFILL, settings, Config.RETRY_BUDGET_REFILL_DEFAULT);
+    }
+
+    /**
+     * Returns the comma-separated HTTP status codes for which a request is retried
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static String getRetryableStatusCodes(List<Property> settings)
+    {
+        return Config.getProperty(Config.RETRYABLE_STATUS_CODES, settings, Config.RETRYABLE_STATUS_CODES_DEFAULT);
+    }
+
+    /**
+     * Returns the comma-separated Microsoft Azure error codes for which a request is retried
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static String getRetryableErrorCodes(List<Property> settings)
+    {
+        return Config.getProperty(Config.RETRYABLE_ERROR_CODES, settings, Config.RETRYABLE_ERROR_CODES_DEFAULT);
+    }
+
+    /**
+     * Returns the initial number of concurrent requests allowed for a subscription and endpoint address
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getConcurrencyInitialLimit(List<Property> settings)
+    {
+        return Config.getProperty(Config.CONCURRENCY_INITIAL_LIMIT, settings, Config.CONCURRENCY_INITIAL_LIMIT_DEFAULT);
+    }
+
+    /**
+     * Returns the lowest number of concurrent requests that the adaptive limit may shrink to
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getConcurrencyMinLimit(List<Property> settings)
+    {
+        return Config.getProperty(Config.CONCURRENCY_MIN_LIMIT, settings, Config.CONCURRENCY_MIN_LIMIT_DEFAULT);
+    }
+
+    /**
+     * Returns the highest number of concurrent requests that the adaptive limit may grow to. Zero disables the limiter.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getConcurrencyMaxLimit(List<Property> settings)
+    {
+        return Config.getProperty(Config.CONCURRENCY_MAX_LIMIT, settings, Config.CONCURRENCY_MAX_LIMIT_DEFAULT);
+    }
+
+    /**
+     * Returns the number of requests that may wait for admission before further requests are rejected
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getConcurrencyMaxQueue(List<Property> settings)
+    {
+        return Config.getProperty(Config.CONCURRENCY_MAX_QUEUE, settings, Config.CONCURRENCY_MAX_QUEUE_DEFAULT);
+    }
+
+    /**
+     * Returns true if concurrent GET requests for the same URI and x-ms-version share a single HTTP request
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static boolean isCoalesceGets(List<Property> settings)
+    {
+        return Boolean.parseBoolean(Config.getProperty(Config.COALESCE_GETS, settings, Config.COALESCE_GETS_DEFAULT));
+    }
+
+    /**
+     * Returns the maximum number of decoded GET responses kept for conditional requests. Zero disables the response cache.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getResponseCacheSize(List<Property> settings)
+    {
+        return Config.getProperty(Config.RESPONSE_CACHE_SIZE, settings, Config.RESPONSE_CACHE_SIZE_DEFAULT);
+    }
+
+    /**
+     * Returns the number of milliseconds that a cached response is used without revalidation when its URI matches no pattern of
+     * the response cache TTLs. Zero revalidates every request.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getResponseCacheTtl(List<Property> settings)
+    {
+        return Config.getProperty(Config.RESPONSE_CACHE_TTL, settings, Config.RESPONSE_CACHE_TTL_DEFAULT_MILLIS);
+    }
+
+    /**
+     * Returns the per-URI time to live of cached responses as a semicolon separated list of regex=milliseconds pairs, e.g.
+     * "/locations$=3600000;/services/hostedservices=60000". The first pattern found in a request URI applies.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static String getResponseCacheTtls(List<Property> settings)
+    {
+        return Config.getProperty(Config.RESPONSE_CACHE_TTLS, settings, Config.RESPONSE_CACHE_TTLS_DEFAULT);
+    }
+
+    /**
+     * Returns the number of milliseconds that cached reference data is fresh. Zero disables the reference data cache.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getReferenceDataTtl(List<Property> settings)
+    {
+        return Config.getProperty(Config.REFERENCE_DATA_TTL, settings, Config.REFERENCE_DATA_TTL_DEFAULT_SECS * 1000);
+    }
+
+    /**
+     * Returns the percentage of the reference data time to live after which a request triggers a background refresh
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getReferenceDataRefreshAhead(List<Property> settings)
+    {
+        return Config.getProperty(Config.REFERENCE_DATA_REFRESH_AHEAD, settings,
+                Config.REFERENCE_DATA_REFRESH_AHEAD_DEFAULT_PERCENT);
+    }
+
+    /**
+     * Returns the number of milliseconds after expiry that stale reference data is still returned while it is refreshed
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getReferenceDataStale(List<Property> settings)
+    {
+        return Config.getProperty(Config.REFERENCE_DATA_STALE, settings, Config.REFERENCE_DATA_STALE_DEFAULT_SECS * 1000);
+    }
+
+    /**
+     * Returns the bound on the estimated size in bytes of the decoded reference data held in memory
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getReferenceDataMaxBytes(List<Property> settings)
+    {
+        return Config.getProperty(Config.REFERENCE_DATA_MAX_BYTES, settings, Config.REFERENCE_DATA_MAX_BYTES_DEFAULT);
+    }
+
+    /**
+     * Returns the number of most recent calls to an endpoint address and subscription that the circuit breaker evaluates. Zero
+     * disables the circuit breaker.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getCircuitWindowSize(List<Property> settings)
+    {
+        return Config.getProperty(Config.CIRCUIT_WINDOW_SIZE, settings, Config.CIRCUIT_WINDOW_SIZE_DEFAULT);
+    }
+
+    /**
+     * Returns the number of calls that must be recorded before the circuit breaker may open
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getCircuitMinCalls(List<Property> settings)
+    {
+        return Config.getProperty(Config.CIRCUIT_MIN_CALLS, settings, Config.CIRCUIT_MIN_CALLS_DEFAULT);
+    }
+
+    /**
+     * Returns the percentage of failed calls at which the circuit breaker opens
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getCircuitFailureRate(List<Property> settings)
+    {
+        return Config.getProperty(Config.CIRCUIT_FAILURE_RATE, settings, Config.CIRCUIT_FAILURE_RATE_DEFAULT_PERCENT);
+    }
+
+    /**
+     * Returns the number of milliseconds after which a call is considered slow by the circuit breaker
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getCircuitSlowCall(List<Property> settings)
+    {
+        return Config.getProperty(Config.CIRCUIT_SLOW_CALL, settings, Config.CIRCUIT_SLOW_CALL_DEFAULT_SECS * 1000);
+    }
+
+    /**
+     * Returns the percentage of slow calls at which the circuit breaker opens
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getCircuitSlowCallRate(List<Property> settings)
+    {
+        return Config.getProperty(Config.CIRCUIT_SLOW_CALL_RATE, settings, Config.CIRCUIT_SLOW_CALL_RATE_DEFAULT_PERCENT);
+    }
+
+    /**
+     * Returns the number of milliseconds that an open circuit breaker rejects calls before it admits probe requests
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getCircuitOpenDuration(List<Property> settings)
+    {
+        return Config.getProperty(Config.CIRCUIT_OPEN_DURATION, settings, Config.CIRCUIT_OPEN_DURATION_DEFAULT_SECS * 1000);
+    }
+
+    /**
+     * Returns the number of probe requests that a half-open circuit breaker admits. The breaker closes once all of them succeed.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getCircuitHalfOpenProbes(List<Property> settings)
+    {
+        return Config.getProperty(Config.CIRCUIT_HALF_OPEN_PROBES, settings, Config.CIRCUIT_HALF_OPEN_PROBES_DEFAULT);
+    }
+
+    /**
+     * Returns true if a GET that has not completed within the hedge delay is duplicated and the first response is used
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static boolean isHedgeGets(List<Property> settings)
+    {
+        return Boolean.parseBoolean(Config.getProperty(Config.HEDGE_GETS, settings, Config.HEDGE_GETS_DEFAULT));
+    }
+
+    /**
+     * Returns the percentile of recently observed GET latency after which a hedged request is sent
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getHedgePercentile(List<Property> settings)
+    {
+        return Config.getProperty(Config.HEDGE_PERCENTILE, settings, Config.HEDGE_PERCENTILE_DEFAULT);
+    }
+
+    /**
+     * Returns the lowest number of milliseconds to wait before a hedged request is sent
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getHedgeMinDelay(List<Property> settings)
+    {
+        return Config.getProperty(Config.HEDGE_MIN_DELAY, settings, Config.HEDGE_MIN_DELAY_DEFAULT_MILLIS);
+    }
+
+    /**
+     * Returns the number of GET latencies that must be observed before requests are hedged
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getHedgeMinSamples(List<Property> settings)
+    {
+        return Config.getProperty(Config.HEDGE_MIN_SAMPLES, settings, Config.HEDGE_MIN_SAMPLES_DEFAULT);
+    }
+
+    /**
+     * Returns the maximum number of hedged requests per second for a subscription and endpoint address
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getHedgeMaxPerSecond(List<Property> settings)
+    {
+        return Config.getProperty(Config.HEDGE_MAX_PER_SECOND, settings, Config.HEDGE_MAX_PER_SECOND_DEFAULT);
+    }
+
+    /**
+     * Returns the maximum number of pages of a paged list operation that are retrieved or being retrieved ahead of the page being
+     * consumed. The minimum is one, in which case only the page that follows the one being consumed is retrieved.
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getPagePrefetch(List<Property> settings)
+    {
+        return Config.getProperty(Config.PAGE_PREFETCH, settings, Config.PAGE_PREFETCH_DEFAULT);
+    }
+
+    /**
+     * Returns the resolution in milliseconds of the shared status poll scheduler
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getPollSchedulerTick(List<Property> settings)
+    {
+        return Config.getProperty(Config.POLL_SCHEDULER_TICK, settings, Config.POLL_SCHEDULER_TICK_DEFAULT_MILLIS);
+    }
+
+    /**
+     * Returns the number of threads on which the shared status poll scheduler processes polls
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getPollSchedulerThreads(List<Property> settings)
+    {
+        return Config.getProperty(Config.POLL_SCHEDULER_THREADS, settings, Config.POLL_SCHEDULER_THREADS_DEFAULT);
+    }
+
+    /**
+     * Returns the number of milliseconds after a batched status poll of a parent resource is sent during which other polls of
+     * the parent share its response
+     *
+     * @param settings
+     *            Configuration data - if empty or null a default value is returned.
+     */
+    public static int getBatchPollWindow(List<Property> settings)
+    {
+        return Config.getProperty(Config.BATCH_POLL_WINDOW, settings, Config.BATCH_POLL_WINDOW_DEFAULT_MILLIS);
+    }
+
+    /**
+     * Returns the requested property
+     *
+     * @param name
+     *            The name of a property
+     * @param properties
+     *            Configuration data - may be empty or null
+     * @param defaultValue
+     *            The default value to return if property is not found in settings parameter
+     */
+    public static String getProperty(String name, List<Property> properties, String defaultValue)
+    {
+        String value = defaultValue;
+
+        if (properties != null) {
+            for (Property property : properties) {
+                if (property.getName().equals(name)) {
+                    value = property.getValue();
+                    break;
+                }
+            }
+        }
+        return value;
+    }
+
     /**
      * Returns the requested property
      *
@@ -0,0 +1,216 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servicemesh.agility.adapters.core.azure.AzureConnection;
+import com.servicemesh.agility.adapters.core.azure.AzureEndpoint;
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.adapters.core.azure.util.BufferedHttpResponse;
+import com.servicemesh.core.async.Callback;
+import com.servicemesh.core.async.CompletablePromise;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+import com.servicemesh.io.http.IHttpResponse;
+
+/**
+ * Batches the status polls of operations on resources under the same parent, e.g. the role instances of one deployment. All
+ * pollers that poll a parent URI within the same window share a single GET of the parent, and each extracts its own resource's
+ * status from the shared response. A poll made while the GET is in progress, or within the window after it was sent, joins it.
+ * Every caller receives its own promise, so a poller that gives up and cancels its promise does not cancel the shared GET.
+ * The shared response is buffered before it is handed out, so that pollers running at the same time can each read its body.
+ *
+ * @see StatusPoller#pollParent(String)
+ */
+public class BatchPoller
+{
+    /** Sweep settled batches after this many polls */
+    private static final int SWEEP_INTERVAL = 64;
+
+    private final long _window;
+    private final ConcurrentHashMap<String, Batch> _batches = new ConcurrentHashMap<String, Batch>();
+    private final AtomicLong _polls = new AtomicLong();
+    private final AtomicLong _requests = new AtomicLong();
+
+    private static class Holder
+    {
+        private static final BatchPoller _instance = new BatchPoller(Config.getBatchPollWindow(null));
+    }
+
+    /**
+     * Gets the batch poller shared by all status pollers
+     */
+    public static BatchPoller getInstance()
+    {
+        return Holder._instance;
+    }
+
+    private static class Batch
+    {
+        private final CompletablePromise<IHttpResponse> _shared = PromiseFactory.create();
+        private final long _sent = System.currentTimeMillis();
+        private volatile boolean _settled;
+    }
+
+    /**
+     * @param windowMillis
+     *            The number of milliseconds after a GET of a parent is sent during which polls of the parent share its response
+     */
+    public BatchPoller(long windowMillis)
+    {
+        _window = Math.max(0, windowMillis);
+    }
+
+    /**
+     * Polls a parent resource
+     *
+     * @param conn
+     *            The connection with which the parent is retrieved
+     * @param parentURI
+     *            The URI of the parent resource whose response contains the status of its children
+     * @return A promise for the response to the shared GET of the parent
+     */
+    public Promise<IHttpResponse> poll(AzureConnection conn, String parentURI)
+    {
+        if (_polls.incrementAndGet() % BatchPoller.SWEEP_INTERVAL == 0) {
+            sweep();
+        }
+        String key = BatchPoller.getKey(conn, parentURI);
+        while (true) {
+            Batch batch = _batches.get(key);
+            if (batch != null && (!batch._settled || System.currentTimeMillis() - batch._sent < _window)) {
+                return BatchPoller.view(batch._shared);
+            }
+            Batch created = new Batch();
+            boolean installed = (batch == null) ? _batches.putIfAbsent(key, created) == null
+                    : _batches.replace(key, batch, created);
+            if (installed) {
+                _requests.incrementAndGet();
+                send(conn, parentURI, created);
+                return BatchPoller.view(created._shared);
+            }
+        }
+    }
+
+    private static String getKey(AzureConnection conn, String parentURI)
+    {
+        AzureEndpoint endpoint = conn.getEndpoint();
+        if (endpoint == null) {
+            return System.identityHashCode(conn) + "|" + parentURI;
+        }
+        return endpoint.getSubscription() + "|" + endpoint.getAddress() + "|" + parentURI;
+    }
+
+    private void send(AzureConnection conn, String parentURI, final Batch batch)
+    {
+        Promise<IHttpResponse> sent;
+        try {
+            sent = conn.get(parentURI, null, IHttpResponse.class);
+        }
+        catch (Throwable t) {
+            batch._settled = true;
+            batch._shared.failure(t);
+            return;
+        }
+        sent.onComplete(new Callback<IHttpResponse>() {
+            @Override
+            public void invoke(IHttpResponse response)
+            {
+                IHttpResponse buffered;
+                try {
+                    buffered = BufferedHttpResponse.of(response);
+                }
+                catch (Throwable t) {
+                    batch._settled = true;
+                    batch._shared.failure(t);
+                    return;
+                }
+                batch._settled = true;
+                batch._shared.complete(buffered);
+            }
+        });
+        sent.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                batch._settled = true;
+                batch._shared.failure(t);
+            }
+        });
+        sent.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                batch._settled = true;
+                batch._shared.cancel();
+            }
+        });
+    }
+
+    /**
+     * Returns a promise that settles with a shared promise but whose cancellation is not propagated to it
+     */
+    private static Promise<IHttpResponse> view(Promise<IHttpResponse> shared)
+    {
+        final CompletablePromise<IHttpResponse> view = PromiseFactory.create();
+        shared.onComplete(new Callback<IHttpResponse>() {
+            @Override
+            public void invoke(IHttpResponse response)
+            {
+                view.complete(response);
+            }
+        });
+        shared.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                view.failure(t);
+            }
+        });
+        shared.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                view.cancel();
+            }
+        });
+        return view;
+    }
+
+    /** Removes batches whose response has arrived and whose window has passed */
+    private void sweep()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Batch> iter = _batches.values().iterator();
+        while (iter.hasNext()) {
+            Batch batch = iter.next();
+            if (batch._settled && now - batch._sent >= _window) {
+                iter.remove();
+            }
+        }
+    }
+
+    /** Returns the number of polls */
+    public long getPolls()
+    {
+        return _polls.get();
+    }
+
+    /** Returns the number of GET requests sent, which is less than the number of polls by the number that shared a request */
+    public long getRequests()
+    {
+        return _requests.get();
+    }
+
+    /** Returns the number of parents with a batch, including batches whose window has passed that have not been swept */
+    public int size()
+    {
+        return _batches.size();
+    }
+}
@@ -0,0 +1,439 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+
+/**
+ * A PollerStateStore backed by an append-only journal file. Every checkpoint and removal appends one record, so recording
+ * state never rewrites earlier records. The journal is replayed once when the store is opened, which takes time linear in its
+ * length, and is compacted to the live states whenever it has grown to more than twice their number. Each record carries a
+ * checksum; a torn record left at the end of the journal by a crash is discarded.
+ * <p>
+ * If a record cannot be written, the exception is thrown to the caller and the journal is truncated back to the end of the
+ * last record that was written in full, so that later records are not appended after a torn one. Until the journal has been
+ * repaired, each checkpoint or removal first retries the repair. A failed compaction leaves the journal as it was.
+ * <p>
+ * Records are flushed to the operating system as they are appended. Pass sync=true to also force them to disk, which
+ * survives a host failure at the cost of a disk write per checkpoint.
+ */
+public class FilePollerStateStore implements PollerStateStore
+{
+    private static final Logger _logger = Logger.getLogger(FilePollerStateStore.class);
+
+    private static final byte CHECKPOINT = 1;
+    private static final byte REMOVE = 2;
+
+    /** The largest record accepted when replaying, to reject garbage lengths */
+    private static final int MAX_RECORD = 64 * 1024;
+
+    /** The journal is not compacted until it has at least this many records */
+    private static final int COMPACT_MIN = 1024;
+
+    private final File _journal;
+    private final boolean _sync;
+    private final LinkedHashMap<Long, PollerState> _live = new LinkedHashMap<Long, PollerState>();
+    private FileOutputStream _file;
+    private long _records;
+    private long _length; // the end of the last record written in full
+    private boolean _damaged; // a write or compaction failed and the journal has not been repaired since
+    private boolean _closed;
+
+    /**
+     * Opens a journal, creating it if it does not exist, and replays it
+     *
+     * @param journal
+     *            The journal file
+     */
+    public FilePollerStateStore(File journal)
+    {
+        this(journal, false);
+    }
+
+    /**
+     * Opens a journal, creating it if it does not exist, and replays it
+     *
+     * @param journal
+     *            The journal file
+     * @param sync
+     *            Whether each record is forced to disk before checkpoint() or remove() returns
+     */
+    public FilePollerStateStore(File journal, boolean sync)
+    {
+        if (journal == null) {
+            throw new IllegalArgumentException("The journal parameter is required but missing.");
+        }
+        _journal = journal;
+        _sync = sync;
+        try {
+            File dir = journal.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            replay();
+            if (needsCompaction()) {
+                compact();
+            }
+            else {
+                open();
+            }
+        }
+        catch (IOException ex) {
+            throw new AzureAdapterException("Unable to open poller journal " + journal + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public synchronized void checkpoint(PollerState state)
+    {
+        if (state == null) {
+            throw new IllegalArgumentException("The state parameter is required but missing.");
+        }
+        checkOpen();
+        append(FilePollerStateStore.encode(state));
+        _live.put(state.getReqId(), state);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void remove(long reqId)
+    {
+        checkOpen();
+        if (!_live.containsKey(reqId)) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FilePollerStateStore.REMOVE);
+            out.writeLong(reqId);
+        }
+        catch (IOException ex) {
+            throw new AzureAdapterException(ex);
+        }
+        append(bytes.toByteArray());
+        _live.remove(reqId);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized Collection<PollerState> recover()
+    {
+        return new ArrayList<PollerState>(_live.values());
+    }
+
+    /** Returns the number of records in the journal, which is reduced to the number of live states by compaction */
+    public synchronized long getRecordCount()
+    {
+        return _records;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        try {
+            if (_file != null) {
+                _file.close();
+            }
+        }
+        catch (IOException ex) {
+            _logger.warn("Unable to close poller journal " + _journal + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Rewrites the journal with one record per live state. If the journal cannot be rewritten it is left as it was.
+     */
+    public synchronized void compact()
+    {
+        checkOpen();
+        File compacted = new File(_journal.getPath() + ".compact");
+        try {
+            if (_file != null) {
+                _file.close();
+                _file = null;
+            }
+            FileOutputStream file = new FileOutputStream(compacted);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            try {
+                for (PollerState state : _live.values()) {
+                    out.write(FilePollerStateStore.record(FilePollerStateStore.encode(state)));
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+            Files.move(compacted.toPath(), _journal.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            _records = _live.size();
+            _length = _journal.length();
+            open();
+            _damaged = false;
+        }
+        catch (IOException ex) {
+            if (compacted.isFile()) {
+                compacted.delete();
+            }
+            damaged("compact", ex);
+            throw new AzureAdapterException("Unable to compact poller journal " + _journal + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private void checkOpen()
+    {
+        if (_closed) {
+            throw new AzureAdapterException("The poller journal " + _journal + " is closed.");
+        }
+    }
+
+    private void open() throws IOException
+    {
+        _file = new FileOutputStream(_journal, true);
+    }
+
+    /**
+     * Truncates the journal to the end of the last record written in full, discarding any torn record, and reopens it
+     */
+    private void repair() throws IOException
+    {
+        if (_file != null) {
+            try {
+                _file.close();
+            }
+            catch (IOException ex) {
+                // The stream is discarded
+            }
+            _file = null;
+        }
+        RandomAccessFile file = new RandomAccessFile(_journal, "rw");
+        try {
+            if (file.length() != _length) {
+                file.setLength(_length);
+            }
+        }
+        finally {
+            file.close();
+        }
+        open();
+        if (_damaged) {
+            _damaged = false;
+            _logger.info("Repaired poller journal " + _journal);
+        }
+    }
+
+    /** Records a failure to write the journal, logging it when the journal was previously sound */
+    private void damaged(String operation, IOException ex)
+    {
+        if (!_damaged) {
+            _damaged = true;
+            _logger.error("Unable to " + operation + " poller journal " + _journal
+                    + "; pollers are not checkpointed until it is repaired: " + ex.getMessage(), ex);
+        }
+    }
+
+    private boolean needsCompaction()
+    {
+        return _records >= FilePollerStateStore.COMPACT_MIN && _records > 2L * _live.size();
+    }
+
+    /**
+     * Writes a record to the journal. The live states are only updated once their record is written, so that a failed write
+     * leaves them matching the journal and the update can be retried.
+     */
+    private void append(byte[] payload)
+    {
+        byte[] record = FilePollerStateStore.record(payload);
+        try {
+            if (_damaged || _file == null) {
+                repair();
+            }
+            _file.write(record);
+            if (_sync) {
+                _file.getFD().sync();
+            }
+        }
+        catch (IOException ex) {
+            damaged("write", ex);
+            try {
+                repair();
+            }
+            catch (IOException rex) {
+                _logger.debug("Unable to repair poller journal " + _journal + ": " + rex.getMessage());
+            }
+            throw new AzureAdapterException("Unable to write poller journal " + _journal + ": " + ex.getMessage(), ex);
+        }
+        _length += record.length;
+        _records++;
+    }
+
+    private void compactIfNeeded()
+    {
+        if (needsCompaction()) {
+            try {
+                compact();
+            }
+            catch (AzureAdapterException ex) {
+                // The record was written; the compaction is retried by a later append
+            }
+        }
+    }
+
+    /** Frames a payload as a record: its length, the payload and its checksum */
+    private static byte[] record(byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 12);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeLong(crc.getValue());
+        }
+        catch (IOException ex) {
+            throw new AzureAdapterException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encode(PollerState state)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FilePollerStateStore.CHECKPOINT);
+            out.writeLong(state.getReqId());
+            out.writeUTF(state.getPollerType());
+            out.writeBoolean(state.getTargetURI() != null);
+            if (state.getTargetURI() != null) {
+                out.writeUTF(state.getTargetURI());
+            }
+            out.writeUTF(state.getDesiredState());
+            out.writeLong(state.getRemainingRetries());
+            out.writeLong(state.getCheckpointedTimeout());
+            out.writeLong(state.getCheckpointTime());
+        }
+        catch (IOException ex) {
+            throw new AzureAdapterException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replays the journal into the live states, truncating it after the last intact record
+     */
+    private void replay() throws IOException
+    {
+        if (!_journal.exists()) {
+            return;
+        }
+        long valid = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_journal)));
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                }
+                catch (EOFException ex) {
+                    break;
+                }
+                if (length <= 0 || length > FilePollerStateStore.MAX_RECORD) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                long checksum;
+                try {
+                    in.readFully(payload);
+                    checksum = in.readLong();
+                }
+                catch (EOFException ex) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (crc.getValue() != checksum || !apply(payload)) {
+                    break;
+                }
+                valid += 4 + length + 8;
+                _records++;
+            }
+        }
+        finally {
+            in.close();
+        }
+        _length = valid;
+        if (valid < _journal.length()) {
+            _logger.warn("Discarding " + (_journal.length() - valid) + " bytes of incomplete records at the end of poller journal "
+                    + _journal);
+            RandomAccessFile file = new RandomAccessFile(_journal, "rw");
+            try {
+                file.setLength(valid);
+            }
+            finally {
+                file.close();
+            }
+        }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Recovered " + _live.size() + " pollers from " + _records + " records in " + _journal);
+        }
+    }
+
+    private boolean apply(byte[] payload)
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        try {
+            byte op = in.readByte();
+            long reqId = in.readLong();
+            if (op == FilePollerStateStore.REMOVE) {
+                _live.remove(reqId);
+                return true;
+            }
+            if (op != FilePollerStateStore.CHECKPOINT) {
+                return false;
+            }
+            String pollerType = in.readUTF();
+            String targetURI = in.readBoolean() ? in.readUTF() : null;
+            String desiredState = in.readUTF();
+            long remainingRetries = in.readLong();
+            long remainingTimeout = in.readLong();
+            long checkpointTime = in.readLong();
+            _live.put(reqId, new PollerState(reqId, pollerType, targetURI, desiredState, remainingRetries, remainingTimeout,
+                    checkpointTime));
+            return true;
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.io.Serializable;
+
+import com.servicemesh.io.http.IHttpResponse;
+
+/**
+ * Decides how long a StatusPoller waits before its next poll. Strategies are serialized with their pollers.
+ *
+ * @see PollIntervals
+ */
+public interface PollIntervalStrategy extends Serializable
+{
+    /**
+     * Returns the number of milliseconds to wait before the next poll
+     *
+     * @param attempt
+     *            The number of polls issued so far, starting with 1 for the poll issued when the poller was created
+     * @param elapsedMillis
+     *            The number of milliseconds since the poller was created
+     * @param response
+     *            The response to the most recent poll - may be null if it has not been received.
+     */
+    public long nextInterval(int attempt, long elapsedMillis, IHttpResponse response);
+
+    /**
+     * Records that the polled operation reached its desired state
+     *
+     * @param elapsedMillis
+     *            The number of milliseconds since the poller was created
+     */
+    public void onSuccess(long elapsedMillis);
+}
@@ -0,0 +1,296 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.servicemesh.agility.adapters.core.azure.impl.RetryPolicy;
+import com.servicemesh.io.http.IHttpResponse;
+
+/**
+ * Poll interval strategies for StatusPoller
+ */
+public final class PollIntervals
+{
+    private PollIntervals()
+    {
+    }
+
+    /**
+     * Returns a strategy that always waits the same interval
+     *
+     * @param intervalMillis
+     *            The interval between polls in milliseconds
+     */
+    public static PollIntervalStrategy fixed(long intervalMillis)
+    {
+        return new Fixed(intervalMillis);
+    }
+
+    /**
+     * Returns a strategy whose interval grows by a factor after every poll up to a maximum
+     *
+     * @param initialMillis
+     *            The interval after the first poll in milliseconds
+     * @param multiplier
+     *            The factor by which the interval grows - at least 1.
+     * @param maxMillis
+     *            The maximum interval in milliseconds
+     */
+    public static PollIntervalStrategy exponential(long initialMillis, double multiplier, long maxMillis)
+    {
+        return new Exponential(initialMillis, multiplier, maxMillis);
+    }
+
+    /**
+     * Returns a strategy that randomizes the intervals of another strategy, so that pollers created together do not poll
+     * together
+     *
+     * @param strategy
+     *            The strategy whose intervals are randomized
+     * @param jitterPercent
+     *            The maximum percentage by which an interval is shortened or lengthened
+     */
+    public static PollIntervalStrategy jittered(PollIntervalStrategy strategy, int jitterPercent)
+    {
+        return new Jittered(strategy, jitterPercent);
+    }
+
+    /**
+     * Returns a strategy that waits as long as the service asks with a Retry-After or x-ms-retry-after-ms header and otherwise
+     * uses another strategy
+     *
+     * @param strategy
+     *            The strategy used when a response does not specify a delay
+     * @param maxMillis
+     *            The maximum interval in milliseconds, whatever the service asks
+     */
+    public static PollIntervalStrategy retryAfter(PollIntervalStrategy strategy, long maxMillis)
+    {
+        return new RetryAfter(strategy, maxMillis);
+    }
+
+    /**
+     * Returns a strategy that learns how long operations of a type typically take. Until the typical completion time has elapsed
+     * the poller waits for it; from then on, or while too few operations of the type have completed, another strategy is used.
+     *
+     * @param operationType
+     *            The type of operation, e.g. "CreateVirtualMachine"
+     * @param strategy
+     *            The strategy used when the typical completion time has passed or is not yet known
+     */
+    public static PollIntervalStrategy history(String operationType, PollIntervalStrategy strategy)
+    {
+        return new History(operationType, strategy);
+    }
+
+    /**
+     * Forgets the completion times learned for all operation types
+     */
+    public static void clearHistory()
+    {
+        History._typical.clear();
+    }
+
+    public static final class Fixed implements PollIntervalStrategy
+    {
+        private static final long serialVersionUID = 20261018;
+
+        private final long _interval;
+
+        public Fixed(long intervalMillis)
+        {
+            _interval = Math.max(0, intervalMillis);
+        }
+
+        @Override
+        public long nextInterval(int attempt, long elapsedMillis, IHttpResponse response)
+        {
+            return _interval;
+        }
+
+        @Override
+        public void onSuccess(long elapsedMillis)
+        {
+        }
+    }
+
+    public static final class Exponential implements PollIntervalStrategy
+    {
+        private static final long serialVersionUID = 20261018;
+
+        private final long _initial;
+        private final double _multiplier;
+        private final long _max;
+
+        public Exponential(long initialMillis, double multiplier, long maxMillis)
+        {
+            _initial = Math.max(0, initialMillis);
+            _multiplier = Math.max(1, multiplier);
+            _max = Math.max(_initial, maxMillis);
+        }
+
+        @Override
+        public long nextInterval(int attempt, long elapsedMillis, IHttpResponse response)
+        {
+            double interval = _initial * Math.pow(_multiplier, Math.max(0, attempt - 1));
+            return (interval >= _max) ? _max : (long) interval;
+        }
+
+        @Override
+        public void onSuccess(long elapsedMillis)
+        {
+        }
+    }
+
+    public static final class Jittered implements PollIntervalStrategy
+    {
+        private static final long serialVersionUID = 20261018;
+
+        private final PollIntervalStrategy _strategy;
+        private final int _jitterPercent;
+
+        public Jittered(PollIntervalStrategy strategy, int jitterPercent)
+        {
+            if (strategy == null) {
+                throw new IllegalArgumentException("The strategy parameter is required but missing.");
+            }
+            _strategy = strategy;
+            _jitterPercent = Math.max(0, Math.min(100, jitterPercent));
+        }
+
+        @Override
+        public long nextInterval(int attempt, long elapsedMillis, IHttpResponse response)
+        {
+            long interval = _strategy.nextInterval(attempt, elapsedMillis, response);
+            long jitter = (interval * _jitterPercent) / 100;
+            if (jitter <= 0) {
+                return interval;
+            }
+            return interval - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+        }
+
+        @Override
+        public void onSuccess(long elapsedMillis)
+        {
+            _strategy.onSuccess(elapsedMillis);
+        }
+    }
+
+    public static final class RetryAfter implements PollIntervalStrategy
+    {
+        private static final long serialVersionUID = 20261018;
+
+        private final PollIntervalStrategy _strategy;
+        private final long _max;
+
+        public RetryAfter(PollIntervalStrategy strategy, long maxMillis)
+        {
+            if (strategy == null) {
+                throw new IllegalArgumentException("The strategy parameter is required but missing.");
+            }
+            _strategy = strategy;
+            _max = Math.max(0, maxMillis);
+        }
+
+        @Override
+        public long nextInterval(int attempt, long elapsedMillis, IHttpResponse response)
+        {
+            long retryAfter = RetryPolicy.getRetryAfter(response);
+            if (retryAfter >= 0) {
+                return Math.min(retryAfter, _max);
+            }
+            return _strategy.nextInterval(attempt, elapsedMillis, response);
+        }
+
+        @Override
+        public void onSuccess(long elapsedMillis)
+        {
+            _strategy.onSuccess(elapsedMillis);
+        }
+    }
+
+    public static final class History implements PollIntervalStrategy
+    {
+        private static final long serialVersionUID = 20261018;
+
+        /** The number of completions of an operation type before its typical completion time is used */
+        public static final int MIN_SAMPLES = 3;
+
+        /** The weight of the most recent completion time in the moving average */
+        private static final double ALPHA = 0.2;
+
+        private static final ConcurrentHashMap<String, Typical> _typical = new ConcurrentHashMap<String, Typical>();
+
+        private final String _operationType;
+        private final PollIntervalStrategy _strategy;
+
+        private static class Typical
+        {
+            private double _average;
+            private int _samples;
+
+            private synchronized void record(long elapsedMillis)
+            {
+                _average = (_samples == 0) ? elapsedMillis : (History.ALPHA * elapsedMillis) + ((1 - History.ALPHA) * _average);
+                _samples++;
+            }
+
+            private synchronized long get()
+            {
+                return (_samples >= History.MIN_SAMPLES) ? (long) _average : -1;
+            }
+        }
+
+        public History(String operationType, PollIntervalStrategy strategy)
+        {
+            if (operationType == null) {
+                throw new IllegalArgumentException("The operationType parameter is required but missing.");
+            }
+            if (strategy == null) {
+                throw new IllegalArgumentException("The strategy parameter is required but missing.");
+            }
+            _operationType = operationType;
+            _strategy = strategy;
+        }
+
+        /**
+         * Returns the typical completion time in milliseconds of an operation type, or -1 if too few have completed
+         */
+        public static long getTypical(String operationType)
+        {
+            Typical typical = History._typical.get(operationType);
+            return (typical != null) ? typical.get() : -1;
+        }
+
+        @Override
+        public long nextInterval(int attempt, long elapsedMillis, IHttpResponse response)
+        {
+            long typical = History.getTypical(_operationType);
+            long fallback = _strategy.nextInterval(attempt, elapsedMillis, response);
+            if (typical > elapsedMillis) {
+                return Math.max(fallback, typical - elapsedMillis);
+            }
+            return fallback;
+        }
+
+        @Override
+        public void onSuccess(long elapsedMillis)
+        {
+            Typical typical = History._typical.get(_operationType);
+            if (typical == null) {
+                Typical created = new Typical();
+                typical = History._typical.putIfAbsent(_operationType, created);
+                if (typical == null) {
+                    typical = created;
+                }
+            }
+            typical.record(elapsedMillis);
+            _strategy.onSuccess(elapsedMillis);
+        }
+    }
+}
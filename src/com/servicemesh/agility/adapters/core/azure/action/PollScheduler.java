@@ -0,0 +1,440 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.api.Property;
+import com.servicemesh.core.reactor.TimerHandler;
+
+/**
+ * A shared scheduler for status pollers built on a hierarchical timing wheel. Timers are kept in wheels of 64 slots, each level
+ * covering 64 times the span of the level below it, so scheduling and cancelling are constant time however many operations are
+ * being polled. A single timer thread sleeps until the next occupied slot, or until timers must be moved down from a higher
+ * level, and hands expired timers to a bounded pool of worker threads.
+ * <p>
+ * A scheduled TimerHandler is fired once. If it returns a time in the future it is scheduled again for that time, as with the
+ * reactor's timers.
+ *
+ * @see StatusPoller#start(PollScheduler)
+ */
+public class PollScheduler
+{
+    private static final Logger _logger = Logger.getLogger(PollScheduler.class);
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << PollScheduler.WHEEL_BITS;
+    private static final int WHEEL_MASK = PollScheduler.WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private static volatile PollScheduler _instance;
+
+    /**
+     * A scheduled timer. Cancelling it prevents it from firing if it has not yet fired.
+     */
+    public static final class Timeout
+    {
+        private final TimerHandler _handler;
+        private final long _deadline;
+        private final long _deadlineTick;
+        private volatile boolean _cancelled;
+
+        private Timeout(TimerHandler handler, long deadline, long deadlineTick)
+        {
+            _handler = handler;
+            _deadline = deadline;
+            _deadlineTick = deadlineTick;
+        }
+
+        /** Returns the time in milliseconds at which the timer is due to fire */
+        public long getDeadline()
+        {
+            return _deadline;
+        }
+
+        public void cancel()
+        {
+            _cancelled = true;
+        }
+
+        public boolean isCancelled()
+        {
+            return _cancelled;
+        }
+    }
+
+    private final long _tick;
+    private final long _start;
+    private final ThreadPoolExecutor _workers;
+    private final Thread _timerThread;
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _wake = _lock.newCondition();
+    private final List<List<Timeout>> _wheels = new ArrayList<List<Timeout>>();
+    private long _currentTick;
+    private long _nextWakeTick = Long.MAX_VALUE;
+    private int _pending;
+    private volatile boolean _shutdown;
+
+    private final AtomicLong _wakeups = new AtomicLong();
+    private final AtomicLong _wastedTicks = new AtomicLong();
+    private final AtomicLong _fired = new AtomicLong();
+    private long _rateWindowStart;
+    private long _rateWindowWakeups;
+    private volatile double _wakeupRate;
+
+    /**
+     * Returns the scheduler shared by all pollers in this JVM. The settings of the first caller determine its configuration.
+     *
+     * @param settings
+     *            Configuration data - if empty or null default values are used.
+     */
+    public static PollScheduler getInstance(List<Property> settings)
+    {
+        PollScheduler scheduler = PollScheduler._instance;
+        if (scheduler == null) {
+            synchronized (PollScheduler.class) {
+                scheduler = PollScheduler._instance;
+                if (scheduler == null) {
+                    scheduler = new PollScheduler(Config.getPollSchedulerTick(settings), Config.getPollSchedulerThreads(settings));
+                    PollScheduler._instance = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * @param tickMillis
+     *            The resolution of the scheduler in milliseconds
+     * @param workers
+     *            The number of threads on which timers are fired
+     */
+    public PollScheduler(long tickMillis, int workers)
+    {
+        _tick = Math.max(1, tickMillis);
+        _start = System.currentTimeMillis();
+        _rateWindowStart = _start;
+        for (int i = 0; i < PollScheduler.LEVELS * PollScheduler.WHEEL_SIZE; i++) {
+            _wheels.add(new ArrayList<Timeout>());
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, workers);
+        _workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "azure-poll-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        _timerThread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                PollScheduler.this.runTimer();
+            }
+        }, "azure-poll-timer");
+        _timerThread.setDaemon(true);
+        _timerThread.start();
+    }
+
+    /**
+     * Schedules a timer
+     *
+     * @param handler
+     *            The handler to fire
+     * @param delayMillis
+     *            The number of milliseconds from now after which the handler is fired
+     * @return The scheduled timer
+     */
+    public Timeout schedule(TimerHandler handler, long delayMillis)
+    {
+        return scheduleAt(handler, System.currentTimeMillis() + Math.max(0, delayMillis));
+    }
+
+    /**
+     * Schedules a timer
+     *
+     * @param handler
+     *            The handler to fire
+     * @param deadline
+     *            The time in milliseconds at which the handler is fired
+     * @return The scheduled timer
+     */
+    public Timeout scheduleAt(TimerHandler handler, long deadline)
+    {
+        if (handler == null) {
+            throw new IllegalArgumentException("The handler parameter is required but missing.");
+        }
+        Timeout timeout = new Timeout(handler, deadline, ((deadline - _start) + _tick - 1) / _tick);
+        boolean due;
+        _lock.lock();
+        try {
+            if (_shutdown) {
+                throw new IllegalStateException("The poll scheduler has been shut down");
+            }
+            due = !insert(timeout);
+            if (!due) {
+                _pending++;
+                if (timeout._deadlineTick < _nextWakeTick) {
+                    _wake.signal();
+                }
+            }
+        }
+        finally {
+            _lock.unlock();
+        }
+        if (due) {
+            fire(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Places a timer in the wheels relative to the current tick, returning false if it is already due
+     */
+    private boolean insert(Timeout timeout)
+    {
+        long delta = timeout._deadlineTick - _currentTick;
+        if (delta <= 0) {
+            return false;
+        }
+        long placeTick = timeout._deadlineTick;
+        int level = 0;
+        while (level < PollScheduler.LEVELS - 1 && delta >= (1L << (PollScheduler.WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        if (delta >= (1L << (PollScheduler.WHEEL_BITS * PollScheduler.LEVELS))) {
+            // Beyond the span of the wheels - park in the top level and place it again when it is cascaded
+            placeTick = _currentTick + (1L << (PollScheduler.WHEEL_BITS * PollScheduler.LEVELS)) - 1;
+        }
+        int slot = (int) ((placeTick >>> (PollScheduler.WHEEL_BITS * level)) & PollScheduler.WHEEL_MASK);
+        _wheels.get(level * PollScheduler.WHEEL_SIZE + slot).add(timeout);
+        return true;
+    }
+
+    private void runTimer()
+    {
+        List<Timeout> due = new ArrayList<Timeout>();
+        while (true) {
+            _lock.lock();
+            try {
+                long nowTick = (System.currentTimeMillis() - _start) / _tick;
+                boolean advanced = false;
+                while (_currentTick < nowTick) {
+                    _currentTick++;
+                    advance(due);
+                    advanced = true;
+                }
+                if (advanced && due.isEmpty()) {
+                    _wastedTicks.incrementAndGet();
+                }
+                _pending -= due.size();
+                if (_shutdown) {
+                    return;
+                }
+                if (due.isEmpty()) {
+                    _nextWakeTick = (_pending > 0) ? nextWakeTick() : Long.MAX_VALUE;
+                    long sleep = (_nextWakeTick == Long.MAX_VALUE) ? Long.MAX_VALUE
+                            : (_start + _nextWakeTick * _tick) - System.currentTimeMillis();
+                    if (sleep > 0) {
+                        if (sleep == Long.MAX_VALUE) {
+                            _wake.await();
+                        }
+                        else {
+                            _wake.await(sleep, TimeUnit.MILLISECONDS);
+                        }
+                        recordWakeup();
+                    }
+                    continue;
+                }
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            finally {
+                _lock.unlock();
+            }
+            for (Timeout timeout : due) {
+                fire(timeout);
+            }
+            due.clear();
+        }
+    }
+
+    /**
+     * Processes the current tick: moves timers down from the higher levels whose slots start at this tick, then collects the
+     * expired timers of the lowest level
+     */
+    private void advance(List<Timeout> due)
+    {
+        for (int level = PollScheduler.LEVELS - 1; level > 0; level--) {
+            long span = 1L << (PollScheduler.WHEEL_BITS * level);
+            if ((_currentTick & (span - 1)) == 0) {
+                int slot = (int) ((_currentTick >>> (PollScheduler.WHEEL_BITS * level)) & PollScheduler.WHEEL_MASK);
+                List<Timeout> bucket = _wheels.get(level * PollScheduler.WHEEL_SIZE + slot);
+                if (!bucket.isEmpty()) {
+                    List<Timeout> cascaded = new ArrayList<Timeout>(bucket);
+                    bucket.clear();
+                    for (Timeout timeout : cascaded) {
+                        if (timeout._cancelled) {
+                            _pending--;
+                        }
+                        else if (!insert(timeout)) {
+                            due.add(timeout);
+                        }
+                    }
+                }
+            }
+        }
+        List<Timeout> bucket = _wheels.get((int) (_currentTick & PollScheduler.WHEEL_MASK));
+        if (!bucket.isEmpty()) {
+            for (Timeout timeout : bucket) {
+                if (timeout._cancelled) {
+                    _pending--;
+                }
+                else {
+                    due.add(timeout);
+                }
+            }
+            bucket.clear();
+        }
+    }
+
+    /**
+     * Returns the next tick at which the timer thread has work: the next occupied slot of the lowest level or the next tick at
+     * which an occupied slot of a higher level is cascaded, whichever comes first
+     */
+    private long nextWakeTick()
+    {
+        long next = Long.MAX_VALUE;
+        for (long tick = _currentTick + 1; tick <= _currentTick + PollScheduler.WHEEL_SIZE; tick++) {
+            if (!_wheels.get((int) (tick & PollScheduler.WHEEL_MASK)).isEmpty()) {
+                next = tick;
+                break;
+            }
+        }
+        for (int level = 1; level < PollScheduler.LEVELS; level++) {
+            int shift = PollScheduler.WHEEL_BITS * level;
+            for (long k = 1; k <= PollScheduler.WHEEL_SIZE; k++) {
+                long tick = ((_currentTick >>> shift) + k) << shift;
+                if (tick >= next) {
+                    break;
+                }
+                int slot = (int) ((tick >>> shift) & PollScheduler.WHEEL_MASK);
+                if (!_wheels.get(level * PollScheduler.WHEEL_SIZE + slot).isEmpty()) {
+                    next = tick;
+                    break;
+                }
+            }
+        }
+        return next;
+    }
+
+    private void recordWakeup()
+    {
+        _wakeups.incrementAndGet();
+        _rateWindowWakeups++;
+        long now = System.currentTimeMillis();
+        if (now - _rateWindowStart >= 1000) {
+            _wakeupRate = (_rateWindowWakeups * 1000.0) / (now - _rateWindowStart);
+            _rateWindowStart = now;
+            _rateWindowWakeups = 0;
+        }
+    }
+
+    private void fire(final Timeout timeout)
+    {
+        if (timeout._cancelled) {
+            return;
+        }
+        _workers.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                if (timeout._cancelled) {
+                    return;
+                }
+                _fired.incrementAndGet();
+                long next = 0;
+                try {
+                    next = timeout._handler.timerFire(timeout._deadline, System.currentTimeMillis());
+                }
+                catch (Throwable t) {
+                    PollScheduler._logger.error("Poll timer failed: " + t.getMessage(), t);
+                }
+                if (next > 0 && !timeout._cancelled && !_shutdown) {
+                    scheduleAt(timeout._handler, next);
+                }
+            }
+        });
+    }
+
+    /** Returns the number of timers waiting to fire, including cancelled timers that have not yet been discarded */
+    public int getPending()
+    {
+        _lock.lock();
+        try {
+            return _pending;
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+    /** Returns the number of timers fired */
+    public long getFired()
+    {
+        return _fired.get();
+    }
+
+    /** Returns the number of times the timer thread has woken */
+    public long getWakeups()
+    {
+        return _wakeups.get();
+    }
+
+    /** Returns the number of times the timer thread woke per second, measured over the most recent interval of a second or more */
+    public double getWakeupsPerSecond()
+    {
+        return _wakeupRate;
+    }
+
+    /** Returns the number of times the timer thread advanced the wheels without finding an expired timer */
+    public long getWastedTicks()
+    {
+        return _wastedTicks.get();
+    }
+
+    /** Stops the timer thread and the workers. Timers that have not fired are discarded. */
+    public void shutdown()
+    {
+        _lock.lock();
+        try {
+            _shutdown = true;
+            _wake.signal();
+        }
+        finally {
+            _lock.unlock();
+        }
+        _workers.shutdown();
+    }
+}
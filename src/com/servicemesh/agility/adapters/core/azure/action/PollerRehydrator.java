@@ -0,0 +1,23 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+/**
+ * Creates a StatusPoller for an operation that was in flight when the adapter stopped.
+ *
+ * @see StatusPoller#resume(PollerStateStore, PollerRehydrator)
+ */
+public interface PollerRehydrator
+{
+    /**
+     * Returns a poller for a recovered operation, created with the state's remaining retries or timeout, or null if the
+     * operation is no longer of interest
+     *
+     * @param state
+     *            The last checkpoint of the operation's poller
+     */
+    public StatusPoller<?> rehydrate(PollerState state);
+}
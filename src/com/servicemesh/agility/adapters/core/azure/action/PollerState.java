@@ -0,0 +1,116 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.io.Serializable;
+
+/**
+ * A checkpoint of an in-flight StatusPoller: enough to create an equivalent poller after the adapter restarts.
+ *
+ * @see PollerStateStore
+ */
+public class PollerState implements Serializable
+{
+    private static final long serialVersionUID = 20261018;
+
+    private final long _reqId;
+    private final String _pollerType;
+    private final String _targetURI;
+    private final String _desiredState;
+    private final long _remainingRetries;
+    private final long _remainingTimeout;
+    private final long _checkpointTime;
+
+    /**
+     * @param reqId
+     *            The id of the request that initiated the operation
+     * @param pollerType
+     *            The class name of the poller
+     * @param targetURI
+     *            The URI polled for the status of the operation
+     * @param desiredState
+     *            The desired state of the monitored object
+     * @param remainingRetries
+     *            The number of polls the poller may still make
+     * @param remainingTimeout
+     *            The number of milliseconds left before the poller times out; zero for no limit
+     * @param checkpointTime
+     *            The time at which the checkpoint was taken
+     */
+    public PollerState(long reqId, String pollerType, String targetURI, String desiredState, long remainingRetries,
+            long remainingTimeout, long checkpointTime)
+    {
+        if (pollerType == null) {
+            throw new IllegalArgumentException("The pollerType parameter is required but missing.");
+        }
+        if (desiredState == null) {
+            throw new IllegalArgumentException("The desiredState parameter is required but missing.");
+        }
+        _reqId = reqId;
+        _pollerType = pollerType;
+        _targetURI = targetURI;
+        _desiredState = desiredState;
+        _remainingRetries = Math.max(0, remainingRetries);
+        _remainingTimeout = Math.max(0, remainingTimeout);
+        _checkpointTime = checkpointTime;
+    }
+
+    public long getReqId()
+    {
+        return _reqId;
+    }
+
+    public String getPollerType()
+    {
+        return _pollerType;
+    }
+
+    /** Returns the URI polled for the status of the operation - may be null. */
+    public String getTargetURI()
+    {
+        return _targetURI;
+    }
+
+    public String getDesiredState()
+    {
+        return _desiredState;
+    }
+
+    public long getRemainingRetries()
+    {
+        return _remainingRetries;
+    }
+
+    /**
+     * Returns the number of milliseconds left before the poller times out as of now, at least 1 so that a recovered poller
+     * polls once before it gives up, or zero if the poller has no time limit
+     */
+    public long getRemainingTimeout()
+    {
+        if (_remainingTimeout == 0) {
+            return 0;
+        }
+        return Math.max(1, _remainingTimeout - Math.max(0, System.currentTimeMillis() - _checkpointTime));
+    }
+
+    /** Returns the number of milliseconds that were left before the poller timed out when the checkpoint was taken */
+    long getCheckpointedTimeout()
+    {
+        return _remainingTimeout;
+    }
+
+    public long getCheckpointTime()
+    {
+        return _checkpointTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PollerState[reqId=" + _reqId + ", type=" + _pollerType + ", target=" + _targetURI + ", desiredState="
+                + _desiredState + ", retries=" + _remainingRetries + ", timeout=" + _remainingTimeout + "]";
+    }
+}
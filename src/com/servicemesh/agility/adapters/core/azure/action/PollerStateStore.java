@@ -0,0 +1,45 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.util.Collection;
+
+/**
+ * Persists the state of in-flight StatusPollers so that their operations can be resumed after the adapter restarts.
+ * Implementations must be safe for use by many pollers at once.
+ *
+ * @see StatusPoller#checkpointTo(PollerStateStore, String)
+ * @see StatusPoller#resume(PollerStateStore, PollerRehydrator)
+ * @see FilePollerStateStore
+ */
+public interface PollerStateStore
+{
+    /**
+     * Records the latest state of a poller, replacing any earlier state with the same request id
+     *
+     * @param state
+     *            The state of the poller
+     */
+    public void checkpoint(PollerState state);
+
+    /**
+     * Forgets the state of a poller whose operation has finished
+     *
+     * @param reqId
+     *            The id of the request that initiated the operation
+     */
+    public void remove(long reqId);
+
+    /**
+     * Returns the latest state of every poller that has been checkpointed and not removed
+     */
+    public Collection<PollerState> recover();
+
+    /**
+     * Releases the resources held by the store
+     */
+    public void close();
+}
@@ -7,11 +7,16 @@ package com.servicemesh.agility.adapters.core.azure.action;
 
 import java.io.Serializable;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import com.servicemesh.agility.adapters.core.azure.AzureConnection;
 import com.servicemesh.agility.adapters.core.azure.util.AzureUtil;
+import com.servicemesh.agility.adapters.core.azure.util.BufferedHttpResponse;
+import com.servicemesh.core.async.Callback;
 import com.servicemesh.core.async.CompletablePromise;
 import com.servicemesh.core.async.Promise;
 import com.servicemesh.core.messaging.Request;
@@ -26,6 +31,7 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
 
     protected static final MessageFormat MISSING_PARAM_MSG = new MessageFormat("The {0} parameter is required but missing.");
     protected static final MessageFormat NEGATIVE_PARAM_MSG = new MessageFormat("The {0} parameter cannot be negative.");
+    protected static final MessageFormat NOT_POSITIVE_PARAM_MSG = new MessageFormat("The {0} parameter must be positive.");
 
     protected final Request request; // the request that initiated the event
     protected final long interval; // interval between polls
@@ -36,6 +42,16 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
     private Object jaxbObject; // the object converted from the XML response
     private final boolean retryOn404; // Flag that determines if the poller should retry or fail when the response is 404
     protected final CompletablePromise<T> responsePromise;// Promise used to pass response to client
+    private final PollIntervalStrategy intervalStrategy; // decides the interval before each poll
+    private final long timeout; // overall time limit in millisecs; zero for none
+    private final long started; // time at which polling started
+    private int attempts = 1; // number of polls issued
+    private transient PollScheduler scheduler; // shared scheduler when started with one; null when driven by a reactor timer
+    private transient boolean refreshDue; // the next poll is issued by the scheduler after the interval
+    private transient long nextPoll; // time at which the next poll is due
+    private transient PollerStateStore stateStore; // store to which the state is checkpointed after each poll; null for none
+    private transient String targetURI; // URI polled for the status, recorded with the state
+    private transient boolean checkpointFailed; // the last checkpoint failed and was reported
 
     /**
      * Constructor for Status Poller All params are required
@@ -58,68 +74,286 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
     public StatusPoller(Request request, CompletablePromise<T> responsePromise, long interval, long retries, String desiredState,
             AzureConnection conn, boolean retryOn404)
     {
-        if (responsePromise != null) {
-            this.responsePromise = responsePromise;
+        this.responsePromise = StatusPoller.checkHandler(responsePromise);
+        this.request = StatusPoller.checkRequired(responsePromise, request, "request");
+        this.interval = StatusPoller.checkNonNegative(responsePromise, interval, "interval");
+        this.retries = StatusPoller.checkNonNegative(responsePromise, retries, "retries");
+        this.conn = StatusPoller.checkRequired(responsePromise, conn, "connection");
+        this.desiredState = StatusPoller.checkDesiredState(responsePromise, desiredState);
+        this.retryOn404 = retryOn404;
+        this.intervalStrategy = PollIntervals.fixed(interval);
+        this.timeout = 0;
+        this.started = System.currentTimeMillis();
+
+        this.promise = run();
+    }
+
+    /**
+     * Constructor for a Status Poller whose polls are spaced by an interval strategy and which gives up after an overall
+     * timeout rather than a number of retries.
+     *
+     * @param request
+     *            The request that initiated the event
+     * @param responsePromise
+     *            Handler - Promise used to pass response to client
+     * @param intervalStrategy
+     *            Decides the interval before each poll
+     * @param timeoutMillis
+     *            The number of milliseconds within which the monitored object must reach its desired state. It must be positive,
+     *            since the timeout is all that bounds a poller that has no retry limit.
+     * @param desiredState
+     *            The desired state of the monitored object
+     * @param conn
+     *            Azure connection object to be used for the polling API call
+     * @param retryOn404
+     *            Flag that determines if the poller should retry or fail when the response is 404.
+     * @see PollIntervals
+     * @see com.servicemesh.agility.adapters.core.azure.Config#getPollTimeout(java.util.List)
+     */
+    public StatusPoller(Request request, CompletablePromise<T> responsePromise, PollIntervalStrategy intervalStrategy,
+            long timeoutMillis, String desiredState, AzureConnection conn, boolean retryOn404)
+    {
+        this.responsePromise = StatusPoller.checkHandler(responsePromise);
+        this.request = StatusPoller.checkRequired(responsePromise, request, "request");
+        this.intervalStrategy = StatusPoller.checkRequired(responsePromise, intervalStrategy, "intervalStrategy");
+        this.timeout = StatusPoller.checkPositive(responsePromise, timeoutMillis, "timeout");
+        this.conn = StatusPoller.checkRequired(responsePromise, conn, "connection");
+        this.desiredState = StatusPoller.checkDesiredState(responsePromise, desiredState);
+        this.retryOn404 = retryOn404;
+        this.interval = intervalStrategy.nextInterval(1, 0, null);
+        this.retries = Long.MAX_VALUE;
+        this.started = System.currentTimeMillis();
+
+        this.promise = run();
+    }
+
+    private static <V> CompletablePromise<V> checkHandler(CompletablePromise<V> responsePromise)
+    {
+        if (responsePromise == null) {
+            throw new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "handler" }));
         }
-        else {
-            IllegalArgumentException e =
-                    new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "handler" }));
+        return responsePromise;
+    }
+
+    private static <V> V checkRequired(CompletablePromise<?> responsePromise, V value, String name)
+    {
+        if (value == null) {
+            IllegalArgumentException e = new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { name }));
+            responsePromise.failure(e);
             throw e;
         }
+        return value;
+    }
 
-        if (request != null) {
-            this.request = request;
-        }
-        else {
-            IllegalArgumentException e =
-                    new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "request" }));
+    private static long checkNonNegative(CompletablePromise<?> responsePromise, long value, String name)
+    {
+        if (value < 0) {
+            IllegalArgumentException e = new IllegalArgumentException(StatusPoller.NEGATIVE_PARAM_MSG.format(new Object[] { name }));
             responsePromise.failure(e);
             throw e;
         }
+        return value;
+    }
 
-        if (interval > -1) {
-            this.interval = interval;
-        }
-        else {
+    private static long checkPositive(CompletablePromise<?> responsePromise, long value, String name)
+    {
+        if (value <= 0) {
             IllegalArgumentException e =
-                    new IllegalArgumentException(StatusPoller.NEGATIVE_PARAM_MSG.format(new Object[] { "interval" }));
+                    new IllegalArgumentException(StatusPoller.NOT_POSITIVE_PARAM_MSG.format(new Object[] { name }));
             responsePromise.failure(e);
             throw e;
         }
+        return value;
+    }
 
-        if (retries > -1) {
-            this.retries = retries;
-        }
-        else {
+    private static String checkDesiredState(CompletablePromise<?> responsePromise, String desiredState)
+    {
+        if (!AzureUtil.isValued(desiredState)) {
             IllegalArgumentException e =
-                    new IllegalArgumentException(StatusPoller.NEGATIVE_PARAM_MSG.format(new Object[] { "retries" }));
+                    new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "desiredState" }));
             responsePromise.failure(e);
             throw e;
         }
+        return desiredState;
+    }
+
+    /**
+     * Starts polling on the shared poll scheduler instead of registering this poller as a reactor timer.
+     *
+     * @see #start(PollScheduler)
+     */
+    public void start()
+    {
+        start(PollScheduler.getInstance(null));
+    }
 
-        if (conn != null) {
-            this.conn = conn;
+    /**
+     * Starts polling on a poll scheduler instead of registering this poller as a reactor timer. The response of each poll is
+     * processed as soon as it is received, and the next poll is scheduled for the interval after that, so a poller is never
+     * woken while its previous poll is still in progress. Each response received counts against the retries.
+     *
+     * @param scheduler
+     *            The scheduler on which polls are issued and processed
+     */
+    public void start(PollScheduler scheduler)
+    {
+        if (scheduler == null) {
+            throw new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "scheduler" }));
         }
-        else {
-            IllegalArgumentException e =
-                    new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "connection" }));
-            responsePromise.failure(e);
-            throw e;
+        this.scheduler = scheduler;
+        awaitPoll();
+    }
+
+    /**
+     * Checkpoints the state of this poller to a store now and after every poll, and removes it once the poll completes, so that
+     * the operation can be resumed if the adapter restarts.
+     *
+     * @param store
+     *            The store to which the state is written
+     * @param targetURI
+     *            The URI polled for the status of the operation - may be null.
+     * @see #resume(PollerStateStore, PollerRehydrator)
+     */
+    public void checkpointTo(PollerStateStore store, String targetURI)
+    {
+        if (store == null) {
+            throw new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "store" }));
         }
+        this.stateStore = store;
+        this.targetURI = targetURI;
+        store.checkpoint(getState());
+    }
+
+    /**
+     * Returns the current state of this poller
+     */
+    public PollerState getState()
+    {
+        long now = System.currentTimeMillis();
+        long remainingTimeout = (timeout > 0) ? Math.max(1, started + timeout - now) : 0;
+        return new PollerState(request.getReqId(), getClass().getName(), targetURI, desiredState, retries, remainingTimeout, now);
+    }
 
-        if (AzureUtil.isValued(desiredState)) {
-            this.desiredState = desiredState;
+    /**
+     * Recreates the pollers of every operation in a store, e.g. when the adapter starts. Each poller returned is checkpointed
+     * to the store and must then be started or registered as a timer by the caller. The operations for which the rehydrator
+     * returns null or fails are removed from the store. The time taken is linear in the number of operations.
+     *
+     * @param store
+     *            The store from which the operations are recovered
+     * @param rehydrator
+     *            Creates a poller for each operation
+     * @return List<StatusPoller<?>> - the recreated pollers
+     */
+    public static List<StatusPoller<?>> resume(PollerStateStore store, PollerRehydrator rehydrator)
+    {
+        if (store == null) {
+            throw new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "store" }));
         }
-        else {
-            IllegalArgumentException e =
-                    new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "desiredState" }));
-            responsePromise.failure(e);
-            throw e;
+        if (rehydrator == null) {
+            throw new IllegalArgumentException(StatusPoller.MISSING_PARAM_MSG.format(new Object[] { "rehydrator" }));
+        }
+        Collection<PollerState> states = store.recover();
+        List<StatusPoller<?>> pollers = new ArrayList<StatusPoller<?>>(states.size());
+        for (PollerState state : states) {
+            StatusPoller<?> poller = null;
+            try {
+                poller = rehydrator.rehydrate(state);
+            }
+            catch (Exception e) {
+                Logger.getLogger(StatusPoller.class).error("Unable to resume polling for " + state + ": " + e.getMessage(), e);
+            }
+            if (poller == null) {
+                store.remove(state.getReqId());
+                continue;
+            }
+            poller.checkpointTo(store, state.getTargetURI());
+            pollers.add(poller);
         }
+        return pollers;
+    }
 
-        this.retryOn404 = retryOn404;
+    /**
+     * Processes the response of the current poll once it has been received
+     */
+    private void awaitPoll()
+    {
+        final TimerHandler process = new TimerHandler() {
+            @Override
+            public long timerFire(long scheduledTime, long actualTime)
+            {
+                long next = StatusPoller.this.timerFire(scheduledTime, actualTime);
+                if (next == 0) {
+                    return 0;
+                }
+                if (refreshDue) {
+                    refreshDue = false;
+                    scheduler.scheduleAt(new TimerHandler() {
+                        @Override
+                        public long timerFire(long scheduledTime, long actualTime)
+                        {
+                            try {
+                                promise = run();
+                            }
+                            catch (Throwable t) {
+                                getLogger().error("Unable to poll status for request " + request.getReqId() + ": " + t, t);
+                                promise = null;
+                            }
+                            awaitPoll();
+                            return 0;
+                        }
+                    }, nextPoll);
+                    return 0;
+                }
+                // The poll did not complete successfully - check again after the interval
+                return next;
+            }
+        };
+        if (promise == null) {
+            scheduler.schedule(process, 0);
+            return;
+        }
+        StatusPoller.whenSettled(promise, new Runnable() {
+            @Override
+            public void run()
+            {
+                scheduler.schedule(process, 0);
+            }
+        });
+    }
 
-        this.promise = run();
+    private static <R> void whenSettled(Promise<R> promise, final Runnable runnable)
+    {
+        promise.onComplete(new Callback<R>() {
+            @Override
+            public void invoke(R value)
+            {
+                runnable.run();
+            }
+        });
+        promise.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                runnable.run();
+            }
+        });
+        promise.onCancel(runnable);
+    }
+
+    /**
+     * Polls a parent resource whose response contains the status of the monitored object, sharing the GET with other pollers
+     * of the same parent. A subclass that monitors one of many children, e.g. a role instance of a deployment, may return this
+     * from run() and extract its child's status in getStatus().
+     *
+     * @param parentURI
+     *            The URI of the parent resource
+     * @return Promise<IHttpResponse> - future HTTP response to the shared GET of the parent
+     * @see BatchPoller
+     */
+    protected Promise<IHttpResponse> pollParent(String parentURI)
+    {
+        return BatchPoller.getInstance().poll(conn, parentURI);
     }
 
     /**
@@ -139,13 +373,33 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
     abstract protected Object decode(IHttpResponse httpResponse);
 
     /**
-     * This method will will return the status value from the JAXB object.
+     * This method will return the status value from the response. By default the status is read with the probe returned by
+     * getStatusProbe(), so the response is only decoded on the poll that reaches the desired state. A subclass that needs more
+     * than a single element or property to decide the status overrides this method instead. The timer passes a buffered response,
+     * so the body may be read here and again by decode().
      *
      * @param httpResponse
      *            The response from the HTTP call
-     * @return String - the status value; null if the parameter is null
+     * @return String - the status value; null if the parameter is null or the status is not found
+     */
+    protected String getStatus(IHttpResponse httpResponse)
+    {
+        StatusProbe probe = getStatusProbe();
+        if (probe == null) {
+            throw new IllegalStateException(getClass().getName() + " must override getStatus() or getStatusProbe().");
+        }
+        return probe.probe(httpResponse);
+    }
+
+    /**
+     * This method will return the probe used by getStatus() to read the status value from a response without decoding it.
+     *
+     * @return StatusProbe - the probe for the status element or property; null if getStatus() is overridden
      */
-    abstract protected String getStatus(IHttpResponse httpResponse);
+    protected StatusProbe getStatusProbe()
+    {
+        return null;
+    }
 
     /**
      * This method will return a new response object to match the poller.
@@ -177,7 +431,7 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
     /**
      * This is the method to call when the timer expires. The timer will continue to reset until the verification context is
      * verified or the verification context expires. If the context is verified, the status will be COMPLETE. If the context
-     * expires, the status will be FAILURE.
+     * expires, or the poll fails or is cancelled, the status will be FAILURE.
      *
      * @param scheduledTime
      *         Time in milliseconds when the timer should fire
@@ -195,7 +449,6 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
         Status status = null;
         String msg = null;
         long timerInterval = 0; // initialize to assume completion
-        long timerResetValue = System.currentTimeMillis() + interval;
 
         response.setReqId(request.getReqId());
         response.setTimestamp(System.currentTimeMillis());
@@ -209,17 +462,19 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
         }
         else if (promise != null && promise.isCompleted()) {
             try {
-                IHttpResponse httpResponse = (IHttpResponse) promise.get();
+                // Buffered so that the status can be probed and the same response then decoded
+                IHttpResponse httpResponse = BufferedHttpResponse.of((IHttpResponse) promise.get());
                 int respStatus = httpResponse.getStatusCode();
 
                 if (respStatus == 404 && retryOn404) {
-                    timerInterval = timerResetValue; // reset timer
-                    promise = run(); // refresh the response
+                    timerInterval = nextPollTime(httpResponse); // reset timer
+                    refresh(); // refresh the response
                 }
                 else if (respStatus == 200) {
                     String azureStatus = getStatus(httpResponse);
                     try {
                         if (desiredState.equalsIgnoreCase(azureStatus)) { // azureStatus could be null
+                            intervalStrategy.onSuccess(System.currentTimeMillis() - started);
                             response = updateResponseObject(request, response, getJaxbObject(httpResponse));
                             status = Status.COMPLETE;
                             msg = "Success";
@@ -236,8 +491,8 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
                             responsePromise.complete(response);
                         }
                         else {
-                            timerInterval = timerResetValue; // reset timer
-                            promise = run(); // refresh the response
+                            timerInterval = nextPollTime(httpResponse); // reset timer
+                            refresh(); // refresh the response
                         }
                     }
                     catch (Exception e) {
@@ -267,6 +522,27 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
                 responsePromise.complete(response);
             }
         }
+        else if (promise != null && (promise.isFailed() || promise.isCancelled())) {
+            // The poll will never complete, so waiting for it would only exhaust the retries or the timeout
+            Throwable cause = null;
+            if (promise.isCancelled()) {
+                msg = "The poll for request " + request.getReqId() + " was cancelled.";
+            }
+            else {
+                try {
+                    promise.get();
+                }
+                catch (Throwable t) {
+                    cause = t;
+                }
+                msg = "The poll for request " + request.getReqId() + " failed.  " + ((cause != null) ? cause.getMessage() : "");
+            }
+            status = Status.FAILURE;
+            getLogger().error(msg, cause);
+            response.setStatus(status);
+            response.setMessage(msg);
+            responsePromise.complete(response);
+        }
         else if (promise == null) {
             status = Status.FAILURE;
             msg = "The HTTP Promise object is null.";
@@ -276,7 +552,25 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
             responsePromise.complete(response);
         }
         else {
-            timerInterval = timerResetValue; // reset timer
+            timerInterval = nextPollTime(null); // reset timer
+        }
+
+        if (timerInterval != 0 && timeout > 0 && System.currentTimeMillis() - started >= timeout) {
+            status = Status.FAILURE;
+            msg = "The " + desiredState + " state was not reached within the timeout of " + timeout + " ms.";
+            getLogger().error(msg);
+            response.setStatus(status);
+            response.setMessage(msg);
+            responsePromise.complete(response);
+            timerInterval = 0;
+            refreshDue = false;
+            if (promise != null) {
+                promise.cancel();
+            }
+        }
+
+        if (stateStore != null) {
+            checkpoint(timerInterval == 0);
         }
 
         // make sure this is called at the end so a new JAXB object will be computed next time fired
@@ -285,6 +579,68 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
         return timerInterval;
     }
 
+    /**
+     * Records the state of this poller in its store, or removes it once polling is complete. A failure to write the store does
+     * not fail the poll, since the operation itself is unaffected, but the poller can no longer be resumed after a restart, so
+     * the first failure is logged as an error.
+     */
+    private void checkpoint(boolean complete)
+    {
+        try {
+            if (complete) {
+                stateStore.remove(request.getReqId());
+            }
+            else {
+                stateStore.checkpoint(getState());
+            }
+            if (checkpointFailed) {
+                checkpointFailed = false;
+                getLogger().info("Resumed checkpointing the poller for request " + request.getReqId());
+            }
+        }
+        catch (Exception e) {
+            if (!checkpointFailed) {
+                checkpointFailed = true;
+                getLogger().error("Unable to checkpoint the poller for request " + request.getReqId()
+                        + "; it cannot be resumed after a restart: " + e.getMessage(), e);
+            }
+            else if (getLogger().isDebugEnabled()) {
+                getLogger().debug("Unable to checkpoint the poller for request " + request.getReqId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Issues the next poll now, or when polling on a scheduler leaves it to be issued after the interval
+     */
+    private void refresh()
+    {
+        attempts++;
+        if (scheduler != null) {
+            refreshDue = true;
+        }
+        else {
+            promise = run();
+        }
+    }
+
+    /**
+     * Returns the time at which the next poll is due, never later than the timeout
+     *
+     * @param httpResponse
+     *            The response to the most recent poll - null if it has not been received
+     */
+    private long nextPollTime(IHttpResponse httpResponse)
+    {
+        long now = System.currentTimeMillis();
+        long next = now + Math.max(0, intervalStrategy.nextInterval(attempts, now - started, httpResponse));
+        if (timeout > 0) {
+            next = Math.min(next, started + timeout);
+        }
+        nextPoll = Math.max(next, 1);
+        return nextPoll;
+    }
+
     /**
      * This method will reset the JAXB object to null. This should be done at the end of the timer method so the next run will
      * compute a new object from the HTTP response.
@@ -296,7 +652,7 @@ public abstract class StatusPoller<T extends Response> implements TimerHandler,
 
     /**
      * This method will extract the JAXB object from the response. For efficiency, make this a singleton for each run of the
-     * timer. Make sure to clear it at the end of the timer.
+     * timer. Make sure to clear it at the end of the timer. The timer only calls this once the desired state is reached.
      *
      * @param httpResponse
      *            HTTP response object
@@ -0,0 +1,212 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+import com.servicemesh.io.http.IHttpResponse;
+
+/**
+ * Extracts a single status value from an XML or JSON response body without decoding it. The body is read as a stream only as
+ * far as the element or property at the probe's path, so the rest of the document is neither parsed nor held in memory.
+ * <p>
+ * A path is the sequence of element local names from the document element, e.g. {"Operation", "Status"}, or of property names
+ * from the top-level object, e.g. {"properties", "provisioningState"}. A path name of "*" matches any name. JSON arrays are not
+ * searched.
+ */
+public class StatusProbe implements Serializable
+{
+    private static final long serialVersionUID = 20261018;
+
+    /** Matches any element or property name */
+    public static final String ANY = "*";
+
+    private static final XMLInputFactory _xmlInputFactory = StatusProbe.createXMLInputFactory();
+
+    private final String[] _path;
+
+    private static XMLInputFactory createXMLInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * @param path
+     *            The names of the elements or properties from the root to the status value
+     */
+    public StatusProbe(String... path)
+    {
+        if (path == null || path.length == 0) {
+            throw new IllegalArgumentException("The path parameter is required but missing.");
+        }
+        _path = path.clone();
+    }
+
+    /**
+     * Returns the status value at the probe's path, or null if the response has no body or the path is not found. The format is
+     * detected from the first character of the body. The body is read from the response's content stream, so a response that
+     * is to be decoded after it is probed must first be buffered, e.g. with BufferedHttpResponse.of().
+     *
+     * @param response
+     *            The HTTP response
+     */
+    public String probe(IHttpResponse response)
+    {
+        if (response == null) {
+            return null;
+        }
+        InputStream stream = response.getContentAsStream();
+        if (stream == null) {
+            String content = response.getContent();
+            if (content == null) {
+                return null;
+            }
+            stream = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            try {
+                PushbackInputStream input = new PushbackInputStream(stream, 1);
+                int first;
+                do {
+                    first = input.read();
+                }
+                while (first != -1 && Character.isWhitespace(first));
+                if (first == -1) {
+                    return null;
+                }
+                input.unread(first);
+                return (first == '{') ? probeJson(input) : probeXml(input);
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (AzureAdapterException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new AzureAdapterException("Unable to probe " + this + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Returns the text of the element at the probe's path, or null if it is not found. Reading stops at the element.
+     *
+     * @param stream
+     *            An XML document
+     */
+    public String probeXml(InputStream stream) throws XMLStreamException
+    {
+        XMLStreamReader reader = StatusProbe._xmlInputFactory.createXMLStreamReader(stream);
+        try {
+            int depth = 0;
+            int matched = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (matched == depth - 1 && depth <= _path.length && matches(_path[depth - 1], reader.getLocalName())) {
+                        matched = depth;
+                        if (matched == _path.length) {
+                            return reader.getElementText().trim();
+                        }
+                    }
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (matched == depth) {
+                        matched--;
+                    }
+                    depth--;
+                }
+            }
+            return null;
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the value of the property at the probe's path, or null if it is not found or is not a string, number or boolean.
+     * Reading stops at the property.
+     *
+     * @param stream
+     *            A JSON document encoded in UTF-8
+     */
+    public String probeJson(InputStream stream) throws IOException
+    {
+        JsonReader reader = new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+        try {
+            return probeJson(reader, 0);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private String probeJson(JsonReader reader, int index) throws IOException
+    {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (!matches(_path[index], name)) {
+                reader.skipValue();
+                continue;
+            }
+            if (index < _path.length - 1) {
+                String value = probeJson(reader, index + 1);
+                if (value != null) {
+                    return value;
+                }
+                continue;
+            }
+            JsonToken token = reader.peek();
+            if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                return reader.nextString();
+            }
+            if (token == JsonToken.BOOLEAN) {
+                return String.valueOf(reader.nextBoolean());
+            }
+            reader.skipValue();
+        }
+        reader.endObject();
+        return null;
+    }
+
+    private static boolean matches(String pattern, String name)
+    {
+        return StatusProbe.ANY.equals(pattern) || pattern.equals(name);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StatusProbe" + Arrays.toString(_path);
+    }
+}
@@ -9,6 +9,12 @@ public class AzureAdapterException extends RuntimeException
 {
     private static final long serialVersionUID = 20150114;
 
+    /** The code of the exception raised when a request is rejected because its endpoint's circuit breaker is open */
+    public static final String CIRCUIT_OPEN = "CircuitOpen";
+
+    /** The code of the exception raised when a request does not complete by the deadline of its request options */
+    public static final String DEADLINE_EXCEEDED = "DeadlineExceeded";
+
     String code;
 
     public AzureAdapterException(int code, String message)
@@ -5,12 +5,15 @@
 
 package com.servicemesh.agility.adapters.core.azure.exception;
 
+import java.lang.reflect.Method;
+
 public class AzureErrorException extends RuntimeException
 {
     private static final long serialVersionUID = 20150114;
 
     String code;
     Object msError;
+    int statusCode;
 
     public AzureErrorException(Object msErrorObj, String message)
     {
@@ -18,6 +21,23 @@ public class AzureErrorException extends RuntimeException
         msError = msErrorObj;
     }
 
+    /**
+     * Creates an exception for an error response whose body has been decoded.
+     *
+     * @param msErrorObj
+     *            The Microsoft Error object decoded from the response content
+     * @param message
+     *            The response content
+     * @param statusCode
+     *            The HTTP status code of the response
+     */
+    public AzureErrorException(Object msErrorObj, String message, int statusCode)
+    {
+        super(message);
+        this.statusCode = statusCode;
+        msError = msErrorObj;
+    }
+
     /**
      * Returns the Microsoft Error object associated with this exception.
      */
@@ -25,4 +45,29 @@ public class AzureErrorException extends RuntimeException
     {
         return errorClass.isInstance(msError) ? errorClass.cast(msError) : null;
     }
+
+    /** Returns the HTTP status code of the error response, or 0 if it is not known */
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    /**
+     * Returns the code of the Microsoft Error object associated with this exception, or null if there is no error object or it
+     * has no code.
+     */
+    public String getErrorCode()
+    {
+        if (msError != null) {
+            try {
+                Method getCode = msError.getClass().getMethod("getCode");
+                Object errorCode = getCode.invoke(msError);
+                return (errorCode != null) ? errorCode.toString() : null;
+            }
+            catch (Exception ex) {
+                // No code for this type of error object
+            }
+        }
+        return null;
+    }
 }
@@ -5,24 +5,28 @@
 
 package com.servicemesh.agility.adapters.core.azure.impl;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.net.URI;
-import java.security.KeyStore;
 import java.util.List;
-
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.KeyManagerFactory;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 
 import com.servicemesh.agility.adapters.core.azure.AzureConnection;
 import com.servicemesh.agility.adapters.core.azure.AzureEndpoint;
+import com.servicemesh.agility.adapters.core.azure.AzurePageIterator;
+import com.servicemesh.agility.adapters.core.azure.AzurePageReader;
+import com.servicemesh.agility.adapters.core.azure.AzureRequestOptions;
+import com.servicemesh.agility.adapters.core.azure.AzureResponseCache;
 import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
 import com.servicemesh.agility.api.Credential;
 import com.servicemesh.agility.api.Property;
+import com.servicemesh.core.async.Callback;
+import com.servicemesh.core.async.CompletablePromise;
 import com.servicemesh.core.async.Function;
 import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
 import com.servicemesh.io.http.HttpClientFactory;
 import com.servicemesh.io.http.HttpMethod;
 import com.servicemesh.io.http.IHttpClient;
@@ -39,6 +43,21 @@ public class AzureConnectionImpl implements AzureConnection
 
     private IHttpClient _httpClient;
     private AzureEndpoint _endpoint;
+    private AzureConnectionRegistry.Lease _lease;
+    private RetryPolicy _retryPolicy;
+    private ConcurrencyLimiter _limiter;
+    private CircuitBreaker _breaker;
+    private HedgePolicy _hedge;
+    private boolean _coalesceGets;
+    private ResponseCachePolicy _cachePolicy;
+    private int _pagePrefetch;
+    private volatile AzureResponseCache _responseCache;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    private static final int HTTP_SERVER_ERROR = 500;
+    private final AtomicBoolean _closed = new AtomicBoolean(false);
 
     public AzureConnectionImpl(List<Property> settings, List<Credential> credentials, Proxy proxy, AzureEndpoint endpoint)
             throws Exception
@@ -64,8 +83,8 @@ public class AzureConnectionImpl implements AzureConnection
         init(settings, certificate.getCertificate(), certificate.getPrivateKey(), proxy, endpoint);
     }
 
-    private void init(List<Property> settings, byte[] certificate, String certificatePassword, Proxy proxy, AzureEndpoint endpoint)
-            throws Exception
+    private void init(final List<Property> settings, final byte[] certificate, final String certificatePassword,
+            final Proxy proxy, AzureEndpoint endpoint) throws Exception
     {
         if (certificate == null) {
             throw new Exception("No certificate");
@@ -73,43 +92,89 @@ public class AzureConnectionImpl implements AzureConnection
         if (certificatePassword == null) {
             throw new Exception("No certificate password");
         }
+        String subscription = (endpoint != null) ? endpoint.getSubscription() : null;
+        _lease = AzureConnectionRegistry.getInstance().acquire(settings, certificate, certificatePassword, proxy, subscription,
+                new AzureConnectionRegistry.ClientLoader() {
+                    @Override
+                    public IHttpClient load() throws Exception
+                    {
+                        return createHttpClient(settings, certificate, certificatePassword, proxy);
+                    }
+                });
+        _httpClient = _lease.getClient();
+        _endpoint = endpoint;
+        _retryPolicy = new RetryPolicy(settings);
+        _coalesceGets = Config.isCoalesceGets(settings);
+        _cachePolicy = new ResponseCachePolicy(settings);
+        _pagePrefetch = Config.getPagePrefetch(settings);
+        int cacheSize = Config.getResponseCacheSize(settings);
+        if (cacheSize > 0) {
+            _responseCache = _lease.getResponseCache(cacheSize);
+        }
+        String address = (endpoint != null) ? endpoint.getAddress() : AzureEndpoint.DEFAULT_ADDRESS;
+        _limiter = ConcurrencyLimiter.getInstance(subscription, address, settings);
+        _breaker = CircuitBreaker.getInstance(subscription, address, settings);
+        if (Config.isHedgeGets(settings)) {
+            _hedge = HedgePolicy.getInstance(subscription, address, settings);
+        }
+    }
+
+    private static IHttpClient createHttpClient(List<Property> settings, byte[] certificate, String certificatePassword,
+            Proxy proxy) throws Exception
+    {
         IHttpClientConfigBuilder cb = HttpClientFactory.getInstance().getConfigBuilder();
         cb.setConnectionTimeout(Config.getHttpTimeout(settings));
         cb.setRetries(Config.getHttpRetries(settings));
         cb.setSocketTimeout(Config.getSocketTimeout(settings));
-        cb.setKeyManagers(getKeyManagers(certificate, certificatePassword));
+        cb.setKeyManagers(KeyManagerCache.getInstance().getKeyManagers(settings, certificate, certificatePassword));
         if (proxy != null) {
             cb.setProxy(proxy);
         }
 
-        _httpClient = HttpClientFactory.getInstance().getClient(cb.build());
-        _endpoint = endpoint;
+        return HttpClientFactory.getInstance().getClient(cb.build());
     }
 
-    private KeyManager[] getKeyManagers(byte[] certificate, String certificatePassword) throws Exception
+    @Override
+    public AzureEndpoint getEndpoint()
     {
-        InputStream cert = new ByteArrayInputStream(certificate);
-        char[] secretPassword = certificatePassword.toCharArray();
-        KeyStore keyStore = KeyStore.getInstance("pkcs12");
+        return _endpoint;
+    }
 
-        try {
-            keyStore.load(cert, secretPassword);
-        }
-        catch (Exception ex) {
-            String err = "Certificate/Secret Password error: " + ex.getMessage();
-            AzureConnectionImpl._logger.error(err);
-            throw new Exception(err);
-        }
+    @Override
+    public int getConcurrencyLimit()
+    {
+        return _limiter.getLimit();
+    }
 
-        KeyManagerFactory fac = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-        fac.init(keyStore, secretPassword);
-        return fac.getKeyManagers();
+    @Override
+    public int getQueueDepth()
+    {
+        return _limiter.getQueueDepth();
     }
 
     @Override
-    public AzureEndpoint getEndpoint()
+    public void setResponseCache(AzureResponseCache cache)
     {
-        return _endpoint;
+        _responseCache = cache;
+    }
+
+    @Override
+    public AzureResponseCache getResponseCache()
+    {
+        return _responseCache;
+    }
+
+    /**
+     * Releases this connection's reference to its shared HTTP client. The client is closed once it is no longer referenced by
+     * any connection and has been idle for the configured idle timeout. The connection may not be used after it is closed.
+     *
+     * @see com.servicemesh.agility.adapters.core.azure.Config#getConnectionIdleTimeout(java.util.List)
+     */
+    public void close()
+    {
+        if (_closed.compareAndSet(false, true)) {
+            AzureConnectionRegistry.getInstance().release(_lease);
+        }
     }
 
     //-------------------------------------------------------------------------
@@ -119,33 +184,72 @@ public class AzureConnectionImpl implements AzureConnection
     @Override
     public <T> Promise<T> get(String requestURI, QueryParams params, final Class<T> responseClass)
     {
-        return execute(HttpMethod.GET, requestURI, params, null, responseClass);
+        return get(requestURI, params, responseClass, null);
+    }
+
+    @Override
+    public <T> Promise<T> get(String requestURI, QueryParams params, final Class<T> responseClass,
+            AzureRequestOptions options)
+    {
+        return execute(HttpMethod.GET, requestURI, params, null, responseClass, options);
     }
 
     @Override
     public <T> Promise<T> post(String requestURI, Object resource, final Class<T> responseClass)
     {
-        return execute(HttpMethod.POST, requestURI, null, resource, responseClass);
+        return post(requestURI, resource, responseClass, null);
+    }
+
+    @Override
+    public <T> Promise<T> post(String requestURI, Object resource, final Class<T> responseClass, AzureRequestOptions options)
+    {
+        return execute(HttpMethod.POST, requestURI, null, resource, responseClass, options);
     }
 
     @Override
     public <T> Promise<T> put(String requestURI, Object resource, final Class<T> responseClass)
     {
-        return execute(HttpMethod.PUT, requestURI, null, resource, responseClass);
+        return put(requestURI, resource, responseClass, null);
+    }
+
+    @Override
+    public <T> Promise<T> put(String requestURI, Object resource, final Class<T> responseClass, AzureRequestOptions options)
+    {
+        return execute(HttpMethod.PUT, requestURI, null, resource, responseClass, options);
     }
 
     @Override
     public Promise<IHttpResponse> delete(String requestURI)
     {
-        return execute(HttpMethod.DELETE, requestURI, null, null, IHttpResponse.class);
+        return delete(requestURI, null);
+    }
+
+    @Override
+    public Promise<IHttpResponse> delete(String requestURI, AzureRequestOptions options)
+    {
+        return execute(HttpMethod.DELETE, requestURI, null, null, IHttpResponse.class, options);
+    }
+
+    @Override
+    public <P, T> AzurePageIterator<T> list(String requestURI, QueryParams params, Class<P> pageClass,
+            AzurePageReader<P, T> reader, AzureRequestOptions options)
+    {
+        return new AzurePageIteratorImpl<P, T>(this, requestURI, params, pageClass, reader, _pagePrefetch, options);
     }
 
-    @SuppressWarnings("unchecked")
     private <T> Promise<T> execute(HttpMethod method, String requestURI, QueryParams params, Object resource,
-            final Class<T> responseClass)
+            final Class<T> responseClass, AzureRequestOptions options)
     {
         URI uri = null;
+        long deadline = (options != null) ? options.getDeadline() : 0;
+        boolean idempotent = AzureConnectionImpl.isIdempotent(method) || (options != null && options.isIdempotent());
         try {
+            if (_closed.get()) {
+                throw new IllegalStateException("Connection is closed");
+            }
+            if (options != null && options.isExpired()) {
+                return Promise.pure(AzureConnectionImpl.deadlineExceeded(method, requestURI));
+            }
             uri = getURI(requestURI, params);
             IHttpRequest request = HttpClientFactory.getInstance().createRequest(method, uri);
             addMsVersionHeader(request);
@@ -159,7 +263,7 @@ public class AzureConnectionImpl implements AzureConnection
                     request.setContent((byte[])resource);
                 }
                 else {
-                    request.setContent(_endpoint.encode(resource));
+                    request.setContent(_endpoint.encodeToBytes(resource));
                     addContentTypeHeader(request);
                 }
             }
@@ -167,35 +271,642 @@ public class AzureConnectionImpl implements AzureConnection
             if (AzureConnectionImpl._logger.isDebugEnabled()) {
                 AzureConnectionImpl._logger.debug(method.getName() + " " + uri);
             }
-            Promise<IHttpResponse> promise = _httpClient.promise(request);
+            Promise<T> result = null;
+            if (method == HttpMethod.GET) {
+                AzureResponseCache cache = _responseCache;
+                if (cache != null && !IHttpResponse.class.equals(responseClass)) {
+                    result = cachedGet(cache, request, uri, responseClass, deadline);
+                }
+                else if (_coalesceGets || _hedge != null) {
+                    result = AzureConnectionImpl.transform(sendGet(request, uri, null, deadline),
+                            new Function<IHttpResponse, T>() {
+                                @Override
+                                public T invoke(IHttpResponse response)
+                                {
+                                    return decodeResponse(response, responseClass);
+                                }
+                            }, !_coalesceGets);
+                }
+            }
+            if (result == null) {
+                CompletablePromise<T> sent = PromiseFactory.create();
+                send(request, responseClass, sent, 0, 0, deadline, idempotent, null);
+                result = sent;
+            }
+            return (deadline > 0) ? withDeadline(result, deadline, method, requestURI) : result;
+        }
+        catch (Exception e) {
+            String err = "Exception for " + method.getName() + "'" + uri + "': " + e.toString();
+            AzureConnectionImpl._logger.error(err, e);
+            return Promise.pure(new Exception(err));
+        }
+    }
 
-            if (responseClass.getCanonicalName().equals(IHttpResponse.class.getCanonicalName())) {
-                return (Promise<T>) promise;
+    /**
+     * Returns a cached GET response while its time to live lasts, and otherwise sends a request that is conditional on the
+     * validators of the cached response. A 304 Not Modified response reuses the cached object.
+     */
+    private <T> Promise<T> cachedGet(final AzureResponseCache cache, IHttpRequest request, final URI uri,
+            final Class<T> responseClass, long deadline)
+    {
+        final String key = uri.toString() + "|" + _endpoint.getMsVersion() + "|" + responseClass.getName();
+        final AzureResponseCache.Entry cached = AzureConnectionImpl.usable(cache.get(key), responseClass);
+        String validator = null;
+        if (cached != null) {
+            if (!cached.isExpired(System.currentTimeMillis())) {
+                return Promise.pure(responseClass.cast(cached.getValue()));
             }
-            else {
-                return promise.map(new Function<IHttpResponse, T>() {
+            addHeader(request, "If-None-Match", cached.getETag());
+            addHeader(request, "If-Modified-Since", cached.getLastModified());
+            validator = (cached.getETag() != null) ? cached.getETag() : cached.getLastModified();
+        }
+
+        return AzureConnectionImpl.transform(sendGet(request, uri, validator, deadline), new Function<IHttpResponse, T>() {
+            @Override
+            public T invoke(IHttpResponse response)
+            {
+                long expires = System.currentTimeMillis() + _cachePolicy.getTtl(uri.toString());
+                if (cached != null && response.getStatus() != null
+                        && response.getStatusCode() == AzureConnectionImpl.HTTP_NOT_MODIFIED) {
+                    cache.put(key, cached.withExpires(expires));
+                    return responseClass.cast(cached.getValue());
+                }
+                T value = decodeResponse(response, responseClass);
+                AzureResponseCache.Entry entry =
+                        new AzureResponseCache.Entry(AzureConnectionImpl.getHeaderValue(response, "ETag"),
+                                AzureConnectionImpl.getHeaderValue(response, "Last-Modified"), value, expires);
+                if (value != null && (entry.isValidatable() || !entry.isExpired(System.currentTimeMillis()))) {
+                    cache.put(key, entry);
+                }
+                else {
+                    cache.remove(key);
+                }
+                return value;
+            }
+        }, !_coalesceGets);
+    }
+
+    /** Returns a cache entry if it holds an object of the response class and can be used or revalidated */
+    private static AzureResponseCache.Entry usable(AzureResponseCache.Entry entry, Class<?> responseClass)
+    {
+        if (entry == null || !responseClass.isInstance(entry.getValue())) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis()) && !entry.isValidatable()) {
+            return null;
+        }
+        return entry;
+    }
+
+    private static String getHeaderValue(IHttpResponse response, String name)
+    {
+        IHttpHeader header = response.getHeader(name);
+        return (header != null) ? header.getValue() : null;
+    }
+
+    /**
+     * Sends a GET for the raw response, joining an identical GET that is already in flight on the shared client if coalescing is
+     * enabled and hedging it if hedging is enabled. A coalesced response is shared but each caller decodes its own result, so
+     * only GETs with the same API version and Accept media type are joined.
+     *
+     * @param validator
+     *            The validator of a conditional request, so that only callers holding the same validator share its response.
+     *            Optional - may be null.
+     * @param deadline
+     *            The deadline of the request, or zero. A coalesced request is not bounded by the deadline of a single caller.
+     */
+    private Promise<IHttpResponse> sendGet(final IHttpRequest request, URI uri, String validator, long deadline)
+    {
+        if (!_coalesceGets) {
+            return sendGet(request, deadline);
+        }
+        String key = uri.toString() + "|" + _endpoint.getMsVersion() + "|" + _endpoint.getContentType();
+        if (validator != null) {
+            key += "|" + validator;
+        }
+        return _lease.getCoalescer().execute(key, new RequestCoalescer.RequestSender() {
+            @Override
+            public Promise<IHttpResponse> send()
+            {
+                return sendGet(request, 0);
+            }
+        });
+    }
+
+    private Promise<IHttpResponse> sendGet(IHttpRequest request, long deadline)
+    {
+        if (_hedge != null) {
+            return new HedgedGet(request, _hedge, deadline).start();
+        }
+        CompletablePromise<IHttpResponse> response = PromiseFactory.create();
+        send(request, IHttpResponse.class, response, 0, 0, deadline, true, null);
+        return response;
+    }
+
+    /**
+     * A GET that is sent a second time if it has not completed within the hedge delay. The first response is used and the other
+     * request is cancelled. A failure is only reported once neither request can still succeed.
+     * <p>
+     * The latency recorded for the hedge delay is the time the primary request spent on the wire, excluding its wait for the
+     * concurrency limiter and any retry backoff. If the hedge wins, the primary's time so far is recorded as a lower bound, so
+     * that slow requests are not left out of the latency distribution.
+     */
+    private class HedgedGet
+    {
+        private final IHttpRequest _request;
+        private final HedgePolicy _policy;
+        private final long _deadline;
+        private final CompletablePromise<IHttpResponse> _result = PromiseFactory.create();
+        private final CompletablePromise<IHttpResponse> _primary = PromiseFactory.create();
+        private CompletablePromise<IHttpResponse> _secondary;
+        private int _outstanding;
+        private boolean _settled;
+        private long _primaryWireTime;
+        private long _primaryAttemptStart;
+        private boolean _primaryDispatched;
+
+        private final AttemptListener _primaryAttempts = new AttemptListener() {
+            @Override
+            public void onDispatch(long start)
+            {
+                synchronized (HedgedGet.this) {
+                    _primaryDispatched = true;
+                    _primaryAttemptStart = start;
+                }
+            }
+
+            @Override
+            public void onResponse(long latency)
+            {
+                synchronized (HedgedGet.this) {
+                    _primaryWireTime += latency;
+                    _primaryAttemptStart = 0;
+                }
+            }
+        };
+
+        private HedgedGet(IHttpRequest request, HedgePolicy policy, long deadline)
+        {
+            _request = request;
+            _policy = policy;
+            _deadline = deadline;
+        }
+
+        private Promise<IHttpResponse> start()
+        {
+            _result.onCancel(new Runnable() {
+                @Override
+                public void run()
+                {
+                    cancelAll(null);
+                }
+            });
+            synchronized (this) {
+                _outstanding = 1;
+            }
+            attach(_primary);
+            send(_request, IHttpResponse.class, _primary, 0, 0, _deadline, true, _primaryAttempts);
+
+            long delay = _policy.getDelay();
+            if (delay >= 0 && !_result.isCompleted()) {
+                RetryPolicy.schedule(new Runnable() {
                     @Override
-                    public T invoke(IHttpResponse response)
+                    public void run()
                     {
-                        return _endpoint.decode(response, responseClass);
+                        hedge();
                     }
-                });
+                }, delay);
+            }
+            return _result;
+        }
+
+        private void hedge()
+        {
+            CompletablePromise<IHttpResponse> secondary;
+            synchronized (this) {
+                if (_settled || _result.isCancelled() || !_policy.tryAcquire()) {
+                    return;
+                }
+                secondary = PromiseFactory.create();
+                _secondary = secondary;
+                _outstanding++;
+            }
+            if (AzureConnectionImpl._logger.isDebugEnabled()) {
+                AzureConnectionImpl._logger.debug("Hedging GET after " + _policy.getDelay() + "ms");
+            }
+            attach(secondary);
+            send(_request, IHttpResponse.class, secondary, 0, 0, _deadline, true, null);
+        }
+
+        private void attach(final CompletablePromise<IHttpResponse> attempt)
+        {
+            attempt.onComplete(new Callback<IHttpResponse>() {
+                @Override
+                public void invoke(IHttpResponse response)
+                {
+                    synchronized (HedgedGet.this) {
+                        if (_settled) {
+                            return;
+                        }
+                        _settled = true;
+                    }
+                    recordPrimaryLatency();
+                    if (attempt != _primary) {
+                        _policy.onHedgeWin();
+                    }
+                    cancelAll(attempt);
+                    _result.complete(response);
+                }
+            });
+            attempt.onFailure(new Callback<Throwable>() {
+                @Override
+                public void invoke(Throwable t)
+                {
+                    if (settle()) {
+                        _result.failure(t);
+                    }
+                }
+            });
+            attempt.onCancel(new Runnable() {
+                @Override
+                public void run()
+                {
+                    if (settle()) {
+                        _result.cancel();
+                    }
+                }
+            });
+        }
+
+        private void recordPrimaryLatency()
+        {
+            long latency;
+            synchronized (this) {
+                if (!_primaryDispatched) {
+                    return;
+                }
+                latency = _primaryWireTime;
+                if (_primaryAttemptStart > 0) {
+                    latency += System.currentTimeMillis() - _primaryAttemptStart;
+                }
             }
+            _policy.recordLatency(latency);
+        }
+
+        /** Records an attempt that ended without a response, returning true if no attempt is left to complete the result */
+        private synchronized boolean settle()
+        {
+            if (_settled || --_outstanding > 0) {
+                return false;
+            }
+            _settled = true;
+            return true;
+        }
+
+        private void cancelAll(CompletablePromise<IHttpResponse> winner)
+        {
+            CompletablePromise<IHttpResponse> secondary;
+            synchronized (this) {
+                _settled = true;
+                secondary = _secondary;
+            }
+            if (_primary != winner) {
+                _primary.cancel();
+            }
+            if (secondary != null && secondary != winner) {
+                secondary.cancel();
+            }
+        }
+    }
+
+    /**
+     * Sends a request and completes the result with the decoded response. Throttled and busy responses are retried after a
+     * backoff delay for as long as the retry policy and the subscription's retry budget allow. Requests fail fast while the
+     * circuit breaker for the endpoint address and subscription is open. The breaker admits a request once and records a single
+     * outcome for it, however many times it is retried.
+     *
+     * @param idempotent
+     *            Whether the request may be retried after any retryable response, rather than only after a 429 or 503 response
+     *            that rejected it before it was processed
+     * @param listener
+     *            Observes each attempt as it is put on the wire. Optional - may be null.
+     */
+    private <T> void send(final IHttpRequest request, final Class<T> responseClass, final CompletablePromise<T> result,
+            final int retries, final long previousDelay, final long deadline, final boolean idempotent,
+            final AttemptListener listener)
+    {
+        if (retries == 0 && !_breaker.tryAcquire()) {
+            result.failure(new AzureAdapterException(AzureAdapterException.CIRCUIT_OPEN, "Circuit breaker is open for "
+                    + _endpoint.getAddress() + _endpoint.getSubscription() + ", retry in " + _breaker.getRemainingOpen() + "ms"));
+            return;
+        }
+        try {
+            _limiter.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    dispatch(request, responseClass, result, retries, previousDelay, deadline, idempotent, listener);
+                }
+            });
         }
         catch (Exception e) {
-            String err = "Exception for " + method.getName() + "'" + uri + "': " + e.toString();
-            AzureConnectionImpl._logger.error(err, e);
-            return Promise.pure(new Exception(err));
+            _breaker.release();
+            result.failure(e);
+        }
+    }
+
+    /**
+     * Puts an admitted request on the wire, reporting the latency of each attempt to the concurrency limiter and the outcome of
+     * the last attempt to the circuit breaker
+     */
+    private <T> void dispatch(final IHttpRequest request, final Class<T> responseClass, final CompletablePromise<T> result,
+            final int retries, final long previousDelay, final long deadline, final boolean idempotent,
+            final AttemptListener listener)
+    {
+        if (result.isCancelled()) {
+            _limiter.release();
+            _breaker.release();
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        if (listener != null) {
+            listener.onDispatch(start);
+        }
+        Promise<IHttpResponse> promise;
+        try {
+            promise = _httpClient.promise(request);
+        }
+        catch (Exception e) {
+            _limiter.release();
+            _breaker.release();
+            result.failure(e);
+            return;
+        }
+
+        final Promise<IHttpResponse> sent = promise;
+        result.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                sent.cancel();
+            }
+        });
+        promise.onComplete(new Callback<IHttpResponse>() {
+            @Override
+            public void invoke(IHttpResponse response)
+            {
+                long latency = System.currentTimeMillis() - start;
+                _limiter.onComplete(latency, AzureConnectionImpl.isThrottled(response));
+                if (listener != null) {
+                    listener.onResponse(latency);
+                }
+                if (_retryPolicy.isRetryable(response) && retry(request, responseClass, result, retries, previousDelay, deadline, idempotent, listener, response)) {
+                    return;
+                }
+                T value;
+                try {
+                    value = decodeResponse(response, responseClass);
+                }
+                catch (Throwable t) {
+                    if (_retryPolicy.isRetryable(t) && retry(request, responseClass, result, retries, previousDelay, deadline, idempotent, listener, response)) {
+                        return;
+                    }
+                    recordOutcome(response, latency);
+                    result.failure(t);
+                    return;
+                }
+                recordOutcome(response, latency);
+                result.complete(value);
+            }
+        });
+        promise.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                _limiter.release();
+                _breaker.onFailure(System.currentTimeMillis() - start);
+                result.failure(t);
+            }
+        });
+        promise.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                _limiter.release();
+                _breaker.release();
+                result.cancel();
+            }
+        });
+    }
+
+    /**
+     * Reports the final response of a request to the circuit breaker. A throttled response, or one that asks for a Retry-After
+     * delay, shows that the service is shedding load rather than failing, so it is left to the retry policy and the concurrency
+     * limiter and is not counted by the breaker.
+     */
+    private void recordOutcome(IHttpResponse response, long latency)
+    {
+        if (AzureConnectionImpl.isThrottled(response) || RetryPolicy.getRetryAfter(response) >= 0) {
+            _breaker.release();
+        }
+        else if (AzureConnectionImpl.isServerError(response)) {
+            _breaker.onFailure(latency);
         }
+        else {
+            _breaker.onSuccess(latency);
+        }
+    }
+
+    /** Observes the attempts of a request as they are put on the wire */
+    private interface AttemptListener
+    {
+        /** Called when an attempt is sent, after any wait for the concurrency limiter or retry backoff */
+        public void onDispatch(long start);
+
+        /** Called when an attempt receives a response */
+        public void onResponse(long latency);
+    }
+
+    private static boolean isThrottled(IHttpResponse response)
+    {
+        if (response == null || response.getStatus() == null) {
+            return false;
+        }
+        int status = response.getStatusCode();
+        return status == AzureConnectionImpl.HTTP_TOO_MANY_REQUESTS || status == AzureConnectionImpl.HTTP_SERVICE_UNAVAILABLE;
+    }
+
+    /** Returns true if a method may be sent more than once without changing the result */
+    private static boolean isIdempotent(HttpMethod method)
+    {
+        return method == HttpMethod.GET || method == HttpMethod.HEAD;
+    }
+
+    private static boolean isServerError(IHttpResponse response)
+    {
+        return response != null && response.getStatus() != null
+                && response.getStatusCode() >= AzureConnectionImpl.HTTP_SERVER_ERROR;
+    }
+
+    /**
+     * Schedules another attempt of a request, returning false if no further retry is allowed or the retry could not be sent
+     * before the request's deadline. A request that is not idempotent is only retried if the service rejected it before
+     * processing it, so that an operation is never run twice.
+     */
+    private <T> boolean retry(final IHttpRequest request, final Class<T> responseClass, final CompletablePromise<T> result,
+            final int retries, long previousDelay, final long deadline, final boolean idempotent, final AttemptListener listener,
+            IHttpResponse response)
+    {
+        if (retries >= _retryPolicy.getMaxRetries() || result.isCancelled()) {
+            return false;
+        }
+        if (!idempotent && !AzureConnectionImpl.isThrottled(response)) {
+            return false;
+        }
+        final long delay = _retryPolicy.getDelay(previousDelay, response);
+        if (deadline > 0 && System.currentTimeMillis() + delay >= deadline) {
+            return false;
+        }
+        String subscription = (_endpoint != null) ? _endpoint.getSubscription() : null;
+        if (!_retryPolicy.acquireRetry(subscription)) {
+            return false;
+        }
+        if (AzureConnectionImpl._logger.isDebugEnabled()) {
+            AzureConnectionImpl._logger.debug("Retry " + (retries + 1) + " in " + delay + "ms");
+        }
+        RetryPolicy.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                if (result.isCancelled()) {
+                    _breaker.release();
+                }
+                else {
+                    send(request, responseClass, result, retries + 1, delay, deadline, idempotent, listener);
+                }
+            }
+        }, delay);
+        return true;
+    }
+
+    /**
+     * Bounds a request by its deadline. Once the deadline passes the returned Promise fails and the request is cancelled, and
+     * cancelling the returned Promise cancels the request.
+     */
+    private <T> Promise<T> withDeadline(final Promise<T> request, long deadline, final HttpMethod method,
+            final String requestURI)
+    {
+        final CompletablePromise<T> result = PromiseFactory.create();
+        final AtomicBoolean expired = new AtomicBoolean(false);
+        final ScheduledFuture<?> timer = RetryPolicy.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                if (!result.isCompleted() && !result.isFailed() && !result.isCancelled()) {
+                    // Abort the request before the caller is notified, so that its resources are released first
+                    expired.set(true);
+                    request.cancel();
+                    result.failure(AzureConnectionImpl.deadlineExceeded(method, requestURI));
+                }
+            }
+        }, Math.max(0, deadline - System.currentTimeMillis()));
+        request.onComplete(new Callback<T>() {
+            @Override
+            public void invoke(T value)
+            {
+                timer.cancel(false);
+                result.complete(value);
+            }
+        });
+        request.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                timer.cancel(false);
+                result.failure(t);
+            }
+        });
+        request.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                timer.cancel(false);
+                if (!expired.get()) {
+                    result.cancel();
+                }
+            }
+        });
+        result.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                request.cancel();
+            }
+        });
+        return result;
+    }
+
+    private static AzureAdapterException deadlineExceeded(HttpMethod method, String requestURI)
+    {
+        return new AzureAdapterException(AzureAdapterException.DEADLINE_EXCEEDED,
+                "Deadline exceeded for " + method.getName() + " " + requestURI);
+    }
+
+    /**
+     * Maps a Promise like Promise.map(), optionally cancelling the source when the mapped Promise is cancelled. A source that is
+     * shared with other callers must not be cancelled.
+     */
+    private static <S, T> Promise<T> transform(final Promise<S> source, final Function<S, T> function,
+            boolean propagateCancel)
+    {
+        Promise<T> mapped = source.map(function);
+        if (propagateCancel) {
+            mapped.onCancel(new Runnable() {
+                @Override
+                public void run()
+                {
+                    source.cancel();
+                }
+            });
+        }
+        return mapped;
+    }
+
+    private <T> T decodeResponse(IHttpResponse response, Class<T> responseClass)
+    {
+        if (responseClass.getCanonicalName().equals(IHttpResponse.class.getCanonicalName())) {
+            return responseClass.cast(response);
+        }
+        return _endpoint.decode(response, responseClass);
     }
 
     //-------------------------------------------------------------------------
     // Utility methods
     //-------------------------------------------------------------------------
 
+    /**
+     * Returns the URI of a resource relative to the subscription on the endpoint address. An absolute http or https URI, e.g. a
+     * nextLink returned by a paged list, is used as it is, provided that it is on the endpoint's host.
+     */
     private URI getURI(String resourceString, QueryParams params) throws Exception
     {
-        StringBuilder sb = new StringBuilder(_endpoint.getAddress());
+        StringBuilder sb = new StringBuilder();
+        if (AzureConnectionImpl.isAbsolute(resourceString)) {
+            URI absolute = new URI(resourceString);
+            URI address = new URI(_endpoint.getAddress());
+            if (!absolute.getScheme().equalsIgnoreCase(address.getScheme())
+                    || !absolute.getHost().equalsIgnoreCase(address.getHost()) || absolute.getPort() != address.getPort()) {
+                throw new AzureAdapterException("The URI " + resourceString + " is not on the endpoint address "
+                        + _endpoint.getAddress());
+            }
+            sb.append(resourceString);
+            if (params != null) {
+                sb.append(params.asQueryString());
+            }
+            return new URI(sb.toString());
+        }
+
+        sb.append(_endpoint.getAddress());
         sb.append(_endpoint.getSubscription());
 
         if (resourceString != null && !resourceString.isEmpty()) {
@@ -211,6 +922,12 @@ public class AzureConnectionImpl implements AzureConnection
         return new URI(sb.toString());
     }
 
+    private static boolean isAbsolute(String resourceString)
+    {
+        return resourceString != null
+                && (resourceString.regionMatches(true, 0, "https://", 0, 8) || resourceString.regionMatches(true, 0, "http://", 0, 7));
+    }
+
     private void addMsVersionHeader(IHttpRequest request)
     {
         addHeader(request, "x-ms-version", _endpoint.getMsVersion());
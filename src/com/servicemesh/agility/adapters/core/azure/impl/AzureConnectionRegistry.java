@@ -0,0 +1,394 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.api.Property;
+import com.servicemesh.io.http.IHttpClient;
+import com.servicemesh.io.proxy.Proxy;
+
+/**
+ * Shares HTTP clients between Azure connections that use the same credential, subscription, proxy and effective configuration.
+ * Each shared client is reference counted and is closed once it has been idle for longer than the configured idle timeout.
+ */
+public class AzureConnectionRegistry
+{
+    private static final Logger _logger = Logger.getLogger(AzureConnectionRegistry.class);
+
+    private final ConcurrentHashMap<Key, Entry> _entries = new ConcurrentHashMap<Key, Entry>();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+
+    /** Sweeps idle clients on its own thread, so that closing a client does not delay retries, hedges or deadlines */
+    private final ScheduledExecutorService _evictor = AzureConnectionRegistry.createEvictor();
+
+    private static class Holder
+    {
+        private static final AzureConnectionRegistry _instance = new AzureConnectionRegistry();
+    }
+
+    public static AzureConnectionRegistry getInstance()
+    {
+        return Holder._instance;
+    }
+
+    private static ScheduledExecutorService createEvictor()
+    {
+        ScheduledThreadPoolExecutor evictor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "azure-client-eviction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        evictor.setRemoveOnCancelPolicy(true);
+        return evictor;
+    }
+
+    /** Creates the HTTP client for a registry entry on a miss */
+    public interface ClientLoader
+    {
+        public IHttpClient load() throws Exception;
+    }
+
+    /**
+     * A reference to a shared HTTP client. Must be released exactly once via {@link AzureConnectionRegistry#release(Lease)}.
+     */
+    public static class Lease
+    {
+        private final Entry _entry;
+
+        private Lease(Entry entry)
+        {
+            _entry = entry;
+        }
+
+        public IHttpClient getClient()
+        {
+            return _entry._client;
+        }
+
+        /** Returns the fingerprint of the credential that the client was built with */
+        public String getFingerprint()
+        {
+            return _entry._key._fingerprint;
+        }
+
+        /** Returns the coalescer for requests on the shared client */
+        public RequestCoalescer getCoalescer()
+        {
+            return _entry._coalescer;
+        }
+
+        /**
+         * Returns the response cache shared by connections on the client, creating it on first use. The settings of the first
+         * connection determine its size.
+         *
+         * @param maxEntries
+         *            The maximum number of cached responses
+         */
+        public LruResponseCache getResponseCache(int maxEntries)
+        {
+            synchronized (_entry) {
+                if (_entry._responseCache == null) {
+                    _entry._responseCache = new LruResponseCache(maxEntries);
+                }
+                return _entry._responseCache;
+            }
+        }
+    }
+
+    private static class Key
+    {
+        private final String _fingerprint;
+        private final String _subscription;
+        private final Proxy _proxy;
+        private final int _httpTimeout;
+        private final int _httpRetries;
+        private final int _socketTimeout;
+        private final int _idleTimeout;
+
+        private Key(String fingerprint, String subscription, Proxy proxy, List<Property> settings)
+        {
+            _fingerprint = fingerprint;
+            _subscription = subscription;
+            _proxy = proxy;
+            _httpTimeout = Config.getHttpTimeout(settings);
+            _httpRetries = Config.getHttpRetries(settings);
+            _socketTimeout = Config.getSocketTimeout(settings);
+            _idleTimeout = Config.getConnectionIdleTimeout(settings);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return _fingerprint.equals(other._fingerprint) && equal(_subscription, other._subscription)
+                    && equal(_proxy, other._proxy) && _httpTimeout == other._httpTimeout
+                    && _httpRetries == other._httpRetries && _socketTimeout == other._socketTimeout
+                    && _idleTimeout == other._idleTimeout;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = _fingerprint.hashCode();
+            hash = 31 * hash + (_subscription != null ? _subscription.hashCode() : 0);
+            hash = 31 * hash + (_proxy != null ? _proxy.hashCode() : 0);
+            hash = 31 * hash + _httpTimeout;
+            hash = 31 * hash + _httpRetries;
+            hash = 31 * hash + _socketTimeout;
+            hash = 31 * hash + _idleTimeout;
+            return hash;
+        }
+
+        private static boolean equal(Object a, Object b)
+        {
+            return (a == null) ? (b == null) : a.equals(b);
+        }
+    }
+
+    private static class Entry
+    {
+        private final Key _key;
+        private final RequestCoalescer _coalescer = new RequestCoalescer();
+        private IHttpClient _client;
+        private LruResponseCache _responseCache;
+        private Exception _loadFailure;
+        private boolean _loaded;
+        private boolean _evicted;
+        private int _references;
+        private long _lastReleased;
+
+        private Entry(Key key)
+        {
+            _key = key;
+        }
+
+        private synchronized void load(ClientLoader loader) throws Exception
+        {
+            if (!_loaded) {
+                _loaded = true;
+                try {
+                    _client = loader.load();
+                }
+                catch (Exception ex) {
+                    _loadFailure = ex;
+                }
+            }
+            if (_loadFailure != null) {
+                throw _loadFailure;
+            }
+        }
+    }
+
+    /**
+     * Returns a lease on a shared HTTP client, creating the client via the loader if no matching client is registered.
+     *
+     * @param settings
+     *            The configuration settings for the connection. Optional - may be empty or null.
+     * @param certificate
+     *            The PKCS#12 certificate
+     * @param certificatePassword
+     *            The certificate password
+     * @param proxy
+     *            The proxy to be utilized. Optional - may be null.
+     * @param subscription
+     *            The Microsoft Azure subscription. Optional - may be null.
+     * @param loader
+     *            Creates the HTTP client on a miss
+     */
+    public Lease acquire(List<Property> settings, byte[] certificate, String certificatePassword, Proxy proxy,
+            String subscription, ClientLoader loader) throws Exception
+    {
+        evictIdle();
+        Key key = new Key(AzureConnectionRegistry.fingerprint(certificate, certificatePassword), subscription, proxy, settings);
+        Entry entry;
+
+        for (;;) {
+            entry = _entries.get(key);
+            if (entry == null) {
+                Entry created = new Entry(key);
+                entry = _entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    entry = created;
+                    _misses.incrementAndGet();
+                }
+                else {
+                    _hits.incrementAndGet();
+                }
+            }
+            else {
+                _hits.incrementAndGet();
+            }
+            synchronized (entry) {
+                if (!entry._evicted) {
+                    entry._references++;
+                    break;
+                }
+            }
+            // Lost a race with eviction - try again with a fresh entry
+        }
+
+        try {
+            entry.load(loader);
+        }
+        catch (Exception ex) {
+            synchronized (entry) {
+                entry._references--;
+                entry._evicted = true;
+            }
+            _entries.remove(key, entry);
+            throw ex;
+        }
+        return new Lease(entry);
+    }
+
+    /**
+     * Releases a lease obtained from acquire(). The client is closed once it has no references and its idle timeout has expired,
+     * whether or not another client is acquired or released in the meantime.
+     */
+    public void release(Lease lease)
+    {
+        if (lease != null) {
+            Entry entry = lease._entry;
+            boolean idle;
+            synchronized (entry) {
+                if (entry._references > 0) {
+                    entry._references--;
+                }
+                entry._lastReleased = System.currentTimeMillis();
+                idle = entry._references == 0;
+            }
+            evictIdle();
+            if (idle && entry._key._idleTimeout > 0) {
+                scheduleEviction(entry._key._idleTimeout + 1);
+            }
+        }
+    }
+
+    /** Sweeps idle clients once the idle timeout of a client released now has expired */
+    private void scheduleEviction(long idleTimeout)
+    {
+        try {
+            _evictor.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    evictIdle();
+                }
+            }, idleTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (Exception ex) {
+            AzureConnectionRegistry._logger.warn("Unable to schedule eviction of idle HTTP clients: " + ex);
+        }
+    }
+
+    /** Closes and removes all clients that have no references and have been idle longer than their idle timeout */
+    public void evictIdle()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Key, Entry>> iter = _entries.entrySet().iterator();
+
+        while (iter.hasNext()) {
+            Entry entry = iter.next().getValue();
+            boolean evict = false;
+            synchronized (entry) {
+                if (entry._loaded && !entry._evicted && entry._references == 0
+                        && (now - entry._lastReleased) >= entry._key._idleTimeout) {
+                    entry._evicted = true;
+                    evict = true;
+                }
+            }
+            if (evict) {
+                _entries.remove(entry._key, entry);
+                _evictions.incrementAndGet();
+                close(entry);
+            }
+        }
+    }
+
+    private void close(Entry entry)
+    {
+        if (entry._client != null) {
+            try {
+                entry._client.close();
+            }
+            catch (Exception ex) {
+                AzureConnectionRegistry._logger.warn("Unable to close idle HTTP client: " + ex);
+            }
+        }
+    }
+
+    /** Returns the number of acquisitions that were satisfied by an already registered client */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /** Returns the number of acquisitions that required a new client */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /** Returns the number of clients that were closed after being idle */
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    /** Returns the number of registered clients */
+    public int size()
+    {
+        return _entries.size();
+    }
+
+    /**
+     * Returns a hex-encoded SHA-256 digest of a certificate and its password, so that neither is retained in plain text.
+     */
+    public static String fingerprint(byte[] certificate, String certificatePassword)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (certificate != null) {
+                digest.update(certificate);
+            }
+            digest.update((byte) 0);
+            if (certificatePassword != null) {
+                digest.update(certificatePassword.getBytes(StandardCharsets.UTF_8));
+            }
+            return new String(Hex.encodeHex(digest.digest()));
+        }
+        catch (Exception ex) {
+            throw new IllegalStateException("Unable to compute credential fingerprint: " + ex, ex);
+        }
+    }
+}
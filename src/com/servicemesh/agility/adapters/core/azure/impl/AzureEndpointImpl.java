@@ -6,21 +6,40 @@
 package com.servicemesh.agility.adapters.core.azure.impl;
 
 import java.io.ByteArrayOutputStream;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBIntrospector;
 import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.log4j.Logger;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 
 import com.servicemesh.agility.adapters.core.azure.AzureEndpoint;
 import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
 import com.servicemesh.agility.adapters.core.azure.exception.AzureErrorException;
-import com.servicemesh.io.http.HttpUtil;
+import com.servicemesh.agility.adapters.core.azure.util.BufferedHttpResponse;
 import com.servicemesh.io.http.IHttpResponse;
 
 public class AzureEndpointImpl implements AzureEndpoint
@@ -33,25 +52,130 @@ public class AzureEndpointImpl implements AzureEndpoint
     private final Class<?> _msErrorClass;
     private final ClassLoader _msErrorLoader;
     private final JAXBContext _context;
+    private final Map<Type, Object> _typeAdapters = new LinkedHashMap<Type, Object>();
+    private volatile boolean _formattedOutput;
+    private volatile Gson _gson;
+    private volatile Gson _prettyGson;
 
+    private static final FieldNamingPolicy FIELD_NAMING_POLICY = FieldNamingPolicy.UPPER_CAMEL_CASE;
+
+    /**
+     * Gson instances shared by endpoints that have no registered type adapters, keyed by naming policy and pretty printing. Gson
+     * is immutable and thread-safe, and reusing it keeps its reflective type adapter cache warm.
+     */
+    private static final ConcurrentHashMap<String, Gson> _sharedGson = new ConcurrentHashMap<String, Gson>();
+
+    private static final XMLInputFactory _xmlInputFactory = AzureEndpointImpl.createXMLInputFactory();
+
+    private static XMLInputFactory createXMLInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static class ContextKey
+    {
+        private final String contextPath;
+        private final ClassLoader loader;
+
+        private ContextKey(String contextPath, ClassLoader loader)
+        {
+            this.contextPath = contextPath;
+            this.loader = loader;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ContextKey)) {
+                return false;
+            }
+            ContextKey other = (ContextKey) obj;
+            return contextPath.equals(other.contextPath) && loader == other.loader;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * contextPath.hashCode() + System.identityHashCode(loader);
+        }
+    }
+
+    /**
+     * Registry of JAXB contexts keyed by context path and class loader. Lookups of an existing context take no lock and each
+     * context is created at most once; concurrent requests for the same key wait for that single creation. Each registered
+     * context has a pool of marshallers and unmarshallers.
+     */
     private static class Holder
     {
-        private static HashMap<String, JAXBContext> contextMap = new HashMap<String, JAXBContext>();
-        private static final Object lock = new Object();
+        private static final ConcurrentHashMap<ContextKey, FutureTask<JAXBContext>> contextMap =
+                new ConcurrentHashMap<ContextKey, FutureTask<JAXBContext>>();
+        private static final ConcurrentHashMap<JAXBContext, JaxbPool> poolMap =
+                new ConcurrentHashMap<JAXBContext, JaxbPool>();
 
-        private static JAXBContext getContext(String contextPath, ClassLoader loader)
+        private static JAXBContext getContext(final String contextPath, final ClassLoader loader)
         {
-            JAXBContext context;
-            synchronized (Holder.lock) {
-                context = Holder.contextMap.get(contextPath);
-                if (context == null) {
-                    context = Holder.createContext(contextPath, loader);
-                    Holder.contextMap.put(contextPath, context);
+            if (contextPath == null) {
+                return null;
+            }
+            ContextKey key = new ContextKey(contextPath, loader);
+            FutureTask<JAXBContext> task = Holder.contextMap.get(key);
+
+            if (task == null) {
+                FutureTask<JAXBContext> created = new FutureTask<JAXBContext>(new Callable<JAXBContext>() {
+                    @Override
+                    public JAXBContext call()
+                    {
+                        JAXBContext context = Holder.createContext(contextPath, loader);
+                        if (context != null) {
+                            Holder.poolMap.put(context, new JaxbPool(context));
+                        }
+                        return context;
+                    }
+                });
+                task = Holder.contextMap.putIfAbsent(key, created);
+                if (task == null) {
+                    task = created;
+                    task.run();
                 }
             }
+
+            JAXBContext context = Holder.await(task);
+            if (context == null) {
+                // Don't cache a failed creation so a later request can retry
+                Holder.contextMap.remove(key, task);
+            }
             return context;
         }
 
+        private static JAXBContext await(FutureTask<JAXBContext> task)
+        {
+            boolean interrupted = false;
+            try {
+                for (;;) {
+                    try {
+                        return task.get();
+                    }
+                    catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                    catch (ExecutionException ee) {
+                        return null;
+                    }
+                }
+            }
+            finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
         private static JAXBContext createContext(String contextPath, ClassLoader loader)
         {
             try {
@@ -65,19 +189,44 @@ public class AzureEndpointImpl implements AzureEndpoint
 
         private static JAXBContext lookupContext(String contextPath)
         {
-            JAXBContext context = null;
-            synchronized (Holder.lock) {
-                context = Holder.contextMap.get(contextPath);
+            for (Map.Entry<ContextKey, FutureTask<JAXBContext>> entry : Holder.contextMap.entrySet()) {
+                FutureTask<JAXBContext> task = entry.getValue();
+                if (entry.getKey().contextPath.equals(contextPath) && task.isDone()) {
+                    JAXBContext context = Holder.await(task);
+                    if (context != null) {
+                        return context;
+                    }
+                }
             }
-            return context;
+            return null;
         }
 
         private static void unregisterContext(String contextPath)
         {
-            synchronized (Holder.lock) {
-                Holder.contextMap.remove(contextPath);
+            Iterator<Map.Entry<ContextKey, FutureTask<JAXBContext>>> iter = Holder.contextMap.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<ContextKey, FutureTask<JAXBContext>> entry = iter.next();
+                if (entry.getKey().contextPath.equals(contextPath)) {
+                    iter.remove();
+                    if (entry.getValue().isDone()) {
+                        JAXBContext context = Holder.await(entry.getValue());
+                        if (context != null) {
+                            Holder.poolMap.remove(context);
+                        }
+                    }
+                }
             }
         }
+
+        /**
+         * Returns the pool for a registered context. A context that was not created by the registry gets an unshared pool, so
+         * its marshallers and unmarshallers are created per use as before.
+         */
+        private static JaxbPool getPool(JAXBContext context)
+        {
+            JaxbPool pool = Holder.poolMap.get(context);
+            return (pool != null) ? pool : new JaxbPool(context, 1);
+        }
     }
 
     public static JAXBContext lookupContext(String msContextPath)
@@ -91,10 +240,17 @@ public class AzureEndpointImpl implements AzureEndpoint
     }
 
     public <E> AzureEndpointImpl(String subscription, String msVersion, String msContextPath, Class<E> msErrorClass, MediaType mediaType)
+    {
+        this(subscription, msVersion, msContextPath, msErrorClass, mediaType, false);
+    }
+
+    public <E> AzureEndpointImpl(String subscription, String msVersion, String msContextPath, Class<E> msErrorClass, MediaType mediaType,
+            boolean formattedOutput)
     {
         _subscription = subscription;
         _msVersion = msVersion;
         _mediaType = mediaType;
+        _formattedOutput = formattedOutput;
         _msErrorClass = msErrorClass;
         _msErrorLoader = msErrorClass.getClassLoader();
         _context = Holder.getContext(msContextPath, _msErrorLoader);
@@ -140,6 +296,77 @@ public class AzureEndpointImpl implements AzureEndpoint
         return Holder.getContext(contextPath, _msErrorLoader);
     }
 
+    @Override
+    public void registerTypeAdapter(Type type, Object typeAdapter)
+    {
+        synchronized (_typeAdapters) {
+            _typeAdapters.put(type, typeAdapter);
+            _gson = null;
+            _prettyGson = null;
+        }
+    }
+
+    @Override
+    public void setFormattedOutput(boolean formattedOutput)
+    {
+        _formattedOutput = formattedOutput;
+    }
+
+    @Override
+    public boolean isFormattedOutput()
+    {
+        return _formattedOutput;
+    }
+
+    private Gson getGson(boolean pretty)
+    {
+        Gson gson = pretty ? _prettyGson : _gson;
+        if (gson == null) {
+            synchronized (_typeAdapters) {
+                gson = pretty ? _prettyGson : _gson;
+                if (gson == null) {
+                    gson = _typeAdapters.isEmpty() ? AzureEndpointImpl.getSharedGson(FIELD_NAMING_POLICY, pretty)
+                            : AzureEndpointImpl.createGson(FIELD_NAMING_POLICY, pretty, _typeAdapters);
+                    if (pretty) {
+                        _prettyGson = gson;
+                    }
+                    else {
+                        _gson = gson;
+                    }
+                }
+            }
+        }
+        return gson;
+    }
+
+    private static Gson getSharedGson(FieldNamingPolicy policy, boolean pretty)
+    {
+        String key = policy.name() + (pretty ? ":pretty" : ":compact");
+        Gson gson = _sharedGson.get(key);
+        if (gson == null) {
+            gson = AzureEndpointImpl.createGson(policy, pretty, null);
+            Gson existing = _sharedGson.putIfAbsent(key, gson);
+            if (existing != null) {
+                gson = existing;
+            }
+        }
+        return gson;
+    }
+
+    private static Gson createGson(FieldNamingPolicy policy, boolean pretty, Map<Type, Object> typeAdapters)
+    {
+        GsonBuilder builder = new GsonBuilder().setFieldNamingPolicy(policy).disableHtmlEscaping();
+        if (pretty) {
+            builder.setPrettyPrinting();
+        }
+        if (typeAdapters != null) {
+            for (Map.Entry<Type, Object> entry : typeAdapters.entrySet()) {
+                builder.registerTypeAdapter(entry.getKey(), entry.getValue());
+            }
+        }
+        return builder.create();
+    }
+
     @Override
     public <T> T decode(IHttpResponse response, Class<T> responseClass)
     {
@@ -162,24 +389,94 @@ public class AzureEndpointImpl implements AzureEndpoint
             // We already have the return object
             return responseClass.cast(response);
         }
+        int statusCode = (response.getStatus() != null) ? response.getStatusCode() : 0;
+        if (statusCode != 0) {
+            StringBuilder err = new StringBuilder();
+            if (statusCode < 200 || statusCode >= 300) {
+                // Error responses are only decoded as the error class; a body that is not an error object is not an Azure error
+                String content = response.getContent();
+                Object error = decodeContent(_mediaType, content, _msErrorClass, errorContext, err);
+                if (_msErrorClass.isInstance(error)) {
+                    throw new AzureErrorException(error, content, statusCode);
+                }
+                throw new AzureAdapterException(statusCode, err.toString());
+            }
+            Object object = decodeContent(_mediaType, response, responseClass, responseContext, err);
+            if (responseClass.isInstance(object)) {
+                return responseClass.cast(object);
+            }
+            throw new AzureAdapterException(err.toString());
+        }
+
+        // Unknown status - try the response class, then the error class. The body may be read more than once, so buffer it
+        response = BufferedHttpResponse.of(response);
         StringBuilder err = new StringBuilder();
-        String content = response.getContent();
-        Object object = decodeContent(_mediaType, content, responseClass, responseContext, err);
+        Object object = decodeContent(_mediaType, response, responseClass, responseContext, err);
 
         if (responseClass.isInstance(object)) {
             return responseClass.cast(object);
         }
         else {
             if (responseContext != errorContext) {
-                object = decodeContent(_mediaType, content, _msErrorClass, errorContext, err);
+                object = decodeContent(_mediaType, response, _msErrorClass, errorContext, err);
             }
             if (_msErrorClass.isInstance(object)) {
-                throw new AzureErrorException(object, content);
+                throw new AzureErrorException(object, response.getContent());
             }
         }
         throw new AzureAdapterException(err.toString());
     }
 
+    /**
+     * Decodes the response body directly from its stream, so the body is not held as a string while the object graph is built.
+     * Falls back to the string content if the response has no stream. The body is only buffered when it is traced.
+     */
+    private <T> Object decodeContent(MediaType mediaType, IHttpResponse response,
+                                     Class<T> clazz, JAXBContext context,
+                                     StringBuilder err)
+    {
+        if (_logger.isTraceEnabled()) {
+            response = BufferedHttpResponse.of(response);
+        }
+        InputStream stream = response.getContentAsStream();
+        if (stream == null) {
+            return decodeContent(mediaType, response.getContent(), clazz, context, err);
+        }
+        Object object = null;
+        try {
+            try {
+                if (MediaType.XML == mediaType) {
+                    XMLStreamReader reader = AzureEndpointImpl._xmlInputFactory.createXMLStreamReader(stream);
+                    JaxbPool pool = Holder.getPool(context);
+                    Unmarshaller unmarshaller = pool.acquireUnmarshaller();
+                    try {
+                        object = JAXBIntrospector.getValue(unmarshaller.unmarshal(reader));
+                    }
+                    finally {
+                        pool.releaseUnmarshaller(unmarshaller);
+                        reader.close();
+                    }
+                }
+                else { // JSON decoding
+                    JsonReader reader = new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+                    object = getGson(false).fromJson(reader, clazz);
+                    if (object == null)
+                        err.append("Unable to decode object");
+                }
+            }
+            finally {
+                stream.close();
+            }
+            if (_logger.isTraceEnabled()) {
+                _logger.trace("decoded: " + response.getContent());
+            }
+        }
+        catch (Exception ex) {
+            err.append("Unable to decode object: " + ex);
+        }
+        return object;
+    }
+
     private <T> Object decodeContent(MediaType mediaType, String content,
                                      Class<T> clazz, JAXBContext context,
                                      StringBuilder err)
@@ -187,13 +484,17 @@ public class AzureEndpointImpl implements AzureEndpoint
         Object object = null;
         try {
             if (MediaType.XML == mediaType) {
-                object = HttpUtil.decodeObject(content, null, context);
+                JaxbPool pool = Holder.getPool(context);
+                Unmarshaller unmarshaller = pool.acquireUnmarshaller();
+                try {
+                    object = JAXBIntrospector.getValue(unmarshaller.unmarshal(new StringReader(content)));
+                }
+                finally {
+                    pool.releaseUnmarshaller(unmarshaller);
+                }
             }
             else { // JSON decoding
-                Gson gson = new GsonBuilder()
-                    .setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE)
-                    .create();
-                object = gson.fromJson(content, clazz);
+                object = getGson(false).fromJson(content, clazz);
                 if (object == null)
                     err.append("Unable to decode object");
             }
@@ -210,42 +511,100 @@ public class AzureEndpointImpl implements AzureEndpoint
     @Override
     public String encode(Object obj)
     {
-        return doEncode(obj, _context);
+        return new String(encodeToBytes(obj), StandardCharsets.UTF_8);
     }
 
     @Override
     public String encode(String objClassPath, Object obj)
+    {
+        return new String(encodeToBytes(objClassPath, obj), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encodeToBytes(Object obj)
+    {
+        return doEncode(obj, _context);
+    }
+
+    @Override
+    public byte[] encodeToBytes(String objClassPath, Object obj)
+    {
+        return doEncode(obj, getObjectContext(objClassPath));
+    }
+
+    @Override
+    public void encodeTo(Object obj, OutputStream os)
+    {
+        doEncode(obj, _context, os);
+    }
+
+    @Override
+    public void encodeTo(String objClassPath, Object obj, OutputStream os)
+    {
+        doEncode(obj, getObjectContext(objClassPath), os);
+    }
+
+    private JAXBContext getObjectContext(String objClassPath)
     {
         JAXBContext objContext = getContext(objClassPath);
         if (objContext == null) {
             throw new AzureAdapterException("No context for object path: " + objClassPath);
         }
-        return doEncode(obj, objContext);
+        return objContext;
     }
 
-    private String doEncode(Object obj, JAXBContext objContext)
+    private byte[] doEncode(Object obj, JAXBContext objContext)
     {
         ByteArrayOutputStream os = new ByteArrayOutputStream();
-        try {
-            Marshaller marshaller = objContext.createMarshaller();
+        boolean formattedOutput = _formattedOutput;
+        writeObject(obj, objContext, os, formattedOutput);
+        byte[] encoded = os.toByteArray();
+        if (_logger.isTraceEnabled()) {
+            traceEncoded(obj, objContext, formattedOutput ? encoded : null);
+        }
+        return encoded;
+    }
 
+    private void doEncode(Object obj, JAXBContext objContext, OutputStream os)
+    {
+        writeObject(obj, objContext, os, _formattedOutput);
+        if (_logger.isTraceEnabled()) {
+            traceEncoded(obj, objContext, null);
+        }
+    }
+
+    /** Logs a pretty printed encoding, rendering it separately from the wire encoding if needed */
+    private void traceEncoded(Object obj, JAXBContext objContext, byte[] formatted)
+    {
+        if (formatted == null) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            writeObject(obj, objContext, os, true);
+            formatted = os.toByteArray();
+        }
+        _logger.trace("encoded: " + new String(formatted, StandardCharsets.UTF_8));
+    }
+
+    /** Writes an object to a stream as UTF-8 */
+    private void writeObject(Object obj, JAXBContext objContext, OutputStream os, boolean formattedOutput)
+    {
+        try {
             if (MediaType.XML == _mediaType) {
-                marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-                marshaller.marshal(obj, os);
+                JaxbPool pool = Holder.getPool(objContext);
+                Marshaller marshaller = pool.acquireMarshaller();
+                try {
+                    marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+                    marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formattedOutput);
+                    marshaller.marshal(obj, os);
+                }
+                finally {
+                    pool.releaseMarshaller(marshaller);
+                }
             }
             else { // JSON encoding
-                Gson gson = new GsonBuilder()
-                    .setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE)
-                    .setPrettyPrinting()
-                    .disableHtmlEscaping()
-                    .create();
-                String json = gson.toJson(obj);
-                os.write(json.getBytes(), 0, json.length());
-            }
-            if (_logger.isTraceEnabled()) {
-                _logger.trace("encoded: " + os.toString());
+                Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+                getGson(formattedOutput).toJson(obj, writer);
+                writer.flush();
             }
-            return os.toString();
         }
         catch (Exception ex) {
             AzureEndpointImpl._logger.error("encode Exception: " + ex);
@@ -0,0 +1,322 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.servicemesh.agility.adapters.core.azure.AzureConnection;
+import com.servicemesh.agility.adapters.core.azure.AzurePageIterator;
+import com.servicemesh.agility.adapters.core.azure.AzurePageReader;
+import com.servicemesh.agility.adapters.core.azure.AzureRequestOptions;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+import com.servicemesh.core.async.Callback;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.io.http.IHttpResponse;
+import com.servicemesh.io.http.QueryParams;
+
+/**
+ * Follows the pages of a paged list operation. At most one page is being retrieved at a time; a page is decoded on the thread
+ * that completes its response and the next page is requested as soon as fewer than the prefetch limit of pages are waiting to
+ * be consumed.
+ */
+public class AzurePageIteratorImpl<P, T> implements AzurePageIterator<T>
+{
+    private final AzureConnection _connection;
+    private final Class<P> _pageClass;
+    private final AzurePageReader<P, T> _reader;
+    private final AzureRequestOptions _options;
+    private final int _prefetch;
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _changed = _lock.newCondition();
+    private final ArrayDeque<List<T>> _pages = new ArrayDeque<List<T>>();
+    private Iterator<T> _current;
+    private QueryParams _params;
+    private String _next;
+    private boolean _fetching;
+    private Promise<IHttpResponse> _inFlight;
+    private Throwable _failure;
+    private boolean _closed;
+    private int _pageCount;
+
+    /**
+     * @param connection
+     *            The connection with which pages are retrieved
+     * @param requestURI
+     *            The URI of the first page
+     * @param params
+     *            Query parameters of the first page. Optional - may be null or empty.
+     * @param pageClass
+     *            The class of a page
+     * @param reader
+     *            Reads the items and the next page URI from a page
+     * @param prefetch
+     *            The maximum number of pages retrieved or being retrieved but not yet consumed
+     * @param options
+     *            Request options applied to every page. Optional - may be null.
+     */
+    public AzurePageIteratorImpl(AzureConnection connection, String requestURI, QueryParams params, Class<P> pageClass,
+            AzurePageReader<P, T> reader, int prefetch, AzureRequestOptions options)
+    {
+        if (connection == null) {
+            throw new IllegalArgumentException("The connection parameter is required but missing.");
+        }
+        if (requestURI == null) {
+            throw new IllegalArgumentException("The requestURI parameter is required but missing.");
+        }
+        if (pageClass == null) {
+            throw new IllegalArgumentException("The pageClass parameter is required but missing.");
+        }
+        if (reader == null) {
+            throw new IllegalArgumentException("The reader parameter is required but missing.");
+        }
+        _connection = connection;
+        _next = requestURI;
+        _params = params;
+        _pageClass = pageClass;
+        _reader = reader;
+        _prefetch = Math.max(1, prefetch);
+        _options = options;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while (true) {
+            String fetch;
+            _lock.lock();
+            try {
+                if (_current != null && _current.hasNext()) {
+                    return true;
+                }
+                List<T> page = _pages.poll();
+                if (page != null) {
+                    _current = page.iterator();
+                    fetch = fetchLocked();
+                }
+                else {
+                    if (_failure != null) {
+                        throw failure();
+                    }
+                    if (_closed || (!_fetching && _next == null)) {
+                        return false;
+                    }
+                    fetch = fetchLocked();
+                    if (fetch == null) {
+                        try {
+                            _changed.await();
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new AzureAdapterException("Interrupted waiting for page " + (_pageCount + 1), e);
+                        }
+                    }
+                }
+            }
+            finally {
+                _lock.unlock();
+            }
+            if (fetch != null) {
+                request(fetch);
+            }
+        }
+    }
+
+    @Override
+    public T next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        _lock.lock();
+        try {
+            return _current.next();
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getPageCount()
+    {
+        _lock.lock();
+        try {
+            return _pageCount;
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        Promise<IHttpResponse> inFlight;
+        _lock.lock();
+        try {
+            _closed = true;
+            _pages.clear();
+            _current = null;
+            _next = null;
+            inFlight = _inFlight;
+            _inFlight = null;
+            _changed.signalAll();
+        }
+        finally {
+            _lock.unlock();
+        }
+        if (inFlight != null) {
+            inFlight.cancel();
+        }
+    }
+
+    /**
+     * Returns the URI of the next page if it should be requested now, marking it as being retrieved. The caller must request it
+     * after releasing the lock.
+     */
+    private String fetchLocked()
+    {
+        if (_closed || _fetching || _next == null || _failure != null || _pages.size() >= _prefetch) {
+            return null;
+        }
+        String uri = _next;
+        _next = null;
+        _fetching = true;
+        return uri;
+    }
+
+    private void request(final String uri)
+    {
+        QueryParams params;
+        _lock.lock();
+        try {
+            params = _params;
+            _params = null;
+        }
+        finally {
+            _lock.unlock();
+        }
+
+        final Promise<IHttpResponse> promise;
+        try {
+            promise = _connection.get(uri, params, IHttpResponse.class, _options);
+        }
+        catch (Throwable t) {
+            onFailure(t);
+            return;
+        }
+        boolean cancel;
+        _lock.lock();
+        try {
+            cancel = _closed;
+            if (!cancel) {
+                _inFlight = promise;
+            }
+        }
+        finally {
+            _lock.unlock();
+        }
+        if (cancel) {
+            promise.cancel();
+            return;
+        }
+        promise.onComplete(new Callback<IHttpResponse>() {
+            @Override
+            public void invoke(IHttpResponse response)
+            {
+                onPage(uri, response);
+            }
+        });
+        promise.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                onFailure(t);
+            }
+        });
+        promise.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                onFailure(new AzureAdapterException("Retrieval of " + uri + " was cancelled"));
+            }
+        });
+    }
+
+    private void onPage(String uri, IHttpResponse response)
+    {
+        List<T> items;
+        String next;
+        try {
+            P page = IHttpResponse.class.equals(_pageClass) ? _pageClass.cast(response)
+                    : _connection.getEndpoint().decode(response, _pageClass);
+            items = _reader.getItems(page);
+            next = _reader.getNextRequestURI(uri, page, response);
+        }
+        catch (Throwable t) {
+            onFailure(t);
+            return;
+        }
+
+        String fetch;
+        _lock.lock();
+        try {
+            _fetching = false;
+            _inFlight = null;
+            if (_closed) {
+                return;
+            }
+            _pageCount++;
+            _pages.add((items != null) ? items : Collections.<T> emptyList());
+            _next = next;
+            fetch = fetchLocked();
+            _changed.signalAll();
+        }
+        finally {
+            _lock.unlock();
+        }
+        if (fetch != null) {
+            request(fetch);
+        }
+    }
+
+    private void onFailure(Throwable t)
+    {
+        _lock.lock();
+        try {
+            _fetching = false;
+            _inFlight = null;
+            if (!_closed && _failure == null) {
+                _failure = t;
+            }
+            _changed.signalAll();
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+    private AzureAdapterException failure()
+    {
+        if (_failure instanceof AzureAdapterException) {
+            return (AzureAdapterException) _failure;
+        }
+        return new AzureAdapterException("Unable to retrieve page " + (_pageCount + 1) + ": " + _failure.getMessage(), _failure);
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.api.Property;
+
+/**
+ * Stops sending requests to an endpoint address and subscription that is failing or responding slowly. While closed the
+ * breaker records the outcome of the most recent calls and opens once the failure rate or slow call rate reaches its threshold.
+ * While open every call is rejected. After the open duration the breaker is half-open and admits a limited number of probe
+ * requests; it closes if they all succeed and opens again if any of them fails.
+ */
+public class CircuitBreaker
+{
+    private static final Logger _logger = Logger.getLogger(CircuitBreaker.class);
+
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final ConcurrentHashMap<String, CircuitBreaker> _breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private final String _name;
+    private final int _minCalls;
+    private final int _failureRate;
+    private final long _slowCall;
+    private final int _slowCallRate;
+    private final long _openDuration;
+    private final int _probes;
+
+    /** Ring buffers of the outcomes of the most recent calls */
+    private final boolean[] _failed;
+    private final boolean[] _slow;
+    private int _next;
+    private int _calls;
+    private int _failures;
+    private int _slowCalls;
+
+    private State _state = State.CLOSED;
+    private long _openedAt;
+    private int _probesAdmitted;
+    private int _probesSucceeded;
+
+    /**
+     * Returns the breaker shared by all connections to a subscription and endpoint address. The settings of the first connection
+     * determine its configuration.
+     *
+     * @param subscription
+     *            The Microsoft Azure subscription. Optional - may be null.
+     * @param address
+     *            The endpoint address. Optional - may be null.
+     * @param settings
+     *            Configuration data - if empty or null default values are used.
+     */
+    public static CircuitBreaker getInstance(String subscription, String address, List<Property> settings)
+    {
+        String key = subscription + "|" + address;
+        CircuitBreaker breaker = CircuitBreaker._breakers.get(key);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(key, settings);
+            breaker = CircuitBreaker._breakers.putIfAbsent(key, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    public CircuitBreaker(String name, List<Property> settings)
+    {
+        _name = name;
+        int windowSize = Math.max(0, Config.getCircuitWindowSize(settings));
+        _failed = new boolean[windowSize];
+        _slow = new boolean[windowSize];
+        _minCalls = Math.max(1, Math.min(Config.getCircuitMinCalls(settings), windowSize));
+        _failureRate = Config.getCircuitFailureRate(settings);
+        _slowCall = Config.getCircuitSlowCall(settings);
+        _slowCallRate = Config.getCircuitSlowCallRate(settings);
+        _openDuration = Math.max(0, Config.getCircuitOpenDuration(settings));
+        _probes = Math.max(1, Config.getCircuitHalfOpenProbes(settings));
+    }
+
+    /** Returns false if the breaker has been disabled by a window size of zero */
+    public boolean isEnabled()
+    {
+        return _failed.length > 0;
+    }
+
+    /**
+     * Returns true if a call may be sent. Every permitted call must be followed by exactly one call to onSuccess(), onFailure()
+     * or release().
+     */
+    public synchronized boolean tryAcquire()
+    {
+        if (!isEnabled()) {
+            return true;
+        }
+        if (_state == State.OPEN) {
+            if (System.currentTimeMillis() - _openedAt < _openDuration) {
+                return false;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (_state == State.HALF_OPEN) {
+            if (_probesAdmitted >= _probes) {
+                return false;
+            }
+            _probesAdmitted++;
+        }
+        return true;
+    }
+
+    /**
+     * Records a call that received a response
+     *
+     * @param latencyMillis
+     *            The time from sending the call until its response was received
+     */
+    public synchronized void onSuccess(long latencyMillis)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+        boolean slow = _slowCall > 0 && latencyMillis >= _slowCall;
+        if (_state == State.HALF_OPEN) {
+            if (slow) {
+                transition(State.OPEN);
+            }
+            else if (++_probesSucceeded >= _probes) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        record(false, slow);
+    }
+
+    /**
+     * Records a call that failed, e.g. with a server error or an I/O error or timeout
+     *
+     * @param latencyMillis
+     *            The time from sending the call until it failed
+     */
+    public synchronized void onFailure(long latencyMillis)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+        if (_state == State.HALF_OPEN) {
+            transition(State.OPEN);
+            return;
+        }
+        record(true, _slowCall > 0 && latencyMillis >= _slowCall);
+    }
+
+    /** Releases a permitted call that was not sent or whose outcome is unknown, e.g. because it was cancelled */
+    public synchronized void release()
+    {
+        if (_state == State.HALF_OPEN && _probesAdmitted > 0) {
+            _probesAdmitted--;
+        }
+    }
+
+    private void record(boolean failed, boolean slow)
+    {
+        if (_state != State.CLOSED) {
+            // A late outcome of a call sent before the breaker opened
+            return;
+        }
+        if (_calls == _failed.length) {
+            _failures -= _failed[_next] ? 1 : 0;
+            _slowCalls -= _slow[_next] ? 1 : 0;
+        }
+        else {
+            _calls++;
+        }
+        _failed[_next] = failed;
+        _slow[_next] = slow;
+        _failures += failed ? 1 : 0;
+        _slowCalls += slow ? 1 : 0;
+        _next = (_next + 1) % _failed.length;
+
+        if (_calls >= _minCalls
+                && ((_failureRate > 0 && _failures * 100 >= _failureRate * _calls)
+                        || (_slowCallRate > 0 && _slowCalls * 100 >= _slowCallRate * _calls))) {
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State state)
+    {
+        if (state == State.OPEN) {
+            CircuitBreaker._logger.warn("Circuit breaker for " + _name + " opened: failures=" + _failures + ", slow="
+                    + _slowCalls + ", calls=" + _calls + ", state=" + _state);
+            _openedAt = System.currentTimeMillis();
+        }
+        else if (CircuitBreaker._logger.isInfoEnabled()) {
+            CircuitBreaker._logger.info("Circuit breaker for " + _name + " is " + state);
+        }
+        _state = state;
+        _probesAdmitted = 0;
+        _probesSucceeded = 0;
+        if (state == State.CLOSED) {
+            _next = 0;
+            _calls = 0;
+            _failures = 0;
+            _slowCalls = 0;
+        }
+    }
+
+    /** Returns the current state, moving an open breaker whose open duration has elapsed to half-open */
+    public synchronized State getState()
+    {
+        if (_state == State.OPEN && System.currentTimeMillis() - _openedAt >= _openDuration) {
+            transition(State.HALF_OPEN);
+        }
+        return _state;
+    }
+
+    /** Returns the number of milliseconds until an open breaker admits probe requests, or zero if it is not open */
+    public synchronized long getRemainingOpen()
+    {
+        if (_state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, _openDuration - (System.currentTimeMillis() - _openedAt));
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+import com.servicemesh.agility.api.Property;
+
+/**
+ * Adaptive (AIMD) admission control for the requests of one subscription and endpoint address. At most the current limit of
+ * requests are in flight and the rest wait in a bounded queue. The limit grows by about one per round trip while calls succeed
+ * and is halved when the service throttles. Latency is judged per round-trip window of about one limit's worth of calls: the
+ * limit shrinks slightly, at most once per window, when a window's average latency is well above the long-term average. Since
+ * a window mixes fast and slow calls the way the long-term average does, slow operations alone do not shrink the limit.
+ */
+public class ConcurrencyLimiter
+{
+    private static final Logger _logger = Logger.getLogger(ConcurrencyLimiter.class);
+
+    /** A window average latency above this multiple of the long-term average is treated as congestion */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double THROTTLE_BACKOFF = 0.5;
+
+    /** The minimum number of calls in a latency window */
+    private static final int MIN_WINDOW = 10;
+
+    /** The weight of the latest window in the long-term average latency */
+    private static final double LONG_TERM_WEIGHT = 0.1;
+
+    private static final ConcurrentHashMap<String, ConcurrencyLimiter> _limiters =
+            new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    private static final ThreadLocal<ArrayDeque<Runnable>> _pending = new ThreadLocal<ArrayDeque<Runnable>>();
+
+    private final int _minLimit;
+    private final int _maxLimit;
+    private final int _maxQueue;
+    private final ArrayDeque<Runnable> _queue = new ArrayDeque<Runnable>();
+    private double _limit;
+    private int _inFlight;
+    private double _longTermLatency;
+    private double _windowLatency;
+    private int _windowCalls;
+
+    /**
+     * Returns the limiter shared by all connections to a subscription and endpoint address. The settings of the first connection
+     * determine its configuration.
+     *
+     * @param subscription
+     *            The Microsoft Azure subscription. Optional - may be null.
+     * @param address
+     *            The endpoint address. Optional - may be null.
+     * @param settings
+     *            Configuration data - if empty or null default values are used.
+     */
+    public static ConcurrencyLimiter getInstance(String subscription, String address, List<Property> settings)
+    {
+        String key = subscription + "|" + address;
+        ConcurrencyLimiter limiter = ConcurrencyLimiter._limiters.get(key);
+        if (limiter == null) {
+            ConcurrencyLimiter created = new ConcurrencyLimiter(settings);
+            limiter = ConcurrencyLimiter._limiters.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    public ConcurrencyLimiter(List<Property> settings)
+    {
+        _maxLimit = Config.getConcurrencyMaxLimit(settings);
+        _minLimit = Math.max(1, Math.min(Config.getConcurrencyMinLimit(settings), Math.max(1, _maxLimit)));
+        _maxQueue = Config.getConcurrencyMaxQueue(settings);
+        _limit = Math.max(_minLimit, Math.min(Config.getConcurrencyInitialLimit(settings), Math.max(_minLimit, _maxLimit)));
+    }
+
+    /** Returns false if the limiter has been disabled by a maximum limit of zero */
+    public boolean isEnabled()
+    {
+        return _maxLimit > 0;
+    }
+
+    /**
+     * Runs a request task as soon as it is admitted. Every admitted task must be followed by exactly one call to onComplete() or
+     * release().
+     *
+     * @throws AzureAdapterException
+     *             if the request queue is full
+     */
+    public void execute(Runnable task)
+    {
+        if (!isEnabled()) {
+            task.run();
+            return;
+        }
+        synchronized (this) {
+            if (_inFlight >= (int) _limit || !_queue.isEmpty()) {
+                if (_queue.size() >= _maxQueue) {
+                    throw new AzureAdapterException("Request queue is full: limit=" + (int) _limit + ", queued=" + _queue.size());
+                }
+                _queue.add(task);
+                return;
+            }
+            _inFlight++;
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>(1);
+        tasks.add(task);
+        runAll(tasks);
+    }
+
+    /**
+     * Records the outcome of an admitted request and admits waiting requests
+     *
+     * @param latencyMillis
+     *            The time from admission until the response was received
+     * @param throttled
+     *            True if the service throttled or rejected the request as busy
+     */
+    public void onComplete(long latencyMillis, boolean throttled)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+        List<Runnable> tasks;
+        synchronized (this) {
+            _inFlight = Math.max(0, _inFlight - 1);
+            if (throttled) {
+                _limit = Math.max(_minLimit, _limit * ConcurrencyLimiter.THROTTLE_BACKOFF);
+            }
+            else {
+                _limit = Math.min(_maxLimit, _limit + 1.0 / _limit);
+            }
+            recordLatency(latencyMillis);
+            tasks = admit();
+        }
+        runAll(tasks);
+    }
+
+    /** Releases an admitted request that was not sent, e.g. because it was cancelled while queued */
+    public void release()
+    {
+        if (!isEnabled()) {
+            return;
+        }
+        List<Runnable> tasks;
+        synchronized (this) {
+            _inFlight = Math.max(0, _inFlight - 1);
+            tasks = admit();
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Adds a latency to the current window. When the window is complete its average is compared to the long-term average,
+     * reducing the limit once if latency has inflated, and then folded into the long-term average so that a permanently slower
+     * service is accepted.
+     */
+    private void recordLatency(long latencyMillis)
+    {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        _windowLatency += latencyMillis;
+        if (++_windowCalls < Math.max(ConcurrencyLimiter.MIN_WINDOW, (int) _limit)) {
+            return;
+        }
+        double average = _windowLatency / _windowCalls;
+        _windowLatency = 0;
+        _windowCalls = 0;
+        if (_longTermLatency == 0) {
+            _longTermLatency = average;
+            return;
+        }
+        if (average > _longTermLatency * ConcurrencyLimiter.LATENCY_TOLERANCE) {
+            _limit = Math.max(_minLimit, _limit * ConcurrencyLimiter.LATENCY_BACKOFF);
+        }
+        _longTermLatency += (average - _longTermLatency) * ConcurrencyLimiter.LONG_TERM_WEIGHT;
+    }
+
+    private List<Runnable> admit()
+    {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        while (_inFlight < (int) _limit && !_queue.isEmpty()) {
+            _inFlight++;
+            tasks.add(_queue.poll());
+        }
+        return tasks;
+    }
+
+    /**
+     * Runs admitted tasks outside the lock. Tasks admitted while another task on this thread is running are queued and run by
+     * the outermost call, so that synchronously completing requests do not recurse.
+     */
+    private void runAll(List<Runnable> tasks)
+    {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        ArrayDeque<Runnable> pending = ConcurrencyLimiter._pending.get();
+        if (pending != null) {
+            pending.addAll(tasks);
+            return;
+        }
+        pending = new ArrayDeque<Runnable>(tasks);
+        ConcurrencyLimiter._pending.set(pending);
+        try {
+            Runnable task;
+            while ((task = pending.poll()) != null) {
+                try {
+                    task.run();
+                }
+                catch (Exception ex) {
+                    ConcurrencyLimiter._logger.error("Admitted request failed: " + ex, ex);
+                }
+            }
+        }
+        finally {
+            ConcurrencyLimiter._pending.remove();
+        }
+    }
+
+    /** Returns the current concurrency limit */
+    public synchronized int getLimit()
+    {
+        return (int) _limit;
+    }
+
+    /** Returns the number of admitted requests that have not completed */
+    public synchronized int getInFlight()
+    {
+        return _inFlight;
+    }
+
+    /** Returns the number of requests waiting to be admitted */
+    public synchronized int getQueueDepth()
+    {
+        return _queue.size();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.api.Property;
+
+/**
+ * Decides when a GET that has not completed is duplicated. The hedge delay is a percentile of the most recently observed GET
+ * latencies for a subscription and endpoint address, and the number of hedged requests per second is capped so that hedging
+ * cannot multiply the load on a service that is already slow.
+ */
+public class HedgePolicy
+{
+    /** The number of most recent latencies from which the percentile is computed */
+    private static final int SAMPLE_SIZE = 256;
+
+    private static final ConcurrentHashMap<String, HedgePolicy> _policies = new ConcurrentHashMap<String, HedgePolicy>();
+
+    private final int _percentile;
+    private final long _minDelay;
+    private final int _minSamples;
+    private final int _maxPerSecond;
+    private final long[] _latencies = new long[HedgePolicy.SAMPLE_SIZE];
+    private int _next;
+    private int _samples;
+    private double _tokens;
+    private long _lastRefill;
+    private final AtomicLong _hedges = new AtomicLong();
+    private final AtomicLong _hedgeWins = new AtomicLong();
+
+    /**
+     * Returns the policy shared by all connections to a subscription and endpoint address. The settings of the first connection
+     * determine its configuration.
+     *
+     * @param subscription
+     *            The Microsoft Azure subscription. Optional - may be null.
+     * @param address
+     *            The endpoint address. Optional - may be null.
+     * @param settings
+     *            Configuration data - if empty or null default values are used.
+     */
+    public static HedgePolicy getInstance(String subscription, String address, List<Property> settings)
+    {
+        String key = subscription + "|" + address;
+        HedgePolicy policy = HedgePolicy._policies.get(key);
+        if (policy == null) {
+            HedgePolicy created = new HedgePolicy(settings);
+            policy = HedgePolicy._policies.putIfAbsent(key, created);
+            if (policy == null) {
+                policy = created;
+            }
+        }
+        return policy;
+    }
+
+    public HedgePolicy(List<Property> settings)
+    {
+        _percentile = Math.max(1, Math.min(100, Config.getHedgePercentile(settings)));
+        _minDelay = Math.max(0, Config.getHedgeMinDelay(settings));
+        _minSamples = Math.max(1, Math.min(Config.getHedgeMinSamples(settings), HedgePolicy.SAMPLE_SIZE));
+        _maxPerSecond = Math.max(0, Config.getHedgeMaxPerSecond(settings));
+        _tokens = _maxPerSecond;
+        _lastRefill = System.currentTimeMillis();
+    }
+
+    /** Records the latency of a completed GET */
+    public synchronized void recordLatency(long latencyMillis)
+    {
+        _latencies[_next] = Math.max(0, latencyMillis);
+        _next = (_next + 1) % _latencies.length;
+        if (_samples < _latencies.length) {
+            _samples++;
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds after which an outstanding GET is hedged, or -1 if too few latencies have been observed
+     */
+    public long getDelay()
+    {
+        long[] sorted;
+        synchronized (this) {
+            if (_samples < _minSamples) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(_latencies, _samples);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(sorted.length * _percentile / 100.0) - 1;
+        return Math.max(_minDelay, sorted[Math.max(0, Math.min(sorted.length - 1, index))]);
+    }
+
+    /** Takes a hedge from the per-second allowance, returning false if it is exhausted */
+    public synchronized boolean tryAcquire()
+    {
+        long now = System.currentTimeMillis();
+        _tokens = Math.min(_maxPerSecond, _tokens + ((now - _lastRefill) * _maxPerSecond) / 1000.0);
+        _lastRefill = now;
+        if (_tokens >= 1) {
+            _tokens -= 1;
+            _hedges.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Records that a hedged request completed before the request it duplicated */
+    public void onHedgeWin()
+    {
+        _hedgeWins.incrementAndGet();
+    }
+
+    /** Returns the number of hedged requests sent */
+    public long getHedges()
+    {
+        return _hedges.get();
+    }
+
+    /** Returns the number of hedged requests that completed first */
+    public long getHedgeWins()
+    {
+        return _hedgeWins.get();
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * A bounded pool of marshallers and unmarshallers for a single JAXB context. Marshallers and unmarshallers are not thread-safe,
+ * so each is used by one caller at a time and then returned to the pool; when the pool is empty a new one is created and when
+ * it is full a returned one is discarded.
+ */
+public class JaxbPool
+{
+    public static final int DEFAULT_MAX_IDLE = 16;
+
+    private final JAXBContext _context;
+    private final ArrayBlockingQueue<Marshaller> _marshallers;
+    private final ArrayBlockingQueue<Unmarshaller> _unmarshallers;
+
+    public JaxbPool(JAXBContext context)
+    {
+        this(context, JaxbPool.DEFAULT_MAX_IDLE);
+    }
+
+    public JaxbPool(JAXBContext context, int maxIdle)
+    {
+        _context = context;
+        _marshallers = new ArrayBlockingQueue<Marshaller>(Math.max(1, maxIdle));
+        _unmarshallers = new ArrayBlockingQueue<Unmarshaller>(Math.max(1, maxIdle));
+    }
+
+    public JAXBContext getContext()
+    {
+        return _context;
+    }
+
+    /** Takes a marshaller from the pool, creating one if none is idle */
+    public Marshaller acquireMarshaller() throws JAXBException
+    {
+        Marshaller marshaller = _marshallers.poll();
+        return (marshaller != null) ? marshaller : _context.createMarshaller();
+    }
+
+    /** Returns a marshaller obtained from acquireMarshaller() */
+    public void releaseMarshaller(Marshaller marshaller)
+    {
+        if (marshaller != null) {
+            _marshallers.offer(marshaller);
+        }
+    }
+
+    /** Takes an unmarshaller from the pool, creating one if none is idle */
+    public Unmarshaller acquireUnmarshaller() throws JAXBException
+    {
+        Unmarshaller unmarshaller = _unmarshallers.poll();
+        return (unmarshaller != null) ? unmarshaller : _context.createUnmarshaller();
+    }
+
+    /** Returns an unmarshaller obtained from acquireUnmarshaller() */
+    public void releaseUnmarshaller(Unmarshaller unmarshaller)
+    {
+        if (unmarshaller != null) {
+            _unmarshallers.offer(unmarshaller);
+        }
+    }
+
+    /** Returns the number of idle marshallers */
+    public int getIdleMarshallers()
+    {
+        return _marshallers.size();
+    }
+
+    /** Returns the number of idle unmarshallers */
+    public int getIdleUnmarshallers()
+    {
+        return _unmarshallers.size();
+    }
+}
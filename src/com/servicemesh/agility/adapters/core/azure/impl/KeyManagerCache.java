@@ -0,0 +1,188 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.api.Property;
+
+/**
+ * Caches the key managers built from PKCS#12 credentials. Entries are keyed by a digest of the certificate and password so the
+ * password is never retained, expire after a configurable time and are bounded in number. Concurrent requests for the same
+ * credential wait on a single load.
+ */
+public class KeyManagerCache
+{
+    private static final Logger _logger = Logger.getLogger(KeyManagerCache.class);
+
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    private static class Holder
+    {
+        private static final KeyManagerCache _instance = new KeyManagerCache();
+    }
+
+    public static KeyManagerCache getInstance()
+    {
+        return Holder._instance;
+    }
+
+    private static class Entry
+    {
+        private final FutureTask<KeyManager[]> _task;
+        private final long _created;
+
+        private Entry(FutureTask<KeyManager[]> task)
+        {
+            _task = task;
+            _created = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Returns the key managers for a PKCS#12 credential, loading the key store only if no unexpired entry is cached.
+     *
+     * @param settings
+     *            Configuration data for the cache size and time-to-live - may be empty or null.
+     * @param certificate
+     *            The PKCS#12 certificate
+     * @param certificatePassword
+     *            The certificate password
+     */
+    public KeyManager[] getKeyManagers(List<Property> settings, final byte[] certificate, String certificatePassword)
+            throws Exception
+    {
+        int maxEntries = Config.getKeyManagerCacheSize(settings);
+        long ttl = Config.getKeyManagerCacheTtl(settings);
+        if (maxEntries <= 0 || ttl <= 0) {
+            _misses.incrementAndGet();
+            return KeyManagerCache.loadKeyManagers(certificate, certificatePassword.toCharArray());
+        }
+
+        String key = AzureConnectionRegistry.fingerprint(certificate, certificatePassword);
+        final char[] secretPassword = certificatePassword.toCharArray();
+        Entry entry;
+
+        for (;;) {
+            entry = _entries.get(key);
+            if (entry != null && (System.currentTimeMillis() - entry._created) >= ttl) {
+                _entries.remove(key, entry);
+                entry = null;
+            }
+            if (entry != null) {
+                _hits.incrementAndGet();
+                break;
+            }
+            Entry created = new Entry(new FutureTask<KeyManager[]>(new Callable<KeyManager[]>() {
+                @Override
+                public KeyManager[] call() throws Exception
+                {
+                    return KeyManagerCache.loadKeyManagers(certificate, secretPassword);
+                }
+            }));
+            entry = _entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+                _misses.incrementAndGet();
+                trim(maxEntries);
+                entry._task.run();
+                break;
+            }
+        }
+
+        try {
+            return entry._task.get();
+        }
+        catch (ExecutionException ex) {
+            // Failures are not cached so a corrected credential can be retried
+            _entries.remove(key, entry);
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new Exception(cause);
+        }
+    }
+
+    /** Removes expired entries, then the oldest entries until there is room for one more */
+    private void trim(int maxEntries)
+    {
+        while (_entries.size() > maxEntries) {
+            Map.Entry<String, Entry> oldest = null;
+            Iterator<Map.Entry<String, Entry>> iter = _entries.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, Entry> candidate = iter.next();
+                if (oldest == null || candidate.getValue()._created < oldest.getValue()._created) {
+                    oldest = candidate;
+                }
+            }
+            if (oldest == null || !_entries.remove(oldest.getKey(), oldest.getValue())) {
+                break;
+            }
+        }
+    }
+
+    /** Removes all cached key managers */
+    public void clear()
+    {
+        _entries.clear();
+    }
+
+    /** Returns the number of requests satisfied from the cache */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /** Returns the number of requests that loaded a key store */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /** Returns the number of cached credentials */
+    public int size()
+    {
+        return _entries.size();
+    }
+
+    private static KeyManager[] loadKeyManagers(byte[] certificate, char[] secretPassword) throws Exception
+    {
+        InputStream cert = new ByteArrayInputStream(certificate);
+        KeyStore keyStore = KeyStore.getInstance("pkcs12");
+
+        try {
+            keyStore.load(cert, secretPassword);
+        }
+        catch (Exception ex) {
+            String err = "Certificate/Secret Password error: " + ex.getMessage();
+            KeyManagerCache._logger.error(err);
+            throw new Exception(err);
+        }
+
+        KeyManagerFactory fac = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        fac.init(keyStore, secretPassword);
+        return fac.getKeyManagers();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servicemesh.agility.adapters.core.azure.AzureResponseCache;
+
+/**
+ * A response cache bounded by number of entries that evicts the least recently used entry.
+ */
+public class LruResponseCache implements AzureResponseCache
+{
+    private final int _maxEntries;
+    private final LinkedHashMap<String, Entry> _entries;
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+
+    public LruResponseCache(int maxEntries)
+    {
+        _maxEntries = Math.max(1, maxEntries);
+        _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                if (size() > _maxEntries) {
+                    _evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public synchronized Entry get(String key)
+    {
+        Entry entry = _entries.get(key);
+        if (entry != null) {
+            _hits.incrementAndGet();
+        }
+        else {
+            _misses.incrementAndGet();
+        }
+        return entry;
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry)
+    {
+        _entries.put(key, entry);
+    }
+
+    @Override
+    public synchronized void remove(String key)
+    {
+        _entries.remove(key);
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        _entries.clear();
+    }
+
+    /** Returns the number of cached entries */
+    public synchronized int size()
+    {
+        return _entries.size();
+    }
+
+    /** Returns the number of lookups that found an entry */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /** Returns the number of lookups that found no entry */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /** Returns the number of entries evicted to stay within the size bound */
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.JAXBElement;
+
+/**
+ * Estimates the heap size of a decoded object graph, e.g. a JAXB or Gson model, assuming a 64-bit JVM with compressed
+ * references. JDK types other than strings, boxed primitives, collections, maps and JAXB elements are counted at a fixed size
+ * without being traversed. The name and declared type of a JAXB element are shared with its object factory, so only its value
+ * is traversed. Shared objects are counted once.
+ */
+public class ObjectSizer
+{
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int OPAQUE_OBJECT = 24;
+    private static final int COLLECTION_OVERHEAD = 32;
+    private static final int MAP_ENTRY = 32;
+
+    private static final ConcurrentHashMap<Class<?>, Field[]> _fields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    private ObjectSizer()
+    {
+    }
+
+    /** Returns the estimated number of bytes retained by an object graph */
+    public static long estimate(Object root)
+    {
+        if (root == null) {
+            return 0;
+        }
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        ArrayDeque<Object> pending = new ArrayDeque<Object>();
+        pending.push(root);
+        long size = 0;
+
+        while (!pending.isEmpty()) {
+            Object obj = pending.pop();
+            if (visited.put(obj, Boolean.TRUE) != null) {
+                continue;
+            }
+            Class<?> type = obj.getClass();
+            if (type.isArray()) {
+                size += ObjectSizer.sizeOfArray(obj, type.getComponentType(), pending);
+            }
+            else if (obj instanceof String) {
+                size += ObjectSizer.align(ObjectSizer.OBJECT_HEADER + 12) + ObjectSizer.align(ObjectSizer.ARRAY_HEADER
+                        + ((String) obj).length() * 2);
+            }
+            else if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character) {
+                size += ObjectSizer.OPAQUE_OBJECT - 8;
+            }
+            else if (obj instanceof Collection) {
+                Collection<?> collection = (Collection<?>) obj;
+                size += ObjectSizer.COLLECTION_OVERHEAD
+                        + ObjectSizer.align(ObjectSizer.ARRAY_HEADER + collection.size() * ObjectSizer.REFERENCE);
+                for (Object element : collection) {
+                    ObjectSizer.push(element, pending);
+                }
+            }
+            else if (obj instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) obj;
+                size += ObjectSizer.COLLECTION_OVERHEAD + map.size() * ObjectSizer.MAP_ENTRY;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    ObjectSizer.push(entry.getKey(), pending);
+                    ObjectSizer.push(entry.getValue(), pending);
+                }
+            }
+            else if (obj instanceof JAXBElement) {
+                size += ObjectSizer.align(ObjectSizer.OBJECT_HEADER + 4 * ObjectSizer.REFERENCE + 1);
+                ObjectSizer.push(((JAXBElement<?>) obj).getValue(), pending);
+            }
+            else if (type.isEnum() || obj instanceof Class) {
+                // Shared by all instances
+            }
+            else {
+                Field[] fields = ObjectSizer.getFields(type);
+                if (fields == null) {
+                    size += ObjectSizer.OPAQUE_OBJECT;
+                    continue;
+                }
+                long shallow = ObjectSizer.OBJECT_HEADER;
+                for (Field field : fields) {
+                    Class<?> fieldType = field.getType();
+                    shallow += ObjectSizer.sizeOfType(fieldType);
+                    if (!fieldType.isPrimitive()) {
+                        try {
+                            ObjectSizer.push(field.get(obj), pending);
+                        }
+                        catch (IllegalAccessException ex) {
+                            // Count the reference only
+                        }
+                    }
+                }
+                size += ObjectSizer.align(shallow);
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOfArray(Object array, Class<?> componentType, ArrayDeque<Object> pending)
+    {
+        int length = Array.getLength(array);
+        if (!componentType.isPrimitive()) {
+            for (int i = 0; i < length; i++) {
+                ObjectSizer.push(Array.get(array, i), pending);
+            }
+        }
+        return ObjectSizer.align(ObjectSizer.ARRAY_HEADER + (long) length * ObjectSizer.sizeOfType(componentType));
+    }
+
+    private static void push(Object obj, ArrayDeque<Object> pending)
+    {
+        if (obj != null) {
+            pending.push(obj);
+        }
+    }
+
+    /**
+     * Returns the accessible instance fields of a class and its superclasses, or null if the class is an opaque JDK type or its
+     * fields cannot be read
+     */
+    private static Field[] getFields(Class<?> type)
+    {
+        String name = type.getName();
+        if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")) {
+            return null;
+        }
+        Field[] fields = ObjectSizer._fields.get(type);
+        if (fields == null) {
+            List<Field> list = new ArrayList<Field>();
+            try {
+                for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers())) {
+                            field.setAccessible(true);
+                            list.add(field);
+                        }
+                    }
+                }
+            }
+            catch (RuntimeException ex) {
+                return null;
+            }
+            fields = list.toArray(new Field[list.size()]);
+            ObjectSizer._fields.putIfAbsent(type, fields);
+        }
+        return fields;
+    }
+
+    private static int sizeOfType(Class<?> type)
+    {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return ObjectSizer.REFERENCE;
+    }
+
+    private static long align(long size)
+    {
+        return (size + 7) & ~7L;
+    }
+}
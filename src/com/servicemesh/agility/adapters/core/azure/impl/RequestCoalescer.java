@@ -0,0 +1,97 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servicemesh.core.async.Callback;
+import com.servicemesh.core.async.CompletablePromise;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+import com.servicemesh.io.http.IHttpResponse;
+
+/**
+ * Coalesces identical concurrent requests so that they share a single in-flight response. A request key is removed as soon as
+ * its response arrives, so only requests that overlap in time are coalesced and a later request always goes to the wire.
+ */
+public class RequestCoalescer
+{
+    private final ConcurrentHashMap<String, Promise<IHttpResponse>> _inFlight =
+            new ConcurrentHashMap<String, Promise<IHttpResponse>>();
+    private final AtomicLong _coalesced = new AtomicLong();
+
+    /** Sends a request that is not already in flight */
+    public interface RequestSender
+    {
+        public Promise<IHttpResponse> send();
+    }
+
+    /**
+     * Returns the in-flight response for a key, sending the request if there is none
+     *
+     * @param key
+     *            Identifies requests with identical responses
+     * @param sender
+     *            Sends the request when it is not in flight
+     */
+    public Promise<IHttpResponse> execute(final String key, RequestSender sender)
+    {
+        final CompletablePromise<IHttpResponse> shared = PromiseFactory.create();
+        Promise<IHttpResponse> existing = _inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            _coalesced.incrementAndGet();
+            return existing;
+        }
+
+        Promise<IHttpResponse> sent;
+        try {
+            sent = sender.send();
+        }
+        catch (Exception ex) {
+            _inFlight.remove(key, shared);
+            shared.failure(ex);
+            return shared;
+        }
+        sent.onComplete(new Callback<IHttpResponse>() {
+            @Override
+            public void invoke(IHttpResponse response)
+            {
+                _inFlight.remove(key, shared);
+                shared.complete(response);
+            }
+        });
+        sent.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                _inFlight.remove(key, shared);
+                shared.failure(t);
+            }
+        });
+        sent.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                _inFlight.remove(key, shared);
+                shared.cancel();
+            }
+        });
+        return shared;
+    }
+
+    /** Returns the number of requests that joined an in-flight request instead of being sent */
+    public long getCoalesced()
+    {
+        return _coalesced.get();
+    }
+
+    /** Returns the number of distinct requests in flight */
+    public int size()
+    {
+        return _inFlight.size();
+    }
+}
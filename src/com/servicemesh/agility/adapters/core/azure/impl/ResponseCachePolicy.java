@@ -0,0 +1,74 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.api.Property;
+
+/**
+ * Determines how long a cached GET response is used before it is revalidated with a conditional request, by the first
+ * configured URI pattern that is found in the request URI.
+ */
+public class ResponseCachePolicy
+{
+    private static final Logger _logger = Logger.getLogger(ResponseCachePolicy.class);
+
+    private final long _defaultTtl;
+    private final List<Pattern> _patterns = new ArrayList<Pattern>();
+    private final List<Long> _ttls = new ArrayList<Long>();
+
+    /**
+     * @param settings
+     *            Configuration data - if empty or null default values are used.
+     */
+    public ResponseCachePolicy(List<Property> settings)
+    {
+        _defaultTtl = Math.max(0, Config.getResponseCacheTtl(settings));
+        String ttls = Config.getResponseCacheTtls(settings);
+        if (ttls == null) {
+            return;
+        }
+        for (String item : ttls.split(";")) {
+            item = item.trim();
+            int separator = item.lastIndexOf('=');
+            if (separator <= 0) {
+                if (!item.isEmpty()) {
+                    ResponseCachePolicy._logger.warn("Ignoring invalid response cache TTL: " + item);
+                }
+                continue;
+            }
+            try {
+                Pattern pattern = Pattern.compile(item.substring(0, separator).trim());
+                long ttl = Long.parseLong(item.substring(separator + 1).trim());
+                _patterns.add(pattern);
+                _ttls.add(Math.max(0, ttl));
+            }
+            catch (NumberFormatException | PatternSyntaxException ex) {
+                ResponseCachePolicy._logger.warn("Ignoring invalid response cache TTL: " + item);
+            }
+        }
+    }
+
+    /** Returns the number of milliseconds that a response for a URI is used without revalidation */
+    public long getTtl(String uri)
+    {
+        if (uri != null) {
+            for (int i = 0; i < _patterns.size(); i++) {
+                if (_patterns.get(i).matcher(uri).find()) {
+                    return _ttls.get(i);
+                }
+            }
+        }
+        return _defaultTtl;
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.impl;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.servicemesh.agility.adapters.core.azure.Config;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureErrorException;
+import com.servicemesh.agility.api.Property;
+import com.servicemesh.io.http.IHttpHeader;
+import com.servicemesh.io.http.IHttpResponse;
+
+/**
+ * Decides whether a throttled or busy Azure request is retried and how long to wait before retrying it. Delays use exponential
+ * backoff with decorrelated jitter and honor a Retry-After from the service. The retries for a subscription draw on a budget
+ * that refills over time, so that a throttled subscription is not kept throttled by its own retries.
+ */
+public class RetryPolicy
+{
+    private static final Logger _logger = Logger.getLogger(RetryPolicy.class);
+
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+    public static final String RETRY_AFTER_MS_HEADER = "x-ms-retry-after-ms";
+    public static final String RATELIMIT_REMAINING_PREFIX = "x-ms-ratelimit-remaining-";
+
+    /**
+     * The statuses whose error code decides whether an error is retryable: throttling variants of 400, 403 and 409, and
+     * timeouts reported as 500. A status of 0 is an error whose status is not known.
+     */
+    private static final Set<Integer> ERROR_CODE_STATUSES =
+            Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(0, 400, 403, 409, 500)));
+
+    private static final ConcurrentHashMap<String, Budget> _budgets = new ConcurrentHashMap<String, Budget>();
+
+    private final int _maxRetries;
+    private final long _baseDelay;
+    private final long _maxDelay;
+    private final int _budget;
+    private final int _budgetRefill;
+    private final Set<Integer> _statusCodes;
+    private final Set<String> _errorCodes;
+
+    private static class Holder
+    {
+        private static final ScheduledExecutorService _scheduler = RetryPolicy.createScheduler();
+    }
+
+    private static ScheduledExecutorService createScheduler()
+    {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "azure-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /** Retries available to a subscription, refilled continuously up to the budget */
+    private static class Budget
+    {
+        private double _tokens;
+        private long _lastRefill;
+
+        private Budget(int capacity)
+        {
+            _tokens = capacity;
+            _lastRefill = System.currentTimeMillis();
+        }
+
+        private synchronized void refill(int capacity, int refillPerMinute)
+        {
+            long now = System.currentTimeMillis();
+            _tokens = Math.min(capacity, _tokens + ((now - _lastRefill) * refillPerMinute) / 60000.0);
+            _lastRefill = now;
+        }
+
+        private synchronized boolean tryAcquire(int capacity, int refillPerMinute)
+        {
+            refill(capacity, refillPerMinute);
+            if (_tokens >= 1) {
+                _tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates a retry policy
+     *
+     * @param settings
+     *            Configuration data - if empty or null default values are used.
+     */
+    public RetryPolicy(List<Property> settings)
+    {
+        _maxRetries = Config.getRetryMaxRetries(settings);
+        _baseDelay = Math.max(1, Config.getRetryBaseDelay(settings));
+        _maxDelay = Math.max(_baseDelay, Config.getRetryMaxDelay(settings));
+        _budget = Config.getRetryBudget(settings);
+        _budgetRefill = Config.getRetryBudgetRefill(settings);
+
+        Set<Integer> statusCodes = new HashSet<Integer>();
+        for (String code : RetryPolicy.split(Config.getRetryableStatusCodes(settings))) {
+            try {
+                statusCodes.add(Integer.valueOf(code));
+            }
+            catch (NumberFormatException ex) {
+                RetryPolicy._logger.warn("Ignoring invalid retryable status code: " + code);
+            }
+        }
+        _statusCodes = Collections.unmodifiableSet(statusCodes);
+
+        Set<String> errorCodes = new HashSet<String>();
+        for (String code : RetryPolicy.split(Config.getRetryableErrorCodes(settings))) {
+            errorCodes.add(code.toLowerCase(Locale.ROOT));
+        }
+        _errorCodes = Collections.unmodifiableSet(errorCodes);
+    }
+
+    private static List<String> split(String value)
+    {
+        List<String> values = new ArrayList<String>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                item = item.trim();
+                if (!item.isEmpty()) {
+                    values.add(item);
+                }
+            }
+        }
+        return values;
+    }
+
+    /** Returns the maximum number of retries of a request */
+    public int getMaxRetries()
+    {
+        return _maxRetries;
+    }
+
+    /** Returns true if the status of a response is retryable */
+    public boolean isRetryable(IHttpResponse response)
+    {
+        return (response != null) && (response.getStatus() != null) && _statusCodes.contains(response.getStatusCode());
+    }
+
+    /**
+     * Returns true if a failure is an Azure error with a retryable status or error code. Error codes are only consulted for the
+     * statuses with which Azure reports throttling or transient failures, so that other errors are not decoded to find their
+     * code.
+     */
+    public boolean isRetryable(Throwable failure)
+    {
+        if (failure instanceof AzureErrorException) {
+            AzureErrorException aee = (AzureErrorException) failure;
+            if (_statusCodes.contains(aee.getStatusCode())) {
+                return true;
+            }
+            if (!_errorCodes.isEmpty() && RetryPolicy.ERROR_CODE_STATUSES.contains(aee.getStatusCode())) {
+                String errorCode = aee.getErrorCode();
+                return (errorCode != null) && _errorCodes.contains(errorCode.toLowerCase(Locale.ROOT));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a retry from a subscription's budget
+     *
+     * @param subscription
+     *            The Microsoft Azure subscription. Optional - may be null.
+     * @return False if the budget is exhausted and the request is not to be retried
+     */
+    public boolean acquireRetry(String subscription)
+    {
+        if (_budget <= 0) {
+            return true;
+        }
+        Budget budget = getBudget(subscription);
+        if (budget.tryAcquire(_budget, _budgetRefill)) {
+            return true;
+        }
+        RetryPolicy._logger.warn("Retry budget exhausted for subscription " + subscription);
+        return false;
+    }
+
+    /** Returns the number of retries currently available to a subscription */
+    public int getAvailableRetries(String subscription)
+    {
+        Budget budget = getBudget(subscription);
+        budget.refill(_budget, _budgetRefill);
+        synchronized (budget) {
+            return (int) budget._tokens;
+        }
+    }
+
+    private Budget getBudget(String subscription)
+    {
+        String key = (subscription != null) ? subscription : "";
+        Budget budget = RetryPolicy._budgets.get(key);
+        if (budget == null) {
+            Budget created = new Budget(_budget);
+            budget = RetryPolicy._budgets.putIfAbsent(key, created);
+            if (budget == null) {
+                budget = created;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before the next retry. The backoff is a random value between the base delay
+     * and three times the previous delay, capped at the maximum delay. A Retry-After from the response takes precedence if it
+     * is longer; without one, a response reporting no remaining requests waits the maximum delay.
+     *
+     * @param previousDelay
+     *            The previous delay for this request, or zero for the first retry
+     * @param response
+     *            The response being retried. Optional - may be null.
+     */
+    public long getDelay(long previousDelay, IHttpResponse response)
+    {
+        long upper = Math.min(_maxDelay, Math.max(_baseDelay, previousDelay * 3));
+        long delay = (upper > _baseDelay) ? ThreadLocalRandom.current().nextLong(_baseDelay, upper + 1) : _baseDelay;
+
+        long retryAfter = RetryPolicy.getRetryAfter(response);
+        if (retryAfter >= 0) {
+            delay = Math.max(delay, retryAfter);
+        }
+        else if (RetryPolicy.getRateLimitRemaining(response) == 0) {
+            delay = _maxDelay;
+        }
+        return delay;
+    }
+
+    /**
+     * Returns the number of milliseconds requested by a Retry-After or x-ms-retry-after-ms header, or -1 if there is none.
+     * Retry-After may be a number of seconds or an HTTP date.
+     */
+    public static long getRetryAfter(IHttpResponse response)
+    {
+        if (response == null) {
+            return -1;
+        }
+        String value = RetryPolicy.getHeaderValue(response, RetryPolicy.RETRY_AFTER_MS_HEADER);
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value));
+            }
+            catch (NumberFormatException ex) {
+                // Fall through to Retry-After
+            }
+        }
+        value = RetryPolicy.getHeaderValue(response, RetryPolicy.RETRY_AFTER_HEADER);
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value) * 1000);
+            }
+            catch (NumberFormatException ex) {
+                try {
+                    ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                    return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+                }
+                catch (Exception dex) {
+                    RetryPolicy._logger.debug("Ignoring invalid Retry-After: " + value);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the lowest value of the x-ms-ratelimit-remaining-* headers of a response, or -1 if there are none
+     */
+    public static long getRateLimitRemaining(IHttpResponse response)
+    {
+        long remaining = -1;
+        if (response != null && response.getHeaders() != null) {
+            for (IHttpHeader header : response.getHeaders()) {
+                if (header.getName() != null
+                        && header.getName().toLowerCase(Locale.ROOT).startsWith(RetryPolicy.RATELIMIT_REMAINING_PREFIX)) {
+                    try {
+                        long value = Long.parseLong(header.getValue().trim());
+                        remaining = (remaining < 0) ? value : Math.min(remaining, value);
+                    }
+                    catch (Exception ex) {
+                        // Ignore malformed values
+                    }
+                }
+            }
+        }
+        return remaining;
+    }
+
+    private static String getHeaderValue(IHttpResponse response, String name)
+    {
+        IHttpHeader header = response.getHeader(name);
+        if (header == null || header.getValue() == null) {
+            return null;
+        }
+        return header.getValue().trim();
+    }
+
+    /** Runs a task after a delay on the shared retry scheduler */
+    public static ScheduledFuture<?> schedule(Runnable task, long delayMillis)
+    {
+        return Holder._scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+import com.servicemesh.io.http.IHttpHeader;
+import com.servicemesh.io.http.IHttpResponse;
+import com.servicemesh.io.http.impl.DefaultHttpResponse;
+
+/**
+ * An HTTP response whose body has been read into memory, so that it can be read any number of times and by several threads at
+ * once, e.g. probed for a status and then decoded, or shared by the pollers of one parent. Each call to getContentAsStream()
+ * returns a new stream over the same bytes.
+ */
+public class BufferedHttpResponse extends DefaultHttpResponse
+{
+    private byte[] _body;
+
+    private BufferedHttpResponse()
+    {
+    }
+
+    /**
+     * Returns a response with the status, headers and body of a response, reading the body once. A response that is already
+     * buffered is returned as it is.
+     *
+     * @param response
+     *            The response to be buffered - may be null.
+     * @return The buffered response; null if the parameter is null
+     * @throws AzureAdapterException
+     *             If the body cannot be read
+     */
+    public static BufferedHttpResponse of(IHttpResponse response)
+    {
+        if (response == null || response instanceof BufferedHttpResponse) {
+            return (BufferedHttpResponse) response;
+        }
+        BufferedHttpResponse buffered = new BufferedHttpResponse();
+        buffered.setStatus(response.getStatus());
+        if (response.getHeaders() != null) {
+            for (IHttpHeader header : response.getHeaders()) {
+                buffered.setHeader(header);
+            }
+        }
+        InputStream stream = response.getContentAsStream();
+        if (stream != null) {
+            try {
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] chunk = new byte[4096];
+                    int read;
+                    while ((read = stream.read(chunk)) != -1) {
+                        out.write(chunk, 0, read);
+                    }
+                    buffered._body = out.toByteArray();
+                }
+                finally {
+                    stream.close();
+                }
+            }
+            catch (IOException ex) {
+                throw new AzureAdapterException("Unable to read the response body: " + ex.getMessage(), ex);
+            }
+        }
+        else {
+            String content = response.getContent();
+            if (content != null) {
+                buffered._body = content.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        return buffered;
+    }
+
+    @Override
+    public void setContent(byte[] content)
+    {
+        _body = content;
+    }
+
+    @Override
+    public String getContent()
+    {
+        return (_body != null) ? new String(_body, StandardCharsets.UTF_8) : null;
+    }
+
+    @Override
+    public InputStream getContentAsStream()
+    {
+        return (_body != null) ? new ByteArrayInputStream(_body) : null;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import com.servicemesh.core.async.Callback;
+import com.servicemesh.core.async.CompletablePromise;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+
+/**
+ * Bridges com.servicemesh.core.async.Promise and java.util.concurrent.CompletionStage. The bridge completes on the thread that
+ * completes its source, e.g. the HTTP I/O callback, without blocking a thread or handing off to an executor. Cancellation is
+ * propagated to the source.
+ */
+public final class PromiseStages
+{
+    private PromiseStages()
+    {
+    }
+
+    /**
+     * Returns a future that completes with a promise. Cancelling the future cancels the promise.
+     *
+     * @param promise
+     *            The source promise
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(final Promise<T> promise)
+    {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        promise.onComplete(new Callback<T>() {
+            @Override
+            public void invoke(T value)
+            {
+                future.complete(value);
+            }
+        });
+        promise.onFailure(new Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t)
+            {
+                future.completeExceptionally(t);
+            }
+        });
+        promise.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                future.cancel(false);
+            }
+        });
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable t)
+            {
+                if (future.isCancelled()) {
+                    promise.cancel();
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns a promise that completes with a completion stage. Cancelling the promise cancels the stage if it is a future.
+     *
+     * @param stage
+     *            The source completion stage
+     */
+    public static <T> Promise<T> toPromise(final CompletionStage<T> stage)
+    {
+        final CompletablePromise<T> promise = PromiseFactory.create();
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable t)
+            {
+                if (t == null) {
+                    promise.complete(value);
+                    return;
+                }
+                Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+                if (cause instanceof CancellationException) {
+                    promise.cancel();
+                }
+                else {
+                    promise.failure(cause);
+                }
+            }
+        });
+        promise.onCancel(new Runnable() {
+            @Override
+            public void run()
+            {
+                if (stage instanceof CompletableFuture) {
+                    ((CompletableFuture<T>) stage).cancel(false);
+                }
+            }
+        });
+        return promise;
+    }
+}
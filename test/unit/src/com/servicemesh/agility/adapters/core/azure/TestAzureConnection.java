@@ -5,27 +5,58 @@
 
 package com.servicemesh.agility.adapters.core.azure;
 import org.apache.log4j.Logger;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.net.ssl.KeyManager;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.Level;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.reflect.Whitebox;
 
+import com.microsoft.schemas.azure.trafficmgr.Error;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureErrorException;
 import com.servicemesh.agility.adapters.core.azure.impl.AzureConnectionImpl;
+import com.servicemesh.agility.adapters.core.azure.impl.AzureConnectionRegistry;
+import com.servicemesh.agility.adapters.core.azure.impl.KeyManagerCache;
+import com.servicemesh.agility.adapters.core.azure.impl.LruResponseCache;
+import com.servicemesh.agility.adapters.core.azure.impl.RetryPolicy;
 import com.servicemesh.agility.adapters.core.azure.impl.AzureEndpointImpl;
+import com.servicemesh.agility.adapters.core.azure.impl.CircuitBreaker;
+import com.servicemesh.agility.adapters.core.azure.impl.HedgePolicy;
+import com.servicemesh.agility.adapters.core.azure.impl.ConcurrencyLimiter;
 import com.servicemesh.agility.api.AssetProperty;
 import com.servicemesh.agility.api.Cloud;
 import com.servicemesh.agility.api.Credential;
 import com.servicemesh.agility.api.Link;
 import com.servicemesh.agility.api.Property;
 import com.servicemesh.agility.api.ServiceProvider;
+import com.servicemesh.core.async.CompletablePromise;
 import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+import com.servicemesh.io.http.HttpClientFactory;
+import com.servicemesh.io.http.HttpStatus;
+import com.servicemesh.io.http.HttpVersion;
+import com.servicemesh.io.http.IHttpClient;
+import com.servicemesh.io.http.IHttpHeader;
+import com.servicemesh.io.http.IHttpRequest;
 import com.servicemesh.io.http.IHttpResponse;
+import com.servicemesh.io.http.impl.DefaultHttpResponse;
 import com.servicemesh.io.http.QueryParams;
 import com.servicemesh.io.proxy.Host;
 import com.servicemesh.io.proxy.Proxy;
@@ -278,6 +309,7 @@ public class TestAzureConnection
         Mockito.when(mockEndpoint.getSubscription()).thenReturn(subscription);
         String encoded = "encodedObject";
         Mockito.when(mockEndpoint.encode(Matchers.anyObject())).thenReturn(encoded);
+        Mockito.when(mockEndpoint.encodeToBytes(Matchers.anyObject())).thenReturn(encoded.getBytes(StandardCharsets.UTF_8));
 
         AzureConnectionFactory factory = AzureConnectionFactory.getInstance();
         AzureConnection conn;
@@ -332,6 +364,945 @@ public class TestAzureConnection
         Assert.assertNotNull(promise);
     }
 
+    @Test
+    public void testConnectionRegistry() throws Exception
+    {
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("registry-subscription");
+
+        AzureConnectionFactory factory = AzureConnectionFactory.getInstance();
+        List<Property> settings = new ArrayList<Property>();
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+
+        long misses = factory.getConnectionMisses();
+        long hits = factory.getConnectionHits();
+        AzureConnection conn1 = factory.getConnection(settings, cred, null, mockEndpoint);
+        Assert.assertEquals(misses + 1, factory.getConnectionMisses());
+
+        // Same credential, subscription, proxy and settings shares the client
+        AzureConnection conn2 = factory.getConnection(settings, cred, null, mockEndpoint);
+        Assert.assertEquals(misses + 1, factory.getConnectionMisses());
+        Assert.assertEquals(hits + 1, factory.getConnectionHits());
+
+        // Different effective settings require a new client
+        Property timeout = new Property();
+        timeout.setName(Config.HTTP_TIMEOUT);
+        timeout.setValue("12345");
+        List<Property> otherSettings = new ArrayList<Property>();
+        otherSettings.add(timeout);
+        AzureConnection conn3 = factory.getConnection(otherSettings, cred, null, mockEndpoint);
+        Assert.assertEquals(misses + 2, factory.getConnectionMisses());
+
+        // Still referenced so nothing is evicted
+        long evictions = factory.getConnectionEvictions();
+        AzureConnectionRegistry.getInstance().evictIdle();
+        Assert.assertEquals(evictions, factory.getConnectionEvictions());
+
+        // Closed connections may no longer be used; closing twice is harmless
+        factory.releaseConnection(conn1);
+        factory.releaseConnection(conn1);
+        TestHelpers.setLogLevel(AzureConnectionImpl.class.getName(), Level.OFF);
+        Promise<IHttpResponse> promise = conn1.delete("/deleteIt");
+        Assert.assertTrue(promise.isFailed());
+        TestHelpers.setLogLevel(AzureConnectionImpl.class.getName(), Level.TRACE);
+        factory.releaseConnection(conn2);
+        factory.releaseConnection(conn3);
+
+        // An idle timeout of zero closes the client as soon as it is released
+        Property idle = new Property();
+        idle.setName(Config.CONNECTION_IDLE_TIMEOUT);
+        idle.setValue("0");
+        otherSettings.add(idle);
+        int shared = factory.getSharedConnectionCount();
+        AzureConnection conn4 = factory.getConnection(otherSettings, cred, null, mockEndpoint);
+        Assert.assertEquals(shared + 1, factory.getSharedConnectionCount());
+        factory.releaseConnection(conn4);
+        Assert.assertEquals(shared, factory.getSharedConnectionCount());
+        Assert.assertTrue(factory.getConnectionEvictions() > evictions);
+
+        // The last client released is closed after its idle timeout without any further acquire or release
+        idle.setValue("50");
+        AzureConnection conn5 = factory.getConnection(otherSettings, cred, null, mockEndpoint);
+        Assert.assertEquals(shared + 1, factory.getSharedConnectionCount());
+        factory.releaseConnection(conn5);
+        Assert.assertEquals(shared + 1, factory.getSharedConnectionCount());
+        for (int wait = 0; wait < 100 && factory.getSharedConnectionCount() > shared; wait++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(shared, factory.getSharedConnectionCount());
+
+        // The fingerprint depends on both the certificate and the password
+        String fp = AzureConnectionRegistry.fingerprint(cred.getCertificate(), cred.getPrivateKey());
+        Assert.assertEquals(fp, AzureConnectionRegistry.fingerprint(cred.getCertificate(), cred.getPrivateKey()));
+        Assert.assertNotEquals(fp, AzureConnectionRegistry.fingerprint(cred.getCertificate(), "other"));
+        Assert.assertFalse(fp.contains(TestAzureConnection.TEST_PKCS12_PASSWORD));
+    }
+
+    @Test
+    public void testKeyManagerCache() throws Exception
+    {
+        final KeyManagerCache cache = KeyManagerCache.getInstance();
+        final List<Property> settings = new ArrayList<Property>();
+        final byte[] cert = Base64.decodeBase64(TestAzureConnection.TEST_PKCS12);
+        cache.clear();
+
+        // Concurrent requests for the same credential share one load
+        long misses = cache.getMisses();
+        int numThreads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<KeyManager[]> results = Collections.synchronizedList(new ArrayList<KeyManager[]>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        results.add(cache.getKeyManagers(settings, cert, TestAzureConnection.TEST_PKCS12_PASSWORD));
+                    }
+                    catch (Exception ex) {
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(numThreads, results.size());
+        Assert.assertEquals(misses + 1, cache.getMisses());
+        for (KeyManager[] result : results) {
+            Assert.assertSame(results.get(0), result);
+        }
+        Assert.assertEquals(1, cache.size());
+
+        // A wrong password fails every time and is never cached
+        TestHelpers.setLogLevel(KeyManagerCache.class.getName(), Level.OFF);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getKeyManagers(settings, cert, TestAzureConnection.TEST_PKCS12_PASSWORD + "bad");
+                Assert.fail("Expected exception for wrong password");
+            }
+            catch (Exception ex) {
+            }
+        }
+        TestHelpers.setLogLevel(KeyManagerCache.class.getName(), Level.TRACE);
+        Assert.assertEquals(1, cache.size());
+
+        // Expired entries are reloaded
+        Property ttl = new Property();
+        ttl.setName(Config.KEY_MANAGER_CACHE_TTL);
+        ttl.setValue("1");
+        List<Property> shortTtl = new ArrayList<Property>();
+        shortTtl.add(ttl);
+        Thread.sleep(5);
+        misses = cache.getMisses();
+        KeyManager[] reloaded = cache.getKeyManagers(shortTtl, cert, TestAzureConnection.TEST_PKCS12_PASSWORD);
+        Assert.assertNotSame(results.get(0), reloaded);
+        Assert.assertEquals(misses + 1, cache.getMisses());
+
+        // A size of zero bypasses the cache
+        Property size = new Property();
+        size.setName(Config.KEY_MANAGER_CACHE_SIZE);
+        size.setValue("0");
+        List<Property> noCache = new ArrayList<Property>();
+        noCache.add(size);
+        cache.clear();
+        Assert.assertNotNull(cache.getKeyManagers(noCache, cert, TestAzureConnection.TEST_PKCS12_PASSWORD));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRetryPolicy() throws Exception
+    {
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureConnection.property(Config.RETRY_BASE_DELAY, "10"));
+        settings.add(TestAzureConnection.property(Config.RETRY_MAX_DELAY, "100"));
+        settings.add(TestAzureConnection.property(Config.RETRY_BUDGET, "2"));
+        settings.add(TestAzureConnection.property(Config.RETRY_BUDGET_REFILL, "0"));
+        RetryPolicy policy = new RetryPolicy(settings);
+        Assert.assertEquals(Config.RETRY_MAX_RETRIES_DEFAULT, policy.getMaxRetries());
+
+        // Decorrelated jitter stays between the base delay and the cap
+        long delay = 0;
+        for (int i = 0; i < 100; i++) {
+            delay = policy.getDelay(delay, null);
+            Assert.assertTrue("delay=" + delay, delay >= 10 && delay <= 100);
+        }
+
+        // Retry-After takes precedence, in seconds, milliseconds or as a date
+        DefaultHttpResponse response = TestAzureConnection.response(429);
+        response.setHeader(HttpClientFactory.getInstance().createHeader(RetryPolicy.RETRY_AFTER_HEADER, "2"));
+        Assert.assertEquals(2000, RetryPolicy.getRetryAfter(response));
+        Assert.assertEquals(2000, policy.getDelay(0, response));
+        response = TestAzureConnection.response(503);
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(60));
+        response.setHeader(HttpClientFactory.getInstance().createHeader(RetryPolicy.RETRY_AFTER_HEADER, date));
+        Assert.assertTrue(RetryPolicy.getRetryAfter(response) > 50000);
+        response.setHeader(HttpClientFactory.getInstance().createHeader(RetryPolicy.RETRY_AFTER_MS_HEADER, "250"));
+        Assert.assertEquals(250, RetryPolicy.getRetryAfter(response));
+
+        // An exhausted rate limit without Retry-After waits the maximum delay
+        response = TestAzureConnection.response(429);
+        response.setHeader(HttpClientFactory.getInstance().createHeader("x-ms-ratelimit-remaining-subscription-reads", "0"));
+        Assert.assertEquals(-1, RetryPolicy.getRetryAfter(response));
+        Assert.assertEquals(0, RetryPolicy.getRateLimitRemaining(response));
+        Assert.assertEquals(100, policy.getDelay(0, response));
+
+        // Classification by status and by Azure error code
+        Assert.assertTrue(policy.isRetryable(TestAzureConnection.response(429)));
+        Assert.assertTrue(policy.isRetryable(TestAzureConnection.response(503)));
+        Assert.assertFalse(policy.isRetryable(TestAzureConnection.response(400)));
+        Assert.assertFalse(policy.isRetryable(new DefaultHttpResponse()));
+        Assert.assertTrue(policy.isRetryable(new AzureErrorException(null, "busy", 503)));
+        Assert.assertTrue(policy.isRetryable(TestAzureConnection.errorException(409, "ServerBusy")));
+        Assert.assertFalse(policy.isRetryable(TestAzureConnection.errorException(409, "ConflictError")));
+        Assert.assertFalse(policy.isRetryable(new Exception("other")));
+
+        // The error code of an error whose status is never throttling is not considered
+        Assert.assertFalse(policy.isRetryable(TestAzureConnection.errorException(404, "ServerBusy")));
+
+        settings.add(TestAzureConnection.property(Config.RETRYABLE_STATUS_CODES, "500"));
+        settings.add(TestAzureConnection.property(Config.RETRYABLE_ERROR_CODES, "ConflictError"));
+        RetryPolicy custom = new RetryPolicy(settings);
+        Assert.assertTrue(custom.isRetryable(TestAzureConnection.response(500)));
+        Assert.assertFalse(custom.isRetryable(TestAzureConnection.response(503)));
+        Assert.assertTrue(custom.isRetryable(TestAzureConnection.errorException(409, "ConflictError")));
+
+        // The budget is shared per subscription
+        String subscription = "retry-budget-" + System.nanoTime();
+        Assert.assertTrue(policy.acquireRetry(subscription));
+        Assert.assertTrue(custom.acquireRetry(subscription));
+        TestHelpers.setLogLevel(RetryPolicy.class.getName(), Level.OFF);
+        Assert.assertFalse(policy.acquireRetry(subscription));
+        TestHelpers.setLogLevel(RetryPolicy.class.getName(), Level.TRACE);
+        Assert.assertEquals(0, policy.getAvailableRetries(subscription));
+        Assert.assertTrue(policy.acquireRetry(subscription + "-other"));
+    }
+
+    @Test
+    public void testRetryExecution() throws Throwable
+    {
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getContentType()).thenReturn(AzureEndpoint.DEFAULT_MEDIA_TYPE.getValue());
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("retry-exec-" + System.nanoTime());
+
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureConnection.property(Config.RETRY_BASE_DELAY, "1"));
+        settings.add(TestAzureConnection.property(Config.RETRY_MAX_DELAY, "5"));
+        settings.add(TestAzureConnection.property(Config.RETRY_MAX_RETRIES, "2"));
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+        AzureConnection conn = AzureConnectionFactory.getInstance().getConnection(settings, cred, null, mockEndpoint);
+        IHttpClient mockClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(conn, "_httpClient", mockClient);
+
+        // A throttled response is retried until it succeeds
+        DefaultHttpResponse ok = TestAzureConnection.response(200);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(TestAzureConnection.response(429)),
+                        Promise.<IHttpResponse> pure(TestAzureConnection.response(503)),
+                        Promise.<IHttpResponse> pure(ok));
+        Assert.assertSame(ok, conn.get("throttled", null, IHttpResponse.class).get());
+        Mockito.verify(mockClient, Mockito.times(3)).promise(Matchers.any(IHttpRequest.class));
+
+        // Retries stop at the configured maximum and return the last response
+        Mockito.reset(mockClient);
+        DefaultHttpResponse busy = TestAzureConnection.response(503);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(busy));
+        Assert.assertSame(busy, conn.get("busy", null, IHttpResponse.class).get());
+        Mockito.verify(mockClient, Mockito.times(3)).promise(Matchers.any(IHttpRequest.class));
+
+        // Non-retryable responses are returned at once
+        Mockito.reset(mockClient);
+        DefaultHttpResponse notFound = TestAzureConnection.response(404);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(notFound));
+        Assert.assertSame(notFound, conn.get("missing", null, IHttpResponse.class).get());
+        Mockito.verify(mockClient, Mockito.times(1)).promise(Matchers.any(IHttpRequest.class));
+
+        // A POST is retried after a 429 or 503, which reject it before it is processed
+        Mockito.reset(mockClient);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(TestAzureConnection.response(503)),
+                        Promise.<IHttpResponse> pure(ok));
+        Assert.assertSame(ok, conn.post("operations", "<Create/>", IHttpResponse.class).get());
+        Mockito.verify(mockClient, Mockito.times(2)).promise(Matchers.any(IHttpRequest.class));
+
+        // A POST or PUT that may have been processed is not sent again unless it is declared idempotent
+        Mockito.reset(mockClient);
+        DefaultHttpResponse gateway = TestAzureConnection.response(504);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(gateway), Promise.<IHttpResponse> pure(ok));
+        Assert.assertSame(gateway, conn.post("operations", "<Create/>", IHttpResponse.class).get());
+        Mockito.verify(mockClient, Mockito.times(1)).promise(Matchers.any(IHttpRequest.class));
+        Mockito.reset(mockClient);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(TestAzureConnection.response(502)));
+        Assert.assertEquals(502, conn.put("resource", "<Update/>", IHttpResponse.class).get().getStatusCode());
+        Mockito.verify(mockClient, Mockito.times(1)).promise(Matchers.any(IHttpRequest.class));
+        Mockito.reset(mockClient);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(gateway), Promise.<IHttpResponse> pure(ok));
+        Assert.assertSame(ok, conn.put("resource", "<Update/>", IHttpResponse.class, AzureRequestOptions.idempotent()).get());
+        Mockito.verify(mockClient, Mockito.times(2)).promise(Matchers.any(IHttpRequest.class));
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+    }
+
+    @Test
+    public void testConcurrencyLimiter() throws Exception
+    {
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureConnection.property(Config.CONCURRENCY_INITIAL_LIMIT, "2"));
+        settings.add(TestAzureConnection.property(Config.CONCURRENCY_MAX_LIMIT, "4"));
+        settings.add(TestAzureConnection.property(Config.CONCURRENCY_MAX_QUEUE, "2"));
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(settings);
+        final List<Integer> started = Collections.synchronizedList(new ArrayList<Integer>());
+
+        // Requests beyond the limit are queued, and rejected once the queue is full
+        for (int i = 0; i < 4; i++) {
+            final int id = i;
+            limiter.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    started.add(id);
+                }
+            });
+        }
+        Assert.assertEquals(2, started.size());
+        Assert.assertEquals(2, limiter.getInFlight());
+        Assert.assertEquals(2, limiter.getQueueDepth());
+        try {
+            limiter.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                }
+            });
+            Assert.fail("Expected exception for full queue");
+        }
+        catch (AzureAdapterException aae) {
+        }
+
+        // Successful calls admit queued requests and grow the limit additively
+        limiter.onComplete(10, false);
+        Assert.assertEquals(3, started.size());
+        Assert.assertEquals(1, limiter.getQueueDepth());
+        limiter.onComplete(10, false);
+        limiter.onComplete(10, false);
+        Assert.assertEquals(4, started.size());
+        Assert.assertEquals(3, limiter.getLimit());
+
+        // Throttling halves the limit
+        limiter.onComplete(10, true);
+        Assert.assertEquals(1, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight());
+
+        // A mix of fast and slow calls at steady latency does not shrink the limit, however slow some calls are
+        settings.set(1, TestAzureConnection.property(Config.CONCURRENCY_MAX_LIMIT, "50"));
+        ConcurrencyLimiter mixed = new ConcurrencyLimiter(settings);
+        for (int i = 0; i < 200; i++) {
+            mixed.onComplete((i % 5 == 0) ? 20000 : 10, false);
+        }
+        Assert.assertTrue(mixed.getLimit() > 2);
+
+        // Sustained latency inflation reduces the limit, once per window of calls rather than once per slow call
+        int grown = mixed.getLimit();
+        for (int i = 0; i < Math.max(10, grown); i++) {
+            mixed.onComplete(200000, false);
+        }
+        int reduced = mixed.getLimit();
+        Assert.assertTrue(reduced < grown && reduced >= (int) (grown * 0.9) - 1);
+        settings.set(1, TestAzureConnection.property(Config.CONCURRENCY_MAX_LIMIT, "4"));
+
+        // Requests that complete synchronously drain a long queue without recursing
+        settings.add(TestAzureConnection.property(Config.CONCURRENCY_MAX_QUEUE, "10000"));
+        settings.remove(2);
+        settings.set(0, TestAzureConnection.property(Config.CONCURRENCY_INITIAL_LIMIT, "1"));
+        final ConcurrencyLimiter serial = new ConcurrencyLimiter(settings);
+        serial.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+            }
+        });
+        started.clear();
+        for (int i = 0; i < 5000; i++) {
+            final int id = i;
+            serial.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    started.add(id);
+                    serial.onComplete(10, false);
+                }
+            });
+        }
+        Assert.assertEquals(5000, serial.getQueueDepth());
+        serial.onComplete(10, false);
+        Assert.assertEquals(5000, started.size());
+        Assert.assertEquals(0, serial.getQueueDepth());
+
+        // Connections to the same subscription and address share a limiter
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("limiter-" + System.nanoTime());
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+        List<Property> connSettings = new ArrayList<Property>();
+        connSettings.add(TestAzureConnection.property(Config.CONCURRENCY_INITIAL_LIMIT, "7"));
+        AzureConnection conn = AzureConnectionFactory.getInstance().getConnection(connSettings, cred, null, mockEndpoint);
+        AzureConnection conn2 = AzureConnectionFactory.getInstance().getConnection(null, cred, null, mockEndpoint);
+        Assert.assertEquals(7, conn.getConcurrencyLimit());
+        Assert.assertEquals(7, conn2.getConcurrencyLimit());
+        Assert.assertEquals(0, conn.getQueueDepth());
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+        AzureConnectionFactory.getInstance().releaseConnection(conn2);
+    }
+
+    @Test
+    public void testCoalescedGet() throws Throwable
+    {
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("coalesce-" + System.nanoTime());
+        Mockito.when(mockEndpoint.getMsVersion()).thenReturn("2012-08-01");
+        Mockito.when(mockEndpoint.getContentType()).thenReturn("application/xml");
+        Mockito.when(mockEndpoint.decode(Matchers.any(IHttpResponse.class), Matchers.eq(Cloud.class)))
+            .thenAnswer(new Answer<Cloud>() {
+                @Override
+                public Cloud answer(InvocationOnMock invocation)
+                {
+                    return new Cloud();
+                }
+            });
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureConnection.property(Config.COALESCE_GETS, "true"));
+        AzureConnection conn = AzureConnectionFactory.getInstance().getConnection(settings, cred, null, mockEndpoint);
+        IHttpClient mockClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(conn, "_httpClient", mockClient);
+
+        // Concurrent GETs of the same URI share one request but decode separately
+        CompletablePromise<IHttpResponse> inFlight = PromiseFactory.create();
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(inFlight);
+        Promise<Cloud> first = conn.get("hostedservices/hs1", null, Cloud.class);
+        Promise<Cloud> second = conn.get("hostedservices/hs1", null, Cloud.class);
+        Promise<IHttpResponse> raw = conn.get("hostedservices/hs1", null, IHttpResponse.class);
+        Mockito.verify(mockClient, Mockito.times(1)).promise(Matchers.any(IHttpRequest.class));
+        Assert.assertFalse(first.isCompleted());
+
+        DefaultHttpResponse ok = TestAzureConnection.response(200);
+        inFlight.complete(ok);
+        Assert.assertNotNull(first.get());
+        Assert.assertNotNull(second.get());
+        Assert.assertNotSame(first.get(), second.get());
+        Assert.assertSame(ok, raw.get());
+
+        // Once the response has arrived a new GET goes to the wire, as does a different URI
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(Promise.<IHttpResponse> pure(ok));
+        Assert.assertSame(ok, conn.get("hostedservices/hs1", null, IHttpResponse.class).get());
+        Assert.assertSame(ok, conn.get("hostedservices/hs2", null, IHttpResponse.class).get());
+        Mockito.verify(mockClient, Mockito.times(3)).promise(Matchers.any(IHttpRequest.class));
+
+        // A GET for another media type on the same shared client is not joined
+        AzureEndpoint jsonEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        String subscription = mockEndpoint.getSubscription();
+        Mockito.when(jsonEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(jsonEndpoint.getSubscription()).thenReturn(subscription);
+        Mockito.when(jsonEndpoint.getMsVersion()).thenReturn("2012-08-01");
+        Mockito.when(jsonEndpoint.getContentType()).thenReturn("application/json");
+        AzureConnection jsonConn = AzureConnectionFactory.getInstance().getConnection(settings, cred, null, jsonEndpoint);
+        IHttpClient jsonClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(jsonConn, "_httpClient", jsonClient);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(PromiseFactory.<IHttpResponse> create());
+        Mockito.when(jsonClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(PromiseFactory.<IHttpResponse> create());
+        conn.get("hostedservices/hs3", null, IHttpResponse.class);
+        jsonConn.get("hostedservices/hs3", null, IHttpResponse.class);
+        Mockito.verify(mockClient, Mockito.times(4)).promise(Matchers.any(IHttpRequest.class));
+        Mockito.verify(jsonClient, Mockito.times(1)).promise(Matchers.any(IHttpRequest.class));
+        AzureConnectionFactory.getInstance().releaseConnection(jsonConn);
+
+        // Without the setting every GET is sent
+        AzureConnection plain = AzureConnectionFactory.getInstance().getConnection(null, cred, null, mockEndpoint);
+        IHttpClient plainClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(plain, "_httpClient", plainClient);
+        Mockito.when(plainClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(PromiseFactory.<IHttpResponse> create(), PromiseFactory.<IHttpResponse> create());
+        plain.get("hostedservices/hs1", null, Cloud.class);
+        plain.get("hostedservices/hs1", null, Cloud.class);
+        Mockito.verify(plainClient, Mockito.times(2)).promise(Matchers.any(IHttpRequest.class));
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+        AzureConnectionFactory.getInstance().releaseConnection(plain);
+    }
+
+    @Test
+    public void testResponseCache() throws Throwable
+    {
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("cache-" + System.nanoTime());
+        Mockito.when(mockEndpoint.getMsVersion()).thenReturn("2012-08-01");
+        Mockito.when(mockEndpoint.decode(Matchers.any(IHttpResponse.class), Matchers.eq(Cloud.class)))
+            .thenAnswer(new Answer<Cloud>() {
+                @Override
+                public Cloud answer(InvocationOnMock invocation)
+                {
+                    return new Cloud();
+                }
+            });
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureConnection.property(Config.RESPONSE_CACHE_SIZE, "2"));
+        settings.add(TestAzureConnection.property(Config.RESPONSE_CACHE_TTLS, "/locations$=60000;[invalid=1"));
+        AzureConnection conn = AzureConnectionFactory.getInstance().getConnection(settings, cred, null, mockEndpoint);
+        IHttpClient mockClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(conn, "_httpClient", mockClient);
+
+        DefaultHttpResponse tagged = TestAzureConnection.response(200);
+        tagged.setHeader(HttpClientFactory.getInstance().createHeader("ETag", "\"e1\""));
+        DefaultHttpResponse tagged2 = TestAzureConnection.response(200);
+        tagged2.setHeader(HttpClientFactory.getInstance().createHeader("ETag", "\"e2\""));
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(Promise.<IHttpResponse> pure(tagged),
+                Promise.<IHttpResponse> pure(TestAzureConnection.response(304)),
+                Promise.<IHttpResponse> pure(TestAzureConnection.response(200)), Promise.<IHttpResponse> pure(tagged2));
+
+        // A response with an ETag is revalidated and reused on 304 Not Modified
+        Cloud first = conn.get("hostedservices/hs1", null, Cloud.class).get();
+        Cloud second = conn.get("hostedservices/hs1", null, Cloud.class).get();
+        Assert.assertSame(first, second);
+        ArgumentCaptor<IHttpRequest> requests = ArgumentCaptor.forClass(IHttpRequest.class);
+        Mockito.verify(mockClient, Mockito.times(2)).promise(requests.capture());
+        Assert.assertNull(requests.getAllValues().get(0).getHeader("If-None-Match"));
+        Assert.assertEquals("\"e1\"", requests.getAllValues().get(1).getHeader("If-None-Match").getValue());
+
+        // A response within its TTL is used without a request
+        Cloud locations = conn.get("locations", null, Cloud.class).get();
+        Assert.assertSame(locations, conn.get("locations", null, Cloud.class).get());
+        Mockito.verify(mockClient, Mockito.times(3)).promise(Matchers.any(IHttpRequest.class));
+
+        // The cache is bounded and shared by connections on the same client
+        LruResponseCache cache = (LruResponseCache) conn.getResponseCache();
+        Assert.assertNotNull(conn.get("hostedservices/hs2", null, Cloud.class).get());
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+        AzureConnection other = AzureConnectionFactory.getInstance().getConnection(settings, cred, null, mockEndpoint);
+        Assert.assertSame(cache, other.getResponseCache());
+
+        // Raw responses and connections without a cache always go to the wire
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(Promise.<IHttpResponse> pure(tagged));
+        conn.get("locations", null, IHttpResponse.class).get();
+        conn.setResponseCache(null);
+        Assert.assertNotSame(locations, conn.get("locations", null, Cloud.class).get());
+        Mockito.verify(mockClient, Mockito.times(6)).promise(Matchers.any(IHttpRequest.class));
+        Assert.assertNull(AzureConnectionFactory.getInstance().getConnection(null, cred, null, mockEndpoint).getResponseCache());
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+        AzureConnectionFactory.getInstance().releaseConnection(other);
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Throwable
+    {
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureConnection.property(Config.CIRCUIT_WINDOW_SIZE, "4"));
+        settings.add(TestAzureConnection.property(Config.CIRCUIT_MIN_CALLS, "4"));
+        settings.add(TestAzureConnection.property(Config.CIRCUIT_OPEN_DURATION, "100"));
+        settings.add(TestAzureConnection.property(Config.CIRCUIT_HALF_OPEN_PROBES, "2"));
+        settings.add(TestAzureConnection.property(Config.CIRCUIT_SLOW_CALL, "50"));
+
+        // Opens once the failure rate over the window reaches the threshold
+        CircuitBreaker breaker = new CircuitBreaker("failures", settings);
+        breaker.onSuccess(1);
+        breaker.onSuccess(1);
+        breaker.onFailure(1);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(1);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire());
+        Assert.assertTrue(breaker.getRemainingOpen() > 0);
+
+        // Half-open admits a limited number of probes and reopens on a failed probe
+        Thread.sleep(150);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+        breaker.onSuccess(1);
+        breaker.onFailure(1);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Closes once all probes succeed; a released probe may be retried
+        Thread.sleep(150);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.release();
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(1);
+        breaker.onSuccess(1);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // Slow calls open the breaker as well
+        CircuitBreaker slow = new CircuitBreaker("slow", settings);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(slow.tryAcquire());
+            slow.onSuccess(100);
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, slow.getState());
+
+        // A window size of zero disables the breaker
+        settings.add(0, TestAzureConnection.property(Config.CIRCUIT_WINDOW_SIZE, "0"));
+        CircuitBreaker disabled = new CircuitBreaker("disabled", settings);
+        for (int i = 0; i < 10; i++) {
+            disabled.onFailure(1);
+        }
+        Assert.assertTrue(disabled.tryAcquire());
+
+        // An open breaker fails requests fast with a distinct code
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("circuit-" + System.nanoTime());
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+        settings.remove(0);
+        settings.add(TestAzureConnection.property(Config.CIRCUIT_OPEN_DURATION, "60000"));
+        AzureConnection conn = AzureConnectionFactory.getInstance().getConnection(settings, cred, null, mockEndpoint);
+        IHttpClient mockClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(conn, "_httpClient", mockClient);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(TestAzureConnection.response(500)));
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(500, conn.get("failing", null, IHttpResponse.class).get().getStatusCode());
+        }
+        Promise<IHttpResponse> rejected = conn.get("failing", null, IHttpResponse.class);
+        Assert.assertTrue(rejected.isFailed());
+        try {
+            rejected.get();
+            Assert.fail("Expected exception for open circuit");
+        }
+        catch (AzureAdapterException aae) {
+            Assert.assertEquals(AzureAdapterException.CIRCUIT_OPEN, aae.getCode());
+        }
+        Mockito.verify(mockClient, Mockito.times(4)).promise(Matchers.any(IHttpRequest.class));
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+
+        // Throttled responses are not failures, and a retried request is counted once
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("throttled-" + System.nanoTime());
+        settings.add(TestAzureConnection.property(Config.RETRY_BASE_DELAY, "1"));
+        settings.add(TestAzureConnection.property(Config.RETRY_MAX_DELAY, "5"));
+        settings.add(TestAzureConnection.property(Config.RETRY_MAX_RETRIES, "2"));
+        conn = AzureConnectionFactory.getInstance().getConnection(settings, cred, null, mockEndpoint);
+        mockClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(conn, "_httpClient", mockClient);
+        DefaultHttpResponse busy = TestAzureConnection.response(503);
+        DefaultHttpResponse retryAfter = TestAzureConnection.response(500);
+        retryAfter.setHeader(HttpClientFactory.getInstance().createHeader(RetryPolicy.RETRY_AFTER_HEADER, "0"));
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(TestAzureConnection.response(429)), Promise.<IHttpResponse> pure(busy),
+                        Promise.<IHttpResponse> pure(busy), Promise.<IHttpResponse> pure(retryAfter),
+                        Promise.<IHttpResponse> pure(busy), Promise.<IHttpResponse> pure(busy),
+                        Promise.<IHttpResponse> pure(TestAzureConnection.response(500)),
+                        Promise.<IHttpResponse> pure(TestAzureConnection.response(200)));
+        Assert.assertSame(busy, conn.get("throttled", null, IHttpResponse.class).get());
+        Assert.assertSame(retryAfter, conn.get("throttled", null, IHttpResponse.class).get());
+        Assert.assertEquals(500, conn.get("throttled", null, IHttpResponse.class).get().getStatusCode());
+        Assert.assertEquals(200, conn.get("throttled", null, IHttpResponse.class).get().getStatusCode());
+        Mockito.verify(mockClient, Mockito.times(8)).promise(Matchers.any(IHttpRequest.class));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED,
+                CircuitBreaker.getInstance(mockEndpoint.getSubscription(), AzureEndpoint.DEFAULT_ADDRESS, settings).getState());
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+    }
+
+    @Test
+    public void testHedgedGet() throws Throwable
+    {
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureConnection.property(Config.HEDGE_GETS, "true"));
+        settings.add(TestAzureConnection.property(Config.HEDGE_MIN_SAMPLES, "2"));
+        settings.add(TestAzureConnection.property(Config.HEDGE_MIN_DELAY, "10"));
+        settings.add(TestAzureConnection.property(Config.HEDGE_PERCENTILE, "50"));
+        settings.add(TestAzureConnection.property(Config.HEDGE_MAX_PER_SECOND, "1"));
+
+        // The delay is a percentile of observed latency once enough latencies are known
+        HedgePolicy policy = new HedgePolicy(settings);
+        Assert.assertEquals(-1, policy.getDelay());
+        policy.recordLatency(20);
+        policy.recordLatency(400);
+        Assert.assertEquals(20, policy.getDelay());
+        policy.recordLatency(1);
+        policy.recordLatency(1);
+        Assert.assertEquals(10, policy.getDelay());
+        Assert.assertTrue(policy.tryAcquire());
+        Assert.assertFalse(policy.tryAcquire());
+
+        // A GET that is slower than the hedge delay is sent again and the slower request is cancelled
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("hedge-" + System.nanoTime());
+        HedgePolicy shared = HedgePolicy.getInstance(mockEndpoint.getSubscription(), AzureEndpoint.DEFAULT_ADDRESS, settings);
+        shared.recordLatency(1);
+        shared.recordLatency(1);
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+        AzureConnection conn = AzureConnectionFactory.getInstance().getConnection(settings, cred, null, mockEndpoint);
+        IHttpClient mockClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(conn, "_httpClient", mockClient);
+
+        CompletablePromise<IHttpResponse> slow = PromiseFactory.create();
+        DefaultHttpResponse ok = TestAzureConnection.response(200);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(slow,
+                Promise.<IHttpResponse> pure(ok));
+        Assert.assertSame(ok, conn.get("hostedservices", null, IHttpResponse.class).get());
+        Assert.assertTrue(slow.isCancelled());
+        Assert.assertEquals(1, shared.getHedges());
+        Assert.assertEquals(1, shared.getHedgeWins());
+        Mockito.verify(mockClient, Mockito.times(2)).promise(Matchers.any(IHttpRequest.class));
+
+        // The latency of the slower primary is recorded from its own send, not the hedge's
+        long[] latencies = Whitebox.getInternalState(shared, "_latencies");
+        Assert.assertEquals(3, ((Integer) Whitebox.getInternalState(shared, "_samples")).intValue());
+        Assert.assertTrue(latencies[2] >= 10);
+
+        // Hedges are capped per second
+        CompletablePromise<IHttpResponse> capped = PromiseFactory.create();
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(capped);
+        Promise<IHttpResponse> pending = conn.get("hostedservices", null, IHttpResponse.class);
+        Thread.sleep(100);
+        Mockito.verify(mockClient, Mockito.times(3)).promise(Matchers.any(IHttpRequest.class));
+        Assert.assertFalse(pending.isCompleted());
+        capped.complete(ok);
+        Assert.assertSame(ok, pending.get());
+        Assert.assertEquals(0, conn.getQueueDepth());
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+    }
+
+    @Test
+    public void testDeadline() throws Throwable
+    {
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("deadline-" + System.nanoTime());
+        Mockito.when(mockEndpoint.getMsVersion()).thenReturn("2012-08-01");
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+        AzureConnection conn = AzureConnectionFactory.getInstance().getConnection(null, cred, null, mockEndpoint);
+        IHttpClient mockClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(conn, "_httpClient", mockClient);
+
+        // A request that completes in time is unaffected
+        DefaultHttpResponse ok = TestAzureConnection.response(200);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(Promise.<IHttpResponse> pure(ok));
+        Assert.assertSame(ok, conn.get("services", null, IHttpResponse.class, AzureRequestOptions.timeout(1000)).get());
+        Assert.assertSame(ok, conn.delete("services/s1", AzureRequestOptions.NONE).get());
+
+        // A request still in flight at its deadline fails and is cancelled
+        CompletablePromise<IHttpResponse> slow = PromiseFactory.create();
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(slow);
+        Promise<IHttpResponse> late = conn.put("services/s1", "<x/>", IHttpResponse.class, AzureRequestOptions.timeout(50));
+        try {
+            late.get();
+            Assert.fail("Expected exception for deadline");
+        }
+        catch (AzureAdapterException aae) {
+            Assert.assertEquals(AzureAdapterException.DEADLINE_EXCEEDED, aae.getCode());
+        }
+        Assert.assertTrue(slow.isCancelled());
+        Assert.assertEquals(0, conn.getQueueDepth());
+
+        // An expired deadline fails without a request
+        Mockito.reset(mockClient);
+        Promise<IHttpResponse> expired = conn.post("services", "<x/>", IHttpResponse.class,
+                AzureRequestOptions.deadline(System.currentTimeMillis() - 1));
+        Assert.assertTrue(expired.isFailed());
+        Mockito.verify(mockClient, Mockito.never()).promise(Matchers.any(IHttpRequest.class));
+
+        // A retry that cannot be sent before the deadline is not scheduled
+        DefaultHttpResponse busy = TestAzureConnection.response(503);
+        busy.setHeader(HttpClientFactory.getInstance().createHeader(RetryPolicy.RETRY_AFTER_HEADER, "10"));
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(Promise.<IHttpResponse> pure(busy));
+        Assert.assertSame(busy, conn.get("busy", null, IHttpResponse.class, AzureRequestOptions.timeout(2000)).get());
+        Mockito.verify(mockClient, Mockito.times(1)).promise(Matchers.any(IHttpRequest.class));
+
+        // Cancelling the returned promise cancels the request on the wire, including decoded and cached GETs
+        CompletablePromise<IHttpResponse> abandoned = PromiseFactory.create();
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(abandoned);
+        conn.get("services", null, IHttpResponse.class).cancel();
+        Assert.assertTrue(abandoned.isCancelled());
+        conn.setResponseCache(new LruResponseCache(4));
+        CompletablePromise<IHttpResponse> uncached = PromiseFactory.create();
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(uncached);
+        conn.get("services", null, Cloud.class, AzureRequestOptions.timeout(10000)).cancel();
+        Assert.assertTrue(uncached.isCancelled());
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+    }
+
+    @Test
+    public void testPagination() throws Throwable
+    {
+        AzureEndpoint mockEndpoint = Mockito.mock(AzureEndpointImpl.class);
+        Mockito.when(mockEndpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(mockEndpoint.getSubscription()).thenReturn("pages-" + System.nanoTime());
+        Mockito.when(mockEndpoint.getMsVersion()).thenReturn("2012-08-01");
+        Credential cred = new Credential();
+        cred.setCertificate(Base64.decodeBase64(TestAzureConnection.TEST_PKCS12));
+        cred.setPrivateKey(TestAzureConnection.TEST_PKCS12_PASSWORD);
+        AzureConnection conn = AzureConnectionFactory.getInstance().getConnection(null, cred, null, mockEndpoint);
+        IHttpClient mockClient = Mockito.mock(IHttpClient.class);
+        Whitebox.setInternalState(conn, "_httpClient", mockClient);
+
+        // Each page lists its items and carries a continuation token for the next page
+        AzurePageReader<IHttpResponse, String> reader = new AzurePageReader<IHttpResponse, String>() {
+            @Override
+            public List<String> getItems(IHttpResponse page)
+            {
+                String content = page.getContent();
+                return content.isEmpty() ? null : java.util.Arrays.asList(content.split(","));
+            }
+
+            @Override
+            public String getNextRequestURI(String requestURI, IHttpResponse page, IHttpResponse response)
+            {
+                IHttpHeader token = response.getHeader(AzurePageReader.CONTINUATION_TOKEN_HEADER);
+                return (token != null) ? "items?token=" + token.getValue() : null;
+            }
+        };
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(
+                Promise.<IHttpResponse> pure(TestAzureConnection.page("a,b", "2")),
+                Promise.<IHttpResponse> pure(TestAzureConnection.page("", "3")),
+                Promise.<IHttpResponse> pure(TestAzureConnection.page("c", "4")),
+                Promise.<IHttpResponse> pure(TestAzureConnection.page("d,e", null)));
+        AzurePageIterator<String> items = conn.list("items", null, IHttpResponse.class, reader, null);
+        Mockito.verify(mockClient, Mockito.never()).promise(Matchers.any(IHttpRequest.class));
+
+        // The first page is consumed while no more than the prefetch limit of pages are retrieved ahead of it
+        Assert.assertTrue(items.hasNext());
+        Mockito.verify(mockClient, Mockito.times(1 + Config.PAGE_PREFETCH_DEFAULT)).promise(Matchers.any(IHttpRequest.class));
+        List<String> all = new ArrayList<String>();
+        while (items.hasNext()) {
+            all.add(items.next());
+        }
+        Assert.assertEquals(java.util.Arrays.asList("a", "b", "c", "d", "e"), all);
+        Assert.assertEquals(4, items.getPageCount());
+        Mockito.verify(mockClient, Mockito.times(4)).promise(Matchers.any(IHttpRequest.class));
+        try {
+            items.next();
+            Assert.fail("Expected NoSuchElementException");
+        }
+        catch (java.util.NoSuchElementException e) {
+        }
+
+        // Closing the iterator cancels the retrieval in progress
+        CompletablePromise<IHttpResponse> pending = PromiseFactory.create();
+        Mockito.reset(mockClient);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class)))
+            .thenReturn(Promise.<IHttpResponse> pure(TestAzureConnection.page("a", "2")), pending);
+        items = conn.list("items", null, IHttpResponse.class, reader, null);
+        Assert.assertEquals("a", items.next());
+        items.close();
+        Assert.assertTrue(pending.isCancelled());
+        Assert.assertFalse(items.hasNext());
+
+        // A failed page is reported once the pages before it have been consumed
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(
+                Promise.<IHttpResponse> pure(TestAzureConnection.page("a", "2")),
+                Promise.<IHttpResponse> pure(new java.io.IOException("reset")));
+        items = conn.list("items", null, IHttpResponse.class, reader, null);
+        Assert.assertEquals("a", items.next());
+        try {
+            items.hasNext();
+            Assert.fail("Expected exception for failed page");
+        }
+        catch (AzureAdapterException aae) {
+            Assert.assertTrue(aae.getCause() instanceof java.io.IOException);
+        }
+
+        // An absolute nextLink is requested as it is, and one on another host is refused
+        final String nextLink = AzureEndpoint.DEFAULT_ADDRESS + mockEndpoint.getSubscription() + "/items?$skiptoken=2";
+        AzurePageReader<IHttpResponse, String> linked = new AzurePageReader<IHttpResponse, String>() {
+            @Override
+            public List<String> getItems(IHttpResponse page)
+            {
+                return java.util.Arrays.asList(page.getContent());
+            }
+
+            @Override
+            public String getNextRequestURI(String requestURI, IHttpResponse page, IHttpResponse response)
+            {
+                if ("a".equals(page.getContent())) {
+                    return nextLink;
+                }
+                return "b".equals(page.getContent()) ? "https://example.com/items?$skiptoken=3" : null;
+            }
+        };
+        Mockito.reset(mockClient);
+        Mockito.when(mockClient.promise(Matchers.any(IHttpRequest.class))).thenReturn(
+                Promise.<IHttpResponse> pure(TestAzureConnection.page("a", null)),
+                Promise.<IHttpResponse> pure(TestAzureConnection.page("b", null)));
+        items = conn.list("items", null, IHttpResponse.class, linked, null);
+        Assert.assertEquals("a", items.next());
+        Assert.assertEquals("b", items.next());
+        try {
+            items.hasNext();
+            Assert.fail("Expected exception for a nextLink on another host");
+        }
+        catch (AzureAdapterException aae) {
+            Assert.assertTrue(aae.getMessage().contains("example.com"));
+        }
+        ArgumentCaptor<IHttpRequest> requests = ArgumentCaptor.forClass(IHttpRequest.class);
+        Mockito.verify(mockClient, Mockito.times(2)).promise(requests.capture());
+        Assert.assertEquals(nextLink, requests.getAllValues().get(1).getUri().toString());
+        AzureConnectionFactory.getInstance().releaseConnection(conn);
+    }
+
+    private static Property property(String name, String value)
+    {
+        Property property = new Property();
+        property.setName(name);
+        property.setValue(value);
+        return property;
+    }
+
+    private static DefaultHttpResponse response(int status)
+    {
+        DefaultHttpResponse response = new DefaultHttpResponse();
+        response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, status, ""));
+        return response;
+    }
+
+    private static DefaultHttpResponse page(String content, String continuationToken)
+    {
+        DefaultHttpResponse response = TestAzureConnection.response(200);
+        response.setContent(content.getBytes(StandardCharsets.UTF_8));
+        if (continuationToken != null) {
+            response.setHeader(
+                    HttpClientFactory.getInstance().createHeader(AzurePageReader.CONTINUATION_TOKEN_HEADER, continuationToken));
+        }
+        return response;
+    }
+
+    private static AzureErrorException errorException(int status, String code)
+    {
+        Error error = new Error();
+        error.setCode(code);
+        return new AzureErrorException(error, code, status);
+    }
+
     private static final String TEST_PKCS12_PASSWORD = "foobar";
 
     private static final String TEST_PKCS12 = "MIIJYQIBAzCCCScGCSqGSIb3DQEHAaCCCRgEggkUMIIJEDCCA8cGCSqGSIb3DQEHB"
@@ -5,16 +5,34 @@
 package com.servicemesh.agility.adapters.core.azure;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import javax.xml.bind.JAXBContext;
 
+import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.powermock.reflect.Whitebox;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
 import com.microsoft.schemas.azure.trafficmgr.Definition;
 import com.microsoft.schemas.azure.trafficmgr.Definitions;
 import com.microsoft.schemas.azure.trafficmgr.Error;
@@ -24,8 +42,12 @@ import com.microsoft.schemas.azure.trafficmgr.StatusDetails;
 import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
 import com.servicemesh.agility.adapters.core.azure.exception.AzureErrorException;
 import com.servicemesh.agility.adapters.core.azure.impl.AzureEndpointImpl;
+import com.servicemesh.agility.adapters.core.azure.impl.JaxbPool;
 import com.servicemesh.agility.api.Credential;
 import com.servicemesh.agility.api.Property;
+import com.servicemesh.io.http.HttpStatus;
+import com.servicemesh.io.http.HttpVersion;
+import com.servicemesh.io.http.IHttpResponse;
 import com.servicemesh.io.http.impl.DefaultHttpResponse;
 
 public class TestAzureEndpoint
@@ -78,6 +100,326 @@ public class TestAzureEndpoint
         doSerialization(ep);
     }
 
+    @Test
+    public void testJsonGson() throws Exception
+    {
+        AzureEndpoint ep = createEndpoint(null, Error.class, AzureEndpoint.MediaType.JSON, false);
+        AzureEndpoint ep2 = createEndpoint(null, Error.class, AzureEndpoint.MediaType.JSON, false);
+
+        // Endpoints without type adapters share one Gson per configuration
+        Gson gson = Whitebox.invokeMethod(ep, "getGson", false);
+        Assert.assertSame(gson, Whitebox.invokeMethod(ep, "getGson", false));
+        Assert.assertSame(gson, Whitebox.invokeMethod(ep2, "getGson", false));
+        Assert.assertNotSame(gson, Whitebox.invokeMethod(ep, "getGson", true));
+
+        // Output on the wire is compact unless pretty printing is turned on
+        Error error = new Error();
+        error.setCode("1441");
+        error.setMessage("My Error Message");
+        Assert.assertFalse(ep.isFormattedOutput());
+        String compact = ep.encode(error);
+        ep.setFormattedOutput(true);
+        Assert.assertTrue(ep.isFormattedOutput());
+        Assert.assertTrue(ep.encode(error).contains("\n"));
+        ep.setFormattedOutput(false);
+        Assert.assertFalse(compact.contains("\n"));
+        Error cyError = (Error) doDecode(ep, Error.class, compact);
+        Assert.assertEquals(error.getMessage(), cyError.getMessage());
+
+        // A registered type adapter is used by this endpoint only
+        ep.registerTypeAdapter(Error.class, new JsonSerializer<Error>() {
+            @Override
+            public JsonElement serialize(Error src, Type typeOfSrc, JsonSerializationContext context)
+            {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("Code", src.getCode());
+                obj.addProperty("Message", "adapted");
+                return obj;
+            }
+        });
+        Assert.assertNotSame(gson, Whitebox.invokeMethod(ep, "getGson", false));
+        Assert.assertSame(gson, Whitebox.invokeMethod(ep2, "getGson", false));
+        cyError = (Error) doDecode(ep, Error.class, ep.encode(error));
+        Assert.assertEquals("adapted", cyError.getMessage());
+        cyError = (Error) doDecode(ep2, Error.class, ep2.encode(error));
+        Assert.assertEquals(error.getMessage(), cyError.getMessage());
+    }
+
+    @Test
+    public void testEncodeToBytes() throws Exception
+    {
+        for (AzureEndpoint.MediaType mediaType : AzureEndpoint.MediaType.values()) {
+            for (Level level : new Level[] { Level.INFO, Level.TRACE }) {
+                AzureEndpoint ep = createEndpoint(null, Error.class, mediaType, false);
+                TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), level);
+
+                // Multi-byte characters must survive encoding intact
+                Profile profile = createProfile();
+                profile.setName("Z\u00fcrich \u2013 \u6771\u4eac");
+                byte[] encoded = ep.encodeToBytes(profile);
+                Assert.assertEquals(new String(encoded, StandardCharsets.UTF_8), ep.encode(profile));
+
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                ep.encodeTo(profile, os);
+                Assert.assertArrayEquals(encoded, os.toByteArray());
+                os = new ByteArrayOutputStream();
+                ep.encodeTo(Error.class.getPackage().getName(), profile, os);
+                Assert.assertArrayEquals(encoded, os.toByteArray());
+                Assert.assertArrayEquals(encoded, ep.encodeToBytes(Error.class.getPackage().getName(), profile));
+
+                DefaultHttpResponse response = new DefaultHttpResponse();
+                response.setContent(encoded);
+                verifyProfile(profile, ep.decode(response, Profile.class));
+            }
+            TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.TRACE);
+        }
+    }
+
+    @Test
+    public void testFormattedOutput() throws Exception
+    {
+        AzureEndpointFactory factory = AzureEndpointFactory.getInstance();
+        String pkgName = Error.class.getPackage().getName();
+        final List<String> traced = Collections.synchronizedList(new ArrayList<String>());
+        AppenderSkeleton appender = new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent event)
+            {
+                traced.add(event.getRenderedMessage());
+            }
+
+            @Override
+            public boolean requiresLayout()
+            {
+                return false;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+        Logger logger = TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.TRACE);
+        logger.addAppender(appender);
+        try {
+            for (AzureEndpoint.MediaType mediaType : AzureEndpoint.MediaType.values()) {
+                Profile profile = createProfile();
+
+                // Compact by default, with a pretty printed copy rendered for the trace log
+                AzureEndpoint ep = factory.getEndpoint(SUBSCRIPTION, MS_VERSION, pkgName, Error.class, mediaType);
+                Assert.assertFalse(ep.isFormattedOutput());
+                traced.clear();
+                String compact = ep.encode(profile);
+                Assert.assertFalse(compact.contains("\n"));
+                Assert.assertEquals(1, traced.size());
+                Assert.assertTrue(traced.get(0).contains("\n"));
+
+                // Formatting can be requested per endpoint
+                AzureEndpoint pretty = factory.getEndpoint(SUBSCRIPTION, MS_VERSION, pkgName, Error.class, mediaType, true);
+                Assert.assertTrue(pretty.isFormattedOutput());
+                traced.clear();
+                String formatted = pretty.encode(profile);
+                Assert.assertTrue(formatted.contains("\n"));
+                Assert.assertEquals("encoded: " + formatted, traced.get(0));
+                Assert.assertTrue(compact.length() < formatted.length());
+
+                // Without TRACE nothing extra is rendered
+                logger.setLevel(Level.INFO);
+                traced.clear();
+                Assert.assertEquals(compact, ep.encode(profile));
+                Assert.assertTrue(traced.isEmpty());
+                logger.setLevel(Level.TRACE);
+
+                verifyProfile(profile, (Profile) doDecode(ep, Profile.class, compact));
+            }
+        }
+        finally {
+            logger.removeAppender(appender);
+        }
+    }
+
+    @Test
+    public void testStreamingDecode() throws Exception
+    {
+        for (AzureEndpoint.MediaType mediaType : AzureEndpoint.MediaType.values()) {
+            AzureEndpoint ep = createEndpoint(null, Error.class, mediaType, false);
+            TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.INFO);
+
+            // A successful response is decoded from the stream without materializing the content
+            Profile expProfile = createProfile();
+            IHttpResponse response = mockResponse(ep.encode(expProfile));
+            verifyProfile(expProfile, ep.decode(response, Profile.class));
+            Mockito.verify(response, Mockito.never()).getContent();
+
+            // A response of unknown status is buffered once, so the body can be decoded again as an error
+            if (AzureEndpoint.MediaType.XML == mediaType) {
+                Error error = new Error();
+                error.setCode("1441");
+                error.setMessage("My Error Message");
+                String encodedError = ep.encode(error);
+                response = mockResponse(encodedError);
+                try {
+                    ep.decode(response, Profile.class);
+                    Assert.fail("Expected exception for returned Error");
+                }
+                catch (AzureErrorException aex) {
+                    Assert.assertEquals(error.getCode(), aex.getError(Error.class).getCode());
+                    Assert.assertTrue(aex.getMessage().contains(encodedError));
+                }
+                Mockito.verify(response, Mockito.times(1)).getContentAsStream();
+                Mockito.verify(response, Mockito.never()).getContent();
+            }
+
+            // Responses without a stream fall back to the string content
+            response = Mockito.mock(IHttpResponse.class);
+            Mockito.when(response.getContent()).thenReturn(ep.encode(expProfile));
+            verifyProfile(expProfile, ep.decode(response, Profile.class));
+            TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.TRACE);
+        }
+    }
+
+    @Test
+    public void testSingleReadDecode() throws Exception
+    {
+        final List<String> traced = Collections.synchronizedList(new ArrayList<String>());
+        AppenderSkeleton appender = new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent event)
+            {
+                traced.add(event.getRenderedMessage());
+            }
+
+            @Override
+            public boolean requiresLayout()
+            {
+                return false;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+        Logger logger = TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.TRACE);
+        logger.addAppender(appender);
+        try {
+            for (AzureEndpoint.MediaType mediaType : AzureEndpoint.MediaType.values()) {
+                AzureEndpoint ep = createEndpoint(null, Error.class, mediaType, false);
+                Profile expProfile = createProfile();
+                String encodedProfile = ep.encode(expProfile);
+
+                // The traced body is the one that was decoded, although a network stream can only be read once
+                traced.clear();
+                verifyProfile(expProfile, ep.decode(TestHelpers.streamedResponse(200, encodedProfile), Profile.class));
+                Assert.assertTrue(traced.contains("decoded: " + encodedProfile));
+
+                // Without TRACE the body is decoded straight from the stream
+                logger.setLevel(Level.INFO);
+                verifyProfile(expProfile, ep.decode(TestHelpers.streamedResponse(200, encodedProfile), Profile.class));
+                logger.setLevel(Level.TRACE);
+
+                // An error body of unknown status is still an Azure error after the response class was tried
+                if (AzureEndpoint.MediaType.XML == mediaType) {
+                    Error error = new Error();
+                    error.setCode("1441");
+                    error.setMessage("My Error Message");
+                    String encodedError = ep.encode(error);
+                    for (Level level : new Level[] { Level.INFO, Level.TRACE }) {
+                        logger.setLevel(level);
+                        try {
+                            ep.decode(TestHelpers.streamedResponse(0, encodedError), Profile.class);
+                            Assert.fail("Expected exception for returned Error");
+                        }
+                        catch (AzureErrorException aex) {
+                            Assert.assertEquals(error.getCode(), aex.getError(Error.class).getCode());
+                            Assert.assertTrue(aex.getMessage().contains(encodedError));
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            logger.removeAppender(appender);
+            logger.setLevel(Level.TRACE);
+        }
+    }
+
+    @Test
+    public void testStatusDecode() throws Exception
+    {
+        for (AzureEndpoint.MediaType mediaType : AzureEndpoint.MediaType.values()) {
+            AzureEndpoint ep = createEndpoint(null, Error.class, mediaType, false);
+            Profile expProfile = createProfile();
+            Error error = new Error();
+            error.setCode("ServerBusy");
+            error.setMessage("Too many requests");
+            String encodedError = ep.encode(error);
+
+            // A 2xx response is decoded as the response class only
+            DefaultHttpResponse response = new DefaultHttpResponse();
+            response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, 200, "OK"));
+            response.setContent(ep.encode(expProfile).getBytes(StandardCharsets.UTF_8));
+            verifyProfile(expProfile, ep.decode(response, Profile.class));
+
+            // A non-2xx response with an error body is an Azure error
+            response = new DefaultHttpResponse();
+            response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, 503, "Service Unavailable"));
+            response.setContent(encodedError.getBytes(StandardCharsets.UTF_8));
+            try {
+                ep.decode(response, Profile.class);
+                Assert.fail("Expected exception for error status");
+            }
+            catch (AzureErrorException aex) {
+                Assert.assertEquals(503, aex.getStatusCode());
+                Assert.assertEquals(encodedError, aex.getMessage());
+                Error exError = aex.getError(Error.class);
+                Assert.assertNotNull(exError);
+                Assert.assertEquals(error.getCode(), exError.getCode());
+                Assert.assertEquals(error.getMessage(), exError.getMessage());
+                Assert.assertSame(exError, aex.getError(Error.class));
+            }
+
+            // A non-error body on an error status is not an Azure error, so no caller sees a null error object
+            response = new DefaultHttpResponse();
+            response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, 404, "Not Found"));
+            response.setContent("<html>Not Found</html>".getBytes(StandardCharsets.UTF_8));
+            try {
+                ep.decode(response, Profile.class);
+                Assert.fail("Expected exception for error status");
+            }
+            catch (AzureErrorException aex) {
+                Assert.fail("Unexpected error exception for a body that is not an error object");
+            }
+            catch (AzureAdapterException aae) {
+                Assert.assertEquals("404", aae.getCode());
+            }
+
+            // An error body on a 2xx response is not decoded as an error
+            if (AzureEndpoint.MediaType.XML == mediaType) {
+                response = new DefaultHttpResponse();
+                response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, 200, "OK"));
+                response.setContent(encodedError.getBytes(StandardCharsets.UTF_8));
+                try {
+                    ep.decode(response, Profile.class);
+                    Assert.fail("Expected exception for wrong class returned");
+                }
+                catch (AzureErrorException aex) {
+                    Assert.fail("Unexpected error exception for 2xx status");
+                }
+                catch (AzureAdapterException aae) {
+                }
+            }
+        }
+    }
+
+    private IHttpResponse mockResponse(String content)
+    {
+        IHttpResponse response = Mockito.mock(IHttpResponse.class);
+        Mockito.when(response.getContentAsStream())
+            .thenReturn(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        return response;
+    }
+
     private void doSerialization(AzureEndpoint ep) throws Exception
     {
         // Negative cases of trying to serialize a non-schema class
@@ -290,6 +632,133 @@ public class TestAzureEndpoint
         Assert.assertNull(context);
     }
 
+    @Test
+    public void testContextRegistry() throws Exception
+    {
+        final String pkgName = Error.class.getPackage().getName();
+        final ClassLoader loader = Error.class.getClassLoader();
+        final Class<?> holder = Whitebox.getInnerClassType(AzureEndpointImpl.class, "Holder");
+        AzureEndpointFactory factory = AzureEndpointFactory.getInstance();
+        factory.unregisterContext(pkgName);
+        Assert.assertNull(factory.lookupContext(pkgName));
+
+        // Concurrent requests for the same key all receive the single created context
+        int numThreads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<JAXBContext> contexts = Collections.synchronizedList(new ArrayList<JAXBContext>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        contexts.add((JAXBContext) Whitebox.invokeMethod(holder, "getContext", pkgName, loader));
+                    }
+                    catch (Exception ex) {
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(numThreads, contexts.size());
+        for (JAXBContext context : contexts) {
+            Assert.assertNotNull(context);
+            Assert.assertSame(contexts.get(0), context);
+        }
+        Assert.assertSame(contexts.get(0), factory.lookupContext(pkgName));
+
+        // A different class loader has its own context
+        ClassLoader childLoader = new URLClassLoader(new URL[0], loader);
+        JAXBContext childContext = (JAXBContext) Whitebox.invokeMethod(holder, "getContext", pkgName, childLoader);
+        Assert.assertNotNull(childContext);
+        Assert.assertNotSame(contexts.get(0), childContext);
+
+        // Failed creations are not cached
+        TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.OFF);
+        Assert.assertNull(Whitebox.invokeMethod(holder, "getContext", "foo.bar", loader));
+        TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.TRACE);
+        Assert.assertNull(factory.lookupContext("foo.bar"));
+
+        // Unregistering removes the path for all class loaders
+        factory.unregisterContext(pkgName);
+        Assert.assertNull(factory.lookupContext(pkgName));
+        JAXBContext recreated = (JAXBContext) Whitebox.invokeMethod(holder, "getContext", pkgName, childLoader);
+        Assert.assertNotSame(childContext, recreated);
+    }
+
+    @Test
+    public void testMarshallerPool() throws Exception
+    {
+        final AzureEndpoint ep = createEndpoint(null, Error.class, false);
+        Class<?> holder = Whitebox.getInnerClassType(AzureEndpointImpl.class, "Holder");
+        JaxbPool pool = (JaxbPool) Whitebox.invokeMethod(holder, "getPool", ep.getContext());
+        Assert.assertSame(ep.getContext(), pool.getContext());
+        Assert.assertSame(pool, Whitebox.invokeMethod(holder, "getPool", ep.getContext()));
+
+        // Marshallers and unmarshallers are returned to the pool after use
+        Profile profile = new Profile();
+        profile.setName("pooled");
+        Profile decoded = (Profile) cycleObject(ep, profile);
+        Assert.assertEquals(profile.getName(), decoded.getName());
+        Assert.assertTrue(pool.getIdleMarshallers() >= 1);
+        Assert.assertTrue(pool.getIdleUnmarshallers() >= 1);
+
+        // Concurrent use never shares an instance between threads
+        int numThreads = 8;
+        final int iterations = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < numThreads; i++) {
+            final String name = "profile-" + i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        for (int j = 0; j < iterations; j++) {
+                            Profile p = new Profile();
+                            p.setName(name + "-" + j);
+                            DefaultHttpResponse response = new DefaultHttpResponse();
+                            response.setContent(new ByteArrayInputStream(ep.encode(p).getBytes(StandardCharsets.UTF_8)));
+                            Profile result = ep.decode(response, Profile.class);
+                            if (!p.getName().equals(result.getName())) {
+                                failures.add(p.getName() + " != " + result.getName());
+                            }
+                        }
+                    }
+                    catch (Exception ex) {
+                        failures.add(ex.toString());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.OFF);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        TestHelpers.setLogLevel(AzureEndpointImpl.class.getName(), Level.TRACE);
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+        Assert.assertTrue(pool.getIdleMarshallers() <= JaxbPool.DEFAULT_MAX_IDLE);
+        Assert.assertTrue(pool.getIdleUnmarshallers() <= JaxbPool.DEFAULT_MAX_IDLE);
+
+        // A context the registry did not create gets an unshared pool
+        JAXBContext unregistered = JAXBContext.newInstance(Error.class.getPackage().getName(), Error.class.getClassLoader());
+        Assert.assertNotSame(Whitebox.invokeMethod(holder, "getPool", unregistered),
+                             Whitebox.invokeMethod(holder, "getPool", unregistered));
+    }
+
     private <E> AzureEndpoint createEndpoint(String msContextPath, Class<E> msErrorClass, boolean throwing) throws Exception
     {
         return createEndpoint(msContextPath, msErrorClass,
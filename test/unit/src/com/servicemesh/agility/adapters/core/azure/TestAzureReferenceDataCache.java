@@ -0,0 +1,144 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import com.servicemesh.agility.adapters.core.azure.impl.ObjectSizer;
+import com.servicemesh.agility.api.Cloud;
+import com.servicemesh.agility.api.Property;
+import com.servicemesh.core.async.CompletablePromise;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+import com.servicemesh.io.http.QueryParams;
+
+public class TestAzureReferenceDataCache
+{
+    @Test
+    public void testReadThrough() throws Throwable
+    {
+        AzureReferenceDataCache cache = AzureReferenceDataCache.getInstance();
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureReferenceDataCache.property(Config.REFERENCE_DATA_TTL, "300"));
+        settings.add(TestAzureReferenceDataCache.property(Config.REFERENCE_DATA_REFRESH_AHEAD, "50"));
+        settings.add(TestAzureReferenceDataCache.property(Config.REFERENCE_DATA_STALE, "300"));
+        AzureConnection conn = TestAzureReferenceDataCache.mockConnection("refdata-" + System.nanoTime());
+
+        // Concurrent misses share one retrieval
+        Cloud first = TestAzureReferenceDataCache.cloud("first");
+        Cloud second = TestAzureReferenceDataCache.cloud("second");
+        CompletablePromise<Cloud> pending = PromiseFactory.create();
+        Mockito.when(conn.get(Matchers.anyString(), Matchers.any(QueryParams.class), Matchers.eq(Cloud.class)))
+            .thenReturn(pending, Promise.pure(second));
+        Promise<Cloud> a = cache.get(settings, conn, "locations", Cloud.class);
+        Promise<Cloud> b = cache.get(settings, conn, "locations", Cloud.class);
+        Assert.assertFalse(a.isCompleted());
+        pending.complete(first);
+        Assert.assertSame(first, a.get());
+        Assert.assertSame(first, b.get());
+        Assert.assertSame(first, cache.get(settings, conn, "locations", Cloud.class).get());
+        Mockito.verify(conn, Mockito.times(1)).get("locations", null, Cloud.class);
+        Assert.assertTrue(cache.getWeight() > 0);
+
+        // Past the refresh-ahead point the cached value is returned while it is refreshed
+        Thread.sleep(200);
+        Assert.assertSame(first, cache.get(settings, conn, "locations", Cloud.class).get());
+        Mockito.verify(conn, Mockito.times(2)).get("locations", null, Cloud.class);
+        Assert.assertSame(second, cache.get(settings, conn, "locations", Cloud.class).get());
+
+        // An expired value is returned while stale, then retrieved again
+        CompletablePromise<Cloud> refresh = PromiseFactory.create();
+        Mockito.when(conn.get(Matchers.anyString(), Matchers.any(QueryParams.class), Matchers.eq(Cloud.class)))
+            .thenReturn(refresh, PromiseFactory.<Cloud> create());
+        Thread.sleep(350);
+        Assert.assertSame(second, cache.get(settings, conn, "locations", Cloud.class).get());
+        Assert.assertSame(second, cache.get(settings, conn, "locations", Cloud.class).get());
+        Mockito.verify(conn, Mockito.times(3)).get("locations", null, Cloud.class);
+        refresh.failure(new Exception("unavailable"));
+        Thread.sleep(400);
+        Assert.assertFalse(cache.get(settings, conn, "locations", Cloud.class).isCompleted());
+
+        cache.invalidate(conn.getEndpoint().getSubscription());
+    }
+
+    @Test
+    public void testSizeBound() throws Throwable
+    {
+        AzureReferenceDataCache cache = AzureReferenceDataCache.getInstance();
+        AzureConnection conn = TestAzureReferenceDataCache.mockConnection("refdata-" + System.nanoTime());
+        Cloud small = TestAzureReferenceDataCache.cloud("small");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("large");
+        }
+        Cloud large = TestAzureReferenceDataCache.cloud(sb.toString());
+        Assert.assertTrue(ObjectSizer.estimate(large) > ObjectSizer.estimate(small) + 9000);
+        Assert.assertEquals(0, ObjectSizer.estimate(null));
+
+        // The value of a JAXB element is counted
+        JAXBElement<Cloud> element = new JAXBElement<Cloud>(new QName("urn:test", "cloud"), Cloud.class, large);
+        Assert.assertTrue(ObjectSizer.estimate(element) > ObjectSizer.estimate(large));
+
+        List<Property> settings = new ArrayList<Property>();
+        settings.add(TestAzureReferenceDataCache.property(Config.REFERENCE_DATA_MAX_BYTES,
+                String.valueOf(ObjectSizer.estimate(large) + ObjectSizer.estimate(small) / 2)));
+        Mockito.when(conn.get("rolesizes", null, Cloud.class)).thenReturn(Promise.pure(small));
+        Mockito.when(conn.get("images", null, Cloud.class)).thenReturn(Promise.pure(large));
+
+        long evictions = cache.getEvictions();
+        Assert.assertSame(small, cache.get(settings, conn, "rolesizes", Cloud.class).get());
+        Assert.assertSame(large, cache.get(settings, conn, "images", Cloud.class).get());
+        Assert.assertEquals(evictions + 1, cache.getEvictions());
+
+        // The least recently used entry was evicted
+        Assert.assertSame(large, cache.get(settings, conn, "images", Cloud.class).get());
+        Mockito.verify(conn, Mockito.times(1)).get("images", null, Cloud.class);
+        cache.get(settings, conn, "rolesizes", Cloud.class).get();
+        Mockito.verify(conn, Mockito.times(2)).get("rolesizes", null, Cloud.class);
+
+        // A zero TTL disables caching
+        settings.add(TestAzureReferenceDataCache.property(Config.REFERENCE_DATA_TTL, "0"));
+        cache.get(settings, conn, "images", Cloud.class).get();
+        Mockito.verify(conn, Mockito.times(2)).get("images", null, Cloud.class);
+
+        cache.invalidate(conn.getEndpoint().getSubscription());
+    }
+
+    private static AzureConnection mockConnection(String subscription)
+    {
+        AzureEndpoint endpoint = Mockito.mock(AzureEndpoint.class);
+        Mockito.when(endpoint.getSubscription()).thenReturn(subscription);
+        Mockito.when(endpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        Mockito.when(endpoint.getMsVersion()).thenReturn("2012-08-01");
+        AzureConnection conn = Mockito.mock(AzureConnection.class);
+        Mockito.when(conn.getEndpoint()).thenReturn(endpoint);
+        return conn;
+    }
+
+    private static Cloud cloud(String name)
+    {
+        Cloud cloud = new Cloud();
+        cloud.setName(name);
+        return cloud;
+    }
+
+    private static Property property(String name, String value)
+    {
+        Property property = new Property();
+        property.setName(name);
+        property.setValue(value);
+        return property;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureErrorException;
+import com.servicemesh.core.async.CompletablePromise;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+import com.servicemesh.io.http.QueryParams;
+
+public class TestAzureSyncConnection
+{
+    @Test
+    public void testSync() throws Exception
+    {
+        AzureConnection conn = Mockito.mock(AzureConnection.class);
+        AzureSyncConnection sync = new AzureSyncConnection(conn);
+        Assert.assertSame(conn, sync.getConnection());
+
+        Mockito.when(conn.get("ok", null, String.class, null)).thenReturn(Promise.pure("value"));
+        Assert.assertEquals("value", sync.get("ok", null, String.class, null));
+
+        AzureAdapterException deadline = new AzureAdapterException(AzureAdapterException.DEADLINE_EXCEEDED, "late");
+        Mockito.when(conn.get("late", null, String.class, null)).thenReturn(Promise.<String> pure(deadline));
+        try {
+            sync.get("late", null, String.class, null);
+            Assert.fail("Expected failure");
+        }
+        catch (AzureAdapterException e) {
+            Assert.assertSame(deadline, e);
+        }
+
+        // An error response keeps its exception type, while a checked failure is wrapped
+        AzureErrorException error = new AzureErrorException(null, "Not found", 404);
+        Mockito.when(conn.get("missing", null, String.class, null)).thenReturn(Promise.<String> pure(error));
+        try {
+            sync.get("missing", null, String.class, null);
+            Assert.fail("Expected failure");
+        }
+        catch (AzureErrorException e) {
+            Assert.assertSame(error, e);
+        }
+        Mockito.when(conn.get("bad", null, String.class, null)).thenReturn(Promise.<String> pure(new IOException("reset")));
+        try {
+            sync.get("bad", null, String.class, null);
+            Assert.fail("Expected failure");
+        }
+        catch (AzureAdapterException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+
+        // Interrupting the waiting thread cancels the request
+        final CompletablePromise<String> pending = PromiseFactory.create();
+        Mockito.when(conn.get("slow", null, String.class, null)).thenReturn(pending);
+        Thread.currentThread().interrupt();
+        try {
+            sync.get("slow", null, String.class, null);
+            Assert.fail("Expected interrupt");
+        }
+        catch (AzureAdapterException e) {
+            Assert.assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        Assert.assertTrue(Thread.interrupted());
+        Assert.assertTrue(pending.isCancelled());
+
+        try {
+            new AzureSyncConnection(null);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception
+    {
+        // Many blocked callers whose responses are completed by a single I/O thread
+        final int callers = 1000;
+        final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor();
+        try {
+            AzureConnection conn = Mockito.mock(AzureConnection.class);
+            Mockito.when(conn.get(Matchers.anyString(), Matchers.any(QueryParams.class), Matchers.eq(String.class),
+                    Matchers.any(AzureRequestOptions.class))).thenAnswer(new Answer<Promise<String>>() {
+                        @Override
+                        public Promise<String> answer(InvocationOnMock invocation)
+                        {
+                            final String uri = (String) invocation.getArguments()[0];
+                            final CompletablePromise<String> promise = PromiseFactory.create();
+                            io.schedule(new Runnable() {
+                                @Override
+                                public void run()
+                                {
+                                    promise.complete(uri);
+                                }
+                            }, 5, TimeUnit.MILLISECONDS);
+                            return promise;
+                        }
+                    });
+            final AzureSyncConnection sync = new AzureSyncConnection(conn);
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(callers);
+            final AtomicInteger succeeded = new AtomicInteger();
+            for (int i = 0; i < callers; i++) {
+                final String uri = "op" + i;
+                Thread caller = new Thread(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            start.await();
+                            if (uri.equals(sync.get(uri, null, String.class, AzureRequestOptions.NONE))) {
+                                succeeded.incrementAndGet();
+                            }
+                        }
+                        catch (Exception e) {
+                        }
+                        finally {
+                            done.countDown();
+                        }
+                    }
+                });
+                caller.setDaemon(true);
+                caller.start();
+            }
+            start.countDown();
+            Assert.assertTrue(done.await(60, TimeUnit.SECONDS));
+            Assert.assertEquals(callers, succeeded.get());
+        }
+        finally {
+            io.shutdownNow();
+        }
+    }
+}
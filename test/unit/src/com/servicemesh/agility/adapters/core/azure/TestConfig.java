@@ -72,6 +72,27 @@ public class TestConfig
                             Config.getSocketTimeout(settings));
     }
 
+    @Test
+    public void testRetryProperty() throws Exception
+    {
+        List<Property> settings = null;
+        Assert.assertEquals(Config.RETRY_MAX_RETRIES_DEFAULT, Config.getRetryMaxRetries(settings));
+        Assert.assertEquals(Config.RETRY_BASE_DELAY_DEFAULT_MILLIS, Config.getRetryBaseDelay(settings));
+        Assert.assertEquals(Config.RETRY_MAX_DELAY_DEFAULT_SECS * 1000, Config.getRetryMaxDelay(settings));
+        Assert.assertEquals(Config.RETRY_BUDGET_DEFAULT, Config.getRetryBudget(settings));
+        Assert.assertEquals(Config.RETRY_BUDGET_REFILL_DEFAULT, Config.getRetryBudgetRefill(settings));
+        Assert.assertEquals(Config.RETRYABLE_STATUS_CODES_DEFAULT, Config.getRetryableStatusCodes(settings));
+        Assert.assertEquals(Config.RETRYABLE_ERROR_CODES_DEFAULT, Config.getRetryableErrorCodes(settings));
+
+        settings = new ArrayList<Property>();
+        Property statusCodes = new Property();
+        statusCodes.setName(Config.RETRYABLE_STATUS_CODES);
+        statusCodes.setValue("503");
+        settings.add(statusCodes);
+        Assert.assertEquals(statusCodes.getValue(), Config.getRetryableStatusCodes(settings));
+        Assert.assertEquals("dflt", Config.getProperty("missing", settings, "dflt"));
+    }
+
     @Test
     public void testAssetProperty() throws Exception
     {
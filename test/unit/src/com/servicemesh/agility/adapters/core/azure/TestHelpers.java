@@ -4,9 +4,15 @@
  */
 package com.servicemesh.agility.adapters.core.azure;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.ConsoleAppender;
@@ -20,6 +26,7 @@ import com.servicemesh.agility.adapters.core.azure.exception.AzureErrorException
 import com.servicemesh.agility.api.Credential;
 import com.servicemesh.core.async.Promise;
 import com.servicemesh.io.http.HttpStatus;
+import com.servicemesh.io.http.HttpVersion;
 import com.servicemesh.io.http.IHttpHeader;
 import com.servicemesh.io.http.IHttpResponse;
 
@@ -155,6 +162,61 @@ public class TestHelpers
         return obj;
     }
 
+    /**
+     * Returns a response whose body is a single stream, like one read from the network, so that it can only be read once
+     */
+    public static IHttpResponse streamedResponse(final int status, String body)
+    {
+        final InputStream stream = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        return new IHttpResponse() {
+            @Override
+            public HttpStatus getStatus()
+            {
+                return new HttpStatus(HttpVersion.HTTP_1_1, status, "");
+            }
+
+            @Override
+            public int getStatusCode()
+            {
+                return status;
+            }
+
+            @Override
+            public List<IHttpHeader> getHeaders()
+            {
+                return new ArrayList<IHttpHeader>();
+            }
+
+            @Override
+            public IHttpHeader getHeader(String name)
+            {
+                return null;
+            }
+
+            @Override
+            public String getContent()
+            {
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    int b;
+                    while ((b = stream.read()) != -1) {
+                        out.write(b);
+                    }
+                    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public InputStream getContentAsStream()
+            {
+                return stream;
+            }
+        };
+    }
+
     public static String headersToString(List<IHttpHeader> headers)
     {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,86 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import com.servicemesh.agility.adapters.core.azure.AzureConnection;
+import com.servicemesh.agility.adapters.core.azure.AzureEndpoint;
+import com.servicemesh.agility.adapters.core.azure.TestHelpers;
+import com.servicemesh.core.async.CompletablePromise;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+import com.servicemesh.io.http.IHttpResponse;
+import com.servicemesh.io.http.QueryParams;
+import com.servicemesh.io.http.impl.DefaultHttpResponse;
+
+public class TestBatchPoller
+{
+    @Test
+    public void testBatching() throws Throwable
+    {
+        AzureEndpoint endpoint = Mockito.mock(AzureEndpoint.class);
+        Mockito.when(endpoint.getSubscription()).thenReturn("batch-subscription");
+        Mockito.when(endpoint.getAddress()).thenReturn(AzureEndpoint.DEFAULT_ADDRESS);
+        AzureConnection conn1 = Mockito.mock(AzureConnection.class);
+        AzureConnection conn2 = Mockito.mock(AzureConnection.class);
+        Mockito.when(conn1.getEndpoint()).thenReturn(endpoint);
+        Mockito.when(conn2.getEndpoint()).thenReturn(endpoint);
+        CompletablePromise<IHttpResponse> deployment = PromiseFactory.create();
+        CompletablePromise<IHttpResponse> other = PromiseFactory.create();
+        Mockito.when(conn1.get("deployments/d1", null, IHttpResponse.class)).thenReturn(deployment);
+        Mockito.when(conn1.get("deployments/d2", null, IHttpResponse.class)).thenReturn(other);
+
+        // Polls of the same parent share one GET, even through different connections to the subscription
+        BatchPoller batcher = new BatchPoller(100);
+        Promise<IHttpResponse> role1 = batcher.poll(conn1, "deployments/d1");
+        Promise<IHttpResponse> role2 = batcher.poll(conn2, "deployments/d1");
+        Promise<IHttpResponse> role3 = batcher.poll(conn1, "deployments/d1");
+        Promise<IHttpResponse> role4 = batcher.poll(conn1, "deployments/d2");
+        Assert.assertEquals(4, batcher.getPolls());
+        Assert.assertEquals(2, batcher.getRequests());
+        Assert.assertEquals(2, batcher.size());
+        Mockito.verify(conn2, Mockito.never()).get(Matchers.anyString(), Matchers.any(QueryParams.class),
+                Matchers.eq(IHttpResponse.class));
+
+        // Cancelling one poller's promise does not cancel the shared GET
+        role3.cancel();
+        Assert.assertFalse(deployment.isCancelled());
+        // The response is buffered once, so every poller can read the body of a streamed response
+        String body = "<Deployment><RoleInstanceList>"
+                + "<RoleInstance><RoleName>r1</RoleName><InstanceStatus>ReadyRole</InstanceStatus></RoleInstance>"
+                + "<RoleInstance><RoleName>r2</RoleName><InstanceStatus>BusyRole</InstanceStatus></RoleInstance>"
+                + "</RoleInstanceList></Deployment>";
+        deployment.complete(TestHelpers.streamedResponse(200, body));
+        IHttpResponse response = role1.get();
+        Assert.assertSame(response, role2.get());
+        Assert.assertEquals(200, response.getStatusCode());
+        StatusProbe probe = new StatusProbe("Deployment", "RoleInstanceList", "RoleInstance", "InstanceStatus");
+        Assert.assertEquals("ReadyRole", probe.probe(role1.get()));
+        Assert.assertEquals("ReadyRole", probe.probe(role2.get()));
+        Assert.assertEquals(body, role2.get().getContent());
+        Assert.assertTrue(role3.isCancelled());
+        Assert.assertFalse(role4.isCompleted());
+
+        // A poll within the window after the GET was sent shares its response; a later poll sends a new GET
+        Assert.assertSame(response, batcher.poll(conn1, "deployments/d1").get());
+        Assert.assertEquals(2, batcher.getRequests());
+        Thread.sleep(150);
+        DefaultHttpResponse fresh = new DefaultHttpResponse();
+        fresh.setContent("fresh".getBytes(StandardCharsets.UTF_8));
+        Mockito.when(conn1.get("deployments/d1", null, IHttpResponse.class)).thenReturn(Promise.<IHttpResponse> pure(fresh));
+        Assert.assertEquals("fresh", batcher.poll(conn1, "deployments/d1").get().getContent());
+        Assert.assertEquals(3, batcher.getRequests());
+
+        // A failed GET fails every poll that shared it
+        other.failure(new Exception("unavailable"));
+        Assert.assertTrue(role4.isFailed());
+    }
+}
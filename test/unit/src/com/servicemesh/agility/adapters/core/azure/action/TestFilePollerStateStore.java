@@ -0,0 +1,210 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+
+public class TestFilePollerStateStore
+{
+    private File _journal;
+
+    @Before
+    public void before() throws Exception
+    {
+        _journal = File.createTempFile("pollers", ".journal");
+        _journal.delete();
+    }
+
+    @After
+    public void after()
+    {
+        _journal.delete();
+        new File(_journal.getPath() + ".compact").delete();
+    }
+
+    private static PollerState state(long reqId, long retries, long timeout)
+    {
+        return new PollerState(reqId, "TestPoller", "services/hostedservices/hs/deployments/d" + reqId, "Running", retries,
+                timeout, System.currentTimeMillis());
+    }
+
+    @Test
+    public void testRecovery() throws Exception
+    {
+        FilePollerStateStore store = new FilePollerStateStore(_journal);
+        Assert.assertTrue(store.recover().isEmpty());
+        store.checkpoint(state(1, 10, 0));
+        store.checkpoint(state(2, 10, 60000));
+        store.checkpoint(new PollerState(3, "TestPoller", null, "Created", 5, 0, System.currentTimeMillis()));
+        store.checkpoint(state(1, 9, 0));
+        store.remove(2);
+        store.remove(42);
+        Assert.assertEquals(5, store.getRecordCount());
+        store.close();
+        store.close();
+        try {
+            store.checkpoint(state(4, 1, 0));
+            Assert.fail("Checkpoint accepted after close");
+        }
+        catch (AzureAdapterException e) {
+        }
+
+        // The latest checkpoint of each operation that was not removed survives a restart
+        store = new FilePollerStateStore(_journal);
+        List<PollerState> states = new ArrayList<PollerState>(store.recover());
+        Assert.assertEquals(2, states.size());
+        Assert.assertEquals(1, states.get(0).getReqId());
+        Assert.assertEquals(9, states.get(0).getRemainingRetries());
+        Assert.assertEquals("services/hostedservices/hs/deployments/d1", states.get(0).getTargetURI());
+        Assert.assertEquals("Running", states.get(0).getDesiredState());
+        Assert.assertEquals("TestPoller", states.get(0).getPollerType());
+        Assert.assertEquals(0, states.get(0).getRemainingTimeout());
+        Assert.assertEquals(3, states.get(1).getReqId());
+        Assert.assertNull(states.get(1).getTargetURI());
+        store.close();
+
+        // A record torn by a crash is discarded and the journal remains usable
+        long length = _journal.length();
+        FileOutputStream out = new FileOutputStream(_journal, true);
+        out.write(new byte[] { 0, 0, 0, 40, 1, 0, 0 });
+        out.close();
+        store = new FilePollerStateStore(_journal);
+        Assert.assertEquals(2, store.recover().size());
+        Assert.assertEquals(length, _journal.length());
+        store.checkpoint(state(5, 1, 0));
+        store.close();
+        store = new FilePollerStateStore(_journal, true);
+        Assert.assertEquals(3, store.recover().size());
+        store.close();
+    }
+
+    @Test
+    public void testWriteFailure() throws Exception
+    {
+        FilePollerStateStore store = new FilePollerStateStore(_journal);
+        store.checkpoint(state(1, 10, 0));
+        store.checkpoint(state(2, 10, 0));
+        long length = _journal.length();
+
+        // A write that fails part way through is truncated before the next record is appended
+        FileOutputStream torn = new FileOutputStream(_journal, true) {
+            @Override
+            public void write(byte[] b) throws IOException
+            {
+                super.write(b, 0, b.length / 2);
+                throw new IOException("No space left on device");
+            }
+        };
+        Whitebox.setInternalState(store, "_file", torn);
+        try {
+            store.checkpoint(state(3, 10, 0));
+            Assert.fail("Failed write accepted");
+        }
+        catch (AzureAdapterException e) {
+            Assert.assertTrue(e.getMessage().contains("No space left on device"));
+        }
+        Assert.assertEquals(length, _journal.length());
+        Assert.assertEquals(2, store.recover().size());
+
+        // A removal that is not written leaves the state live, so that it is retried
+        Whitebox.setInternalState(store, "_file", torn);
+        try {
+            store.remove(1);
+            Assert.fail("Failed write accepted");
+        }
+        catch (AzureAdapterException e) {
+        }
+        Assert.assertEquals(length, _journal.length());
+        Assert.assertEquals(2, store.recover().size());
+        store.remove(1);
+        store.checkpoint(state(4, 10, 0));
+        store.close();
+
+        store = new FilePollerStateStore(_journal);
+        List<PollerState> states = new ArrayList<PollerState>(store.recover());
+        Assert.assertEquals(2, states.size());
+        Assert.assertEquals(2, states.get(0).getReqId());
+        Assert.assertEquals(4, states.get(1).getReqId());
+        Assert.assertEquals(4, store.getRecordCount());
+
+        // A failed compaction leaves the journal as it was and the store usable
+        File blocked = new File(_journal.getPath() + ".compact");
+        Assert.assertTrue(blocked.mkdir());
+        try {
+            store.compact();
+            Assert.fail("Failed compaction accepted");
+        }
+        catch (AzureAdapterException e) {
+        }
+        store.checkpoint(state(5, 10, 0));
+        Assert.assertTrue(blocked.delete());
+        store.compact();
+        Assert.assertEquals(3, store.getRecordCount());
+        store.close();
+        store = new FilePollerStateStore(_journal);
+        Assert.assertEquals(3, store.recover().size());
+        store.close();
+    }
+
+    @Test
+    public void testRemainingTimeout() throws Exception
+    {
+        PollerState state = new PollerState(1, "TestPoller", null, "Running", 1, 60000, System.currentTimeMillis() - 1000);
+        Assert.assertTrue(state.getRemainingTimeout() <= 59000 && state.getRemainingTimeout() > 58000);
+        state = new PollerState(1, "TestPoller", null, "Running", 1, 60000, System.currentTimeMillis() - 120000);
+        Assert.assertEquals(1, state.getRemainingTimeout());
+
+        // The timeout keeps counting down while the adapter is stopped
+        FilePollerStateStore store = new FilePollerStateStore(_journal);
+        store.checkpoint(new PollerState(1, "TestPoller", null, "Running", 1, 60000, System.currentTimeMillis() - 10000));
+        store.compact();
+        store.close();
+        store = new FilePollerStateStore(_journal);
+        long remaining = store.recover().iterator().next().getRemainingTimeout();
+        Assert.assertTrue(remaining <= 50000 && remaining > 49000);
+        store.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        FilePollerStateStore store = new FilePollerStateStore(_journal);
+        for (int poll = 0; poll < 100; poll++) {
+            for (long reqId = 0; reqId < 20; reqId++) {
+                store.checkpoint(state(reqId, 100 - poll, 0));
+            }
+        }
+        for (long reqId = 0; reqId < 10; reqId++) {
+            store.remove(reqId);
+        }
+
+        // The journal is rewritten to the live states whenever it grows to more than twice their number
+        Assert.assertTrue(store.getRecordCount() < 1024);
+        store.close();
+        store = new FilePollerStateStore(_journal);
+        List<PollerState> states = new ArrayList<PollerState>(store.recover());
+        Assert.assertEquals(10, states.size());
+        for (PollerState state : states) {
+            Assert.assertTrue(state.getReqId() >= 10);
+            Assert.assertEquals(1, state.getRemainingRetries());
+        }
+        store.compact();
+        Assert.assertEquals(10, store.getRecordCount());
+        store.close();
+        Assert.assertFalse(new File(_journal.getPath() + ".compact").exists());
+    }
+}
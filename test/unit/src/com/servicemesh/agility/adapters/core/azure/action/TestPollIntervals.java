@@ -0,0 +1,71 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.servicemesh.agility.adapters.core.azure.impl.RetryPolicy;
+import com.servicemesh.io.http.HttpClientFactory;
+import com.servicemesh.io.http.HttpStatus;
+import com.servicemesh.io.http.HttpVersion;
+import com.servicemesh.io.http.impl.DefaultHttpResponse;
+
+public class TestPollIntervals
+{
+    @Test
+    public void testStrategies() throws Exception
+    {
+        PollIntervalStrategy fixed = PollIntervals.fixed(1000);
+        Assert.assertEquals(1000, fixed.nextInterval(1, 0, null));
+        Assert.assertEquals(1000, fixed.nextInterval(10, 60000, null));
+
+        PollIntervalStrategy exponential = PollIntervals.exponential(500, 2, 3000);
+        Assert.assertEquals(500, exponential.nextInterval(1, 0, null));
+        Assert.assertEquals(1000, exponential.nextInterval(2, 0, null));
+        Assert.assertEquals(2000, exponential.nextInterval(3, 0, null));
+        Assert.assertEquals(3000, exponential.nextInterval(4, 0, null));
+        Assert.assertEquals(3000, exponential.nextInterval(1000, 0, null));
+
+        PollIntervalStrategy jittered = PollIntervals.jittered(fixed, 20);
+        for (int i = 0; i < 100; i++) {
+            long interval = jittered.nextInterval(1, 0, null);
+            Assert.assertTrue(interval >= 800 && interval <= 1200);
+        }
+
+        PollIntervalStrategy retryAfter = PollIntervals.retryAfter(fixed, 10000);
+        DefaultHttpResponse response = new DefaultHttpResponse();
+        response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, 202, ""));
+        Assert.assertEquals(1000, retryAfter.nextInterval(1, 0, response));
+        response.setHeader(HttpClientFactory.getInstance().createHeader(RetryPolicy.RETRY_AFTER_HEADER, "5"));
+        Assert.assertEquals(5000, retryAfter.nextInterval(1, 0, response));
+        response = new DefaultHttpResponse();
+        response.setHeader(HttpClientFactory.getInstance().createHeader(RetryPolicy.RETRY_AFTER_HEADER, "60"));
+        Assert.assertEquals(10000, retryAfter.nextInterval(1, 0, response));
+
+        // The typical completion time is used once enough operations of the type have completed
+        PollIntervals.clearHistory();
+        PollIntervalStrategy history = PollIntervals.history("CreateVirtualMachine", fixed);
+        Assert.assertEquals(1000, history.nextInterval(1, 0, null));
+        for (int i = 0; i < PollIntervals.History.MIN_SAMPLES; i++) {
+            history.onSuccess(60000);
+        }
+        Assert.assertEquals(60000, PollIntervals.History.getTypical("CreateVirtualMachine"));
+        Assert.assertEquals(-1, PollIntervals.History.getTypical("DeleteVirtualMachine"));
+        Assert.assertEquals(50000, history.nextInterval(1, 10000, null));
+        Assert.assertEquals(1000, history.nextInterval(2, 59500, null));
+        Assert.assertEquals(1000, history.nextInterval(3, 70000, null));
+        history.onSuccess(10000);
+        Assert.assertEquals(50000, PollIntervals.History.getTypical("CreateVirtualMachine"));
+        PollIntervals.clearHistory();
+
+        try {
+            PollIntervals.jittered(null, 10);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+}
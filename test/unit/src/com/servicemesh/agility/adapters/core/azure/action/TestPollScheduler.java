@@ -0,0 +1,105 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.servicemesh.core.reactor.TimerHandler;
+
+public class TestPollScheduler
+{
+    @Test
+    public void testSchedule() throws Exception
+    {
+        PollScheduler scheduler = new PollScheduler(1, 2);
+        try {
+            // Timers in the lowest wheel and timers cascaded from the level above fire in order and not early
+            final List<Long> fired = new CopyOnWriteArrayList<Long>();
+            final CountDownLatch done = new CountDownLatch(3);
+            long start = System.currentTimeMillis();
+            for (final long delay : new long[] { 300, 10, 120 }) {
+                scheduler.schedule(new TimerHandler() {
+                    @Override
+                    public long timerFire(long scheduledTime, long actualTime)
+                    {
+                        Assert.assertTrue(actualTime >= scheduledTime);
+                        fired.add(delay);
+                        done.countDown();
+                        return 0;
+                    }
+                }, delay);
+            }
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(java.util.Arrays.asList(10L, 120L, 300L), fired);
+            Assert.assertTrue(System.currentTimeMillis() - start >= 300);
+            Assert.assertEquals(0, scheduler.getPending());
+
+            // A handler that returns a time in the future is fired again
+            final AtomicInteger count = new AtomicInteger();
+            final CountDownLatch repeated = new CountDownLatch(3);
+            scheduler.schedule(new TimerHandler() {
+                @Override
+                public long timerFire(long scheduledTime, long actualTime)
+                {
+                    repeated.countDown();
+                    return (count.incrementAndGet() < 3) ? System.currentTimeMillis() + 5 : 0;
+                }
+            }, 0);
+            Assert.assertTrue(repeated.await(5, TimeUnit.SECONDS));
+
+            // A cancelled timer does not fire, including one beyond the span of the wheels
+            final AtomicInteger cancelledFired = new AtomicInteger();
+            TimerHandler handler = new TimerHandler() {
+                @Override
+                public long timerFire(long scheduledTime, long actualTime)
+                {
+                    cancelledFired.incrementAndGet();
+                    return 0;
+                }
+            };
+            PollScheduler.Timeout near = scheduler.schedule(handler, 20);
+            PollScheduler.Timeout far = scheduler.schedule(handler, TimeUnit.DAYS.toMillis(365));
+            Assert.assertEquals(2, scheduler.getPending());
+            near.cancel();
+            far.cancel();
+            Assert.assertTrue(far.isCancelled());
+            Thread.sleep(100);
+            Assert.assertEquals(0, cancelledFired.get());
+            Assert.assertEquals(1, scheduler.getPending());
+
+            Assert.assertEquals(6, scheduler.getFired());
+            Assert.assertTrue(scheduler.getWakeups() > 0);
+            Assert.assertTrue(scheduler.getWastedTicks() >= 0);
+        }
+        finally {
+            scheduler.shutdown();
+        }
+        try {
+            scheduler.schedule(null, 0);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+        }
+        try {
+            scheduler.schedule(new TimerHandler() {
+                @Override
+                public long timerFire(long scheduledTime, long actualTime)
+                {
+                    return 0;
+                }
+            }, 0);
+            Assert.fail("Expected IllegalStateException after shutdown");
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+}
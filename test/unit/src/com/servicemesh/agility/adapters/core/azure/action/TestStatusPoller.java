@@ -6,6 +6,10 @@ package com.servicemesh.agility.adapters.core.azure.action;
 
 import static org.mockito.Mockito.mock;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.junit.Assert;
@@ -31,6 +35,8 @@ public class TestStatusPoller
     public void before()
     {
         TestHelpers.initLogger(Level.DEBUG);
+        _runPromise = null;
+        _runAbort = false;
     }
 
     private class PollerResponse extends Response
@@ -48,6 +54,8 @@ public class TestStatusPoller
         private static final long serialVersionUID = 20150715;
         private Logger _logger = Logger.getLogger(Poller.class);
         private Object _decoded = null;
+        private String _decodedContent = null;
+        private StatusProbe _probe = null;
         private String _status;
         private boolean _failedState;
         private boolean _updateResponseAbort = false;
@@ -59,6 +67,13 @@ public class TestStatusPoller
                   conn, retryOn404);
         }
 
+        public Poller(Request request, PollIntervalStrategy intervalStrategy,
+                      long timeout, String desiredState, AzureConnection conn)
+        {
+            super(request, _responsePromise, intervalStrategy, timeout,
+                  desiredState, conn, false);
+        }
+
         @Override
         public Promise<IHttpResponse> run()
         {
@@ -70,6 +85,9 @@ public class TestStatusPoller
         @Override
         public Object decode(IHttpResponse response)
         {
+            if (_probe != null) {
+                _decodedContent = response.getContent();
+            }
             return _decoded;
         }
 
@@ -81,7 +99,12 @@ public class TestStatusPoller
         @Override
         public String getStatus(IHttpResponse response)
         {
-            return _status;
+            return (_probe != null) ? _probe.probe(response) : _status;
+        }
+
+        public void setProbe(StatusProbe probe)
+        {
+            _probe = probe;
         }
 
         public void setStatus(String status)
@@ -243,6 +266,222 @@ public class TestStatusPoller
         poller.setStatus(desiredState);
         status = Status.COMPLETE;
         doFire("200 response => success ", poller, false, status);
+
+        // A streamed response is probed for its status and then decoded
+        _runPromise = PromiseFactory.create();
+        poller = doConstruct("Good8", request, interval, retries, "Succeeded",
+                             mockConn, retryOn404, false);
+        String body = "<Operation><ID>op1</ID><Status>Succeeded</Status></Operation>";
+        _runPromise.complete(TestHelpers.streamedResponse(200, body));
+        poller.setProbe(new StatusProbe("Operation", "Status"));
+        doFire("200 response => probed success ", poller, false, status);
+        Assert.assertEquals(body, poller._decodedContent);
+    }
+
+    @Test
+    public void testPollScheduler() throws Throwable
+    {
+        PollScheduler scheduler = new PollScheduler(1, 2);
+        try {
+            AzureConnection mockConn = mock(AzureConnection.class);
+            _runPromise = PromiseFactory.create();
+            CompletablePromise<IHttpResponse> firstPoll = _runPromise;
+            Poller poller = doConstruct("Scheduled", new Request(), 20, 5, "OK",
+                                        mockConn, false, false);
+            poller.setStatus("Creating");
+            poller.start(scheduler);
+
+            // Nothing is processed while the poll is in progress
+            Thread.sleep(60);
+            Assert.assertFalse(_responsePromise.isCompleted());
+            Assert.assertEquals(0, scheduler.getFired());
+
+            // A response that is not in the desired state schedules the next poll after the interval
+            DefaultHttpResponse response = new DefaultHttpResponse();
+            response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, 200, ""));
+            _runPromise = PromiseFactory.create();
+            CompletablePromise<IHttpResponse> secondPoll = _runPromise;
+            firstPoll.complete(response);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (scheduler.getFired() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertEquals(2, scheduler.getFired());
+            Assert.assertFalse(_responsePromise.isCompleted());
+
+            // The desired state completes the response
+            poller.setStatus("OK");
+            secondPoll.complete(response);
+            PollerResponse pr = _responsePromise.get();
+            Assert.assertEquals(Status.COMPLETE, pr.getStatus());
+            Assert.assertEquals(3, scheduler.getFired());
+            Assert.assertEquals(0, scheduler.getPending());
+
+            // A failed poll is reported with its cause rather than waited on until the retries run out
+            _runPromise = PromiseFactory.create();
+            CompletablePromise<IHttpResponse> failedPoll = _runPromise;
+            poller = doConstruct("Failed", new Request(), 20, 5, "OK",
+                                 mockConn, false, false);
+            poller.start(scheduler);
+            failedPoll.failure(new java.io.IOException("connection reset"));
+            pr = _responsePromise.get();
+            Assert.assertEquals(Status.FAILURE, pr.getStatus());
+            Assert.assertTrue(pr.getMessage().contains("connection reset"));
+
+            // As is a cancelled poll
+            _runPromise = PromiseFactory.create();
+            CompletablePromise<IHttpResponse> cancelledPoll = _runPromise;
+            poller = doConstruct("Cancelled", new Request(), 20, 5, "OK",
+                                 mockConn, false, false);
+            poller.start(scheduler);
+            cancelledPoll.cancel();
+            pr = _responsePromise.get();
+            Assert.assertEquals(Status.FAILURE, pr.getStatus());
+            Assert.assertTrue(pr.getMessage().contains("cancelled"));
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testIntervalStrategy() throws Throwable
+    {
+        AzureConnection mockConn = mock(AzureConnection.class);
+        DefaultHttpResponse response = new DefaultHttpResponse();
+        response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, 200, ""));
+
+        _responsePromise = PromiseFactory.create();
+        try {
+            new Poller(new Request(), null, 1000, "OK", mockConn);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertTrue(_responsePromise.isFailed());
+        }
+        _responsePromise = PromiseFactory.create();
+        try {
+            new Poller(new Request(), PollIntervals.fixed(10), -1, "OK", mockConn);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertTrue(_responsePromise.isFailed());
+        }
+
+        // Without a timeout nothing would bound a poller that has no retry limit
+        _responsePromise = PromiseFactory.create();
+        try {
+            new Poller(new Request(), PollIntervals.fixed(10), 0, "OK", mockConn);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertEquals("The timeout parameter must be positive.", e.getMessage());
+            Assert.assertTrue(_responsePromise.isFailed());
+        }
+
+        // The strategy decides the next poll time and is told when the operation completes
+        PollIntervals.clearHistory();
+        _responsePromise = PromiseFactory.create();
+        _runPromise = PromiseFactory.create();
+        _runPromise.complete(response);
+        Poller poller = new Poller(new Request(),
+                                   PollIntervals.history("TestOperation", PollIntervals.exponential(100, 2, 1000)),
+                                   60000, "OK", mockConn);
+        Assert.assertEquals(100, poller.interval);
+        poller.setStatus("Creating");
+        long before = System.currentTimeMillis();
+        long next = poller.timerFire(1, 1);
+        Assert.assertTrue(next >= before + 100 && next <= System.currentTimeMillis() + 100);
+        next = poller.timerFire(1, 1);
+        Assert.assertTrue(next >= before + 200 && next <= System.currentTimeMillis() + 200);
+        Assert.assertFalse(_responsePromise.isCompleted());
+        poller.setStatus("OK");
+        Assert.assertEquals(0, poller.timerFire(1, 1));
+        Assert.assertEquals(Status.COMPLETE, _responsePromise.get().getStatus());
+        Assert.assertEquals(-1, PollIntervals.History.getTypical("TestOperation"));
+
+        // The poll fails once the timeout has passed rather than after a number of retries
+        _responsePromise = PromiseFactory.create();
+        _runPromise = PromiseFactory.create();
+        poller = new Poller(new Request(), PollIntervals.fixed(1000), 50, "OK", mockConn);
+        next = poller.timerFire(1, 1);
+        Assert.assertTrue(next > 0 && next <= System.currentTimeMillis() + 50);
+        Assert.assertFalse(_responsePromise.isCompleted());
+        Thread.sleep(60);
+        Assert.assertEquals(0, poller.timerFire(1, 1));
+        PollerResponse pr = _responsePromise.get();
+        Assert.assertEquals(Status.FAILURE, pr.getStatus());
+        Assert.assertTrue(pr.getMessage().contains("timeout"));
+        Assert.assertTrue(_runPromise.isCancelled());
+        PollIntervals.clearHistory();
+    }
+
+    @Test
+    public void testStateStore() throws Throwable
+    {
+        final AzureConnection mockConn = mock(AzureConnection.class);
+        DefaultHttpResponse response = new DefaultHttpResponse();
+        response.setStatus(new HttpStatus(HttpVersion.HTTP_1_1, 200, ""));
+        File journal = File.createTempFile("pollers", ".journal");
+        journal.delete();
+        try {
+            FilePollerStateStore store = new FilePollerStateStore(journal);
+            _responsePromise = PromiseFactory.create();
+            _runPromise = PromiseFactory.create();
+            _runPromise.complete(response);
+            Request request = new Request();
+            request.setReqId(7);
+            Poller poller = new Poller(request, 10, 5, "OK", mockConn, false);
+            poller.setStatus("Creating");
+            poller.checkpointTo(store, "deployments/d1");
+            Assert.assertEquals(5, store.recover().iterator().next().getRemainingRetries());
+            Assert.assertTrue(poller.timerFire(1, 1) > 0);
+            poller.timerFire(1, 1);
+            store.close();
+
+            // After a restart the poller is recreated with its remaining budget
+            store = new FilePollerStateStore(journal);
+            final List<PollerState> rehydrated = new ArrayList<PollerState>();
+            List<StatusPoller<?>> pollers = StatusPoller.resume(store, new PollerRehydrator() {
+                @Override
+                public StatusPoller<?> rehydrate(PollerState state)
+                {
+                    rehydrated.add(state);
+                    Request request = new Request();
+                    request.setReqId(state.getReqId());
+                    return new Poller(request, 10, state.getRemainingRetries(), state.getDesiredState(), mockConn, false);
+                }
+            });
+            Assert.assertEquals(1, pollers.size());
+            PollerState state = rehydrated.get(0);
+            Assert.assertEquals(7, state.getReqId());
+            Assert.assertEquals(Poller.class.getName(), state.getPollerType());
+            Assert.assertEquals("deployments/d1", state.getTargetURI());
+            Assert.assertEquals("OK", state.getDesiredState());
+            Assert.assertEquals(3, state.getRemainingRetries());
+
+            // The poller's operation is removed from the store once it completes
+            poller = (Poller) pollers.get(0);
+            poller.setStatus("OK");
+            Assert.assertEquals(0, poller.timerFire(1, 1));
+            Assert.assertEquals(Status.COMPLETE, _responsePromise.get().getStatus());
+            Assert.assertTrue(store.recover().isEmpty());
+
+            // An operation the rehydrator declines is removed
+            store.checkpoint(state);
+            Assert.assertTrue(StatusPoller.resume(store, new PollerRehydrator() {
+                @Override
+                public StatusPoller<?> rehydrate(PollerState state)
+                {
+                    return null;
+                }
+            }).isEmpty());
+            Assert.assertTrue(store.recover().isEmpty());
+            store.close();
+        }
+        finally {
+            journal.delete();
+        }
     }
 
     private Poller doConstruct(String scenario, Request request,
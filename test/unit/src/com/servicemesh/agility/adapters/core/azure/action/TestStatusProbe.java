@@ -0,0 +1,110 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+package com.servicemesh.agility.adapters.core.azure.action;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.microsoft.schemas.azure.trafficmgr.Error;
+import com.servicemesh.agility.adapters.core.azure.AzureEndpoint;
+import com.servicemesh.agility.adapters.core.azure.AzureEndpointFactory;
+import com.servicemesh.agility.adapters.core.azure.TestHelpers;
+import com.servicemesh.agility.adapters.core.azure.exception.AzureAdapterException;
+import com.servicemesh.agility.adapters.core.azure.util.BufferedHttpResponse;
+import com.servicemesh.io.http.IHttpResponse;
+import com.servicemesh.io.http.impl.DefaultHttpResponse;
+
+public class TestStatusProbe
+{
+    private static DefaultHttpResponse response(String content)
+    {
+        DefaultHttpResponse response = new DefaultHttpResponse();
+        if (content != null) {
+            response.setContent(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return response;
+    }
+
+    @Test
+    public void testXml() throws Exception
+    {
+        StatusProbe probe = new StatusProbe("Operation", "Status");
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<Operation xmlns=\"http://schemas.microsoft.com/windowsazure\"><ID>abc</ID>"
+                + "<Error><Status>Wrong</Status></Error><Status> InProgress </Status><HttpStatusCode>200</HttpStatusCode></Operation>";
+        Assert.assertEquals("InProgress", probe.probe(response(xml)));
+
+        // Reading stops at the status, so a truncated or malformed remainder is never parsed
+        Assert.assertEquals("Succeeded", probe.probe(response("<Operation><Status>Succeeded</Status><Broken")));
+
+        // Namespace prefixes are ignored and a wildcard matches any element
+        String prefixed = "<a:Deployment xmlns:a=\"urn:x\"><a:RoleInstanceList><a:RoleInstance>"
+                + "<a:InstanceStatus>ReadyRole</a:InstanceStatus></a:RoleInstance></a:RoleInstanceList></a:Deployment>";
+        Assert.assertEquals("ReadyRole",
+                new StatusProbe("Deployment", StatusProbe.ANY, "RoleInstance", "InstanceStatus").probe(response(prefixed)));
+
+        Assert.assertNull(probe.probe(response("<Operation><ID>abc</ID></Operation>")));
+        Assert.assertNull(probe.probe(response("<Other><Status>Succeeded</Status></Other>")));
+        Assert.assertNull(probe.probe(response(null)));
+        Assert.assertNull(probe.probe(response("  ")));
+        Assert.assertNull(probe.probe(null));
+    }
+
+    @Test
+    public void testJson() throws Exception
+    {
+        StatusProbe probe = new StatusProbe("properties", "provisioningState");
+        String json = "{\"id\":\"/subscriptions/s/vm1\",\"tags\":{\"provisioningState\":\"Wrong\"},"
+                + "\"list\":[{\"properties\":{\"provisioningState\":\"Wrong\"}}],"
+                + "\"properties\":{\"hardwareProfile\":{\"vmSize\":\"Small\"},\"provisioningState\":\"Succeeded\"}}";
+        Assert.assertEquals("Succeeded", probe.probe(response(json)));
+
+        // Reading stops at the property, so a truncated remainder is never parsed
+        Assert.assertEquals("Creating", probe.probe(response("\n{\"properties\":{\"provisioningState\":\"Creating\",\"x\":[")));
+
+        Assert.assertEquals("42", new StatusProbe("code").probe(response("{\"code\":42}")));
+        Assert.assertEquals("true", new StatusProbe("*", "done").probe(response("{\"a\":{\"done\":true}}")));
+        Assert.assertNull(new StatusProbe("properties").probe(response(json)));
+        Assert.assertNull(probe.probe(response("{\"properties\":{}}")));
+        Assert.assertNull(probe.probe(response("{\"properties\":\"Succeeded\"}")));
+    }
+
+    @Test
+    public void testProbeThenDecode() throws Exception
+    {
+        // A streamed response is buffered once so that it can be probed and then decoded
+        AzureEndpoint endpoint = AzureEndpointFactory.getInstance().getEndpoint("probe-subscription", "2012-08-01",
+                Error.class.getPackage().getName(), Error.class);
+        String xml = "<Error xmlns=\"http://schemas.microsoft.com/windowsazure\"><Code>ServerBusy</Code>"
+                + "<Message>The server is busy.</Message></Error>";
+        IHttpResponse response = BufferedHttpResponse.of(TestHelpers.streamedResponse(200, xml));
+        Assert.assertEquals("ServerBusy", new StatusProbe("Error", "Code").probe(response));
+        Error error = endpoint.decode(response, Error.class);
+        Assert.assertEquals("ServerBusy", error.getCode());
+        Assert.assertEquals("The server is busy.", error.getMessage());
+        Assert.assertSame(response, BufferedHttpResponse.of(response));
+    }
+
+    @Test
+    public void testErrors() throws Exception
+    {
+        try {
+            new StatusProbe();
+            Assert.fail("Empty path accepted");
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertEquals("The path parameter is required but missing.", e.getMessage());
+        }
+        try {
+            new StatusProbe("Operation", "Status").probe(response("<Operation><ID>abc"));
+            Assert.fail("Malformed document accepted");
+        }
+        catch (AzureAdapterException e) {
+            Assert.assertTrue(e.getMessage().contains("StatusProbe[Operation, Status]"));
+        }
+    }
+}
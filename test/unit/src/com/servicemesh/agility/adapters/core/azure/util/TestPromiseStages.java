@@ -0,0 +1,113 @@
+/**
+ *              Copyright (c) 2008-2013 ServiceMesh, Incorporated; All Rights Reserved
+ *              Copyright (c) 2013-Present Computer Sciences Corporation
+ */
+
+package com.servicemesh.agility.adapters.core.azure.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.servicemesh.core.async.CompletablePromise;
+import com.servicemesh.core.async.Promise;
+import com.servicemesh.core.async.PromiseFactory;
+
+public class TestPromiseStages
+{
+    @Test
+    public void testToCompletableFuture() throws Exception
+    {
+        // Completes on the thread that completes the promise
+        final CompletablePromise<String> promise = PromiseFactory.create();
+        CompletableFuture<String> future = PromiseStages.toCompletableFuture(promise);
+        final AtomicReference<Thread> completedOn = new AtomicReference<Thread>();
+        future.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String value, Throwable t)
+            {
+                completedOn.set(Thread.currentThread());
+            }
+        });
+        Assert.assertFalse(future.isDone());
+        Thread completer = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                promise.complete("done");
+            }
+        });
+        completer.start();
+        completer.join();
+        Assert.assertEquals("done", future.get());
+        Assert.assertSame(completer, completedOn.get());
+
+        // Failure
+        CompletablePromise<String> failing = PromiseFactory.create();
+        future = PromiseStages.toCompletableFuture(failing);
+        IllegalStateException ex = new IllegalStateException("failed");
+        failing.failure(ex);
+        try {
+            future.get();
+            Assert.fail("Expected failure");
+        }
+        catch (ExecutionException e) {
+            Assert.assertSame(ex, e.getCause());
+        }
+
+        // Cancelling the future cancels the promise
+        CompletablePromise<String> cancelled = PromiseFactory.create();
+        future = PromiseStages.toCompletableFuture(cancelled);
+        Assert.assertTrue(future.cancel(true));
+        Assert.assertTrue(cancelled.isCancelled());
+
+        // Cancelling the promise cancels the future
+        cancelled = PromiseFactory.create();
+        future = PromiseStages.toCompletableFuture(cancelled);
+        cancelled.cancel();
+        Assert.assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void testToPromise() throws Throwable
+    {
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        Promise<String> promise = PromiseStages.toPromise(future);
+        Assert.assertFalse(promise.isCompleted());
+        future.complete("done");
+        Assert.assertTrue(promise.isCompleted());
+        Assert.assertEquals("done", promise.get());
+
+        future = new CompletableFuture<String>();
+        promise = PromiseStages.toPromise(future.thenApply(new java.util.function.Function<String, String>() {
+            @Override
+            public String apply(String value)
+            {
+                throw new IllegalArgumentException(value);
+            }
+        }));
+        future.complete("bad");
+        Assert.assertTrue(promise.isFailed());
+        try {
+            promise.get();
+            Assert.fail("Expected failure");
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertEquals("bad", e.getMessage());
+        }
+
+        future = new CompletableFuture<String>();
+        promise = PromiseStages.toPromise(future);
+        promise.cancel();
+        Assert.assertTrue(future.isCancelled());
+
+        future = new CompletableFuture<String>();
+        promise = PromiseStages.toPromise(future);
+        future.cancel(false);
+        Assert.assertTrue(promise.isCancelled());
+    }
+}